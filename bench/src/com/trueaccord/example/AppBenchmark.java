@@ -0,0 +1,59 @@
+package com.trueaccord.example;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks App.processDebts end to end, from the feeds to the joined debts,
+ * against the mock client and against synthetic feeds of the requested size.
+ * 
+ * @author mpcheng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppBenchmark {
+
+	@Param({ "1", "4" })
+	public int paymentParallelism;
+
+	@Param({ "0", "1000" })
+	public int pageSize;
+
+	@Param({ "false", "true" })
+	public boolean bufferBodies;
+
+	private AppOptions options;
+
+	@Setup
+	public void setup() {
+		this.options = new AppOptions().setPaymentParallelism(paymentParallelism).setPageSize(pageSize)
+				.setBufferBodies(bufferBodies);
+	}
+
+	@Benchmark
+	public Map<Integer, Debt> processDebtsMock() throws IOException, InterruptedException {
+		return new App(new HttpGetClientMock(), Runnable::run, this.options).processDebts();
+	}
+
+	@Benchmark
+	public Map<Integer, Debt> processDebtsSynthetic(SyntheticFeeds feeds) throws IOException, InterruptedException {
+		return new App(feeds.getClient(), Runnable::run, this.options).processDebts();
+	}
+}
@@ -0,0 +1,32 @@
+package com.trueaccord.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks rendering every debt of the synthetic feeds as a JSON line.
+ * 
+ * @author mpcheng
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DebtBenchmark {
+
+	@Benchmark
+	public void asJsonLine(SyntheticFeeds feeds, Blackhole blackhole) {
+		for (Debt debt : feeds.getDebts()) {
+			blackhole.consume(debt.asJsonLine());
+		}
+	}
+}
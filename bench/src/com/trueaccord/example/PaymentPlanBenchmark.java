@@ -0,0 +1,41 @@
+package com.trueaccord.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the payment plan computations behind remaining_amount and
+ * next_payment_due_date, over every payment plan of the synthetic feeds after
+ * all their payments were applied.
+ * 
+ * @author mpcheng
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentPlanBenchmark {
+
+	@Benchmark
+	public void getRemainingAmount(SyntheticFeeds feeds, Blackhole blackhole) {
+		for (PaymentPlan paymentPlan : feeds.getPaymentPlans()) {
+			blackhole.consume(paymentPlan.getRemainingAmount());
+		}
+	}
+
+	@Benchmark
+	public void getNextPaymentDueDate(SyntheticFeeds feeds, Blackhole blackhole) {
+		for (PaymentPlan paymentPlan : feeds.getPaymentPlans()) {
+			blackhole.consume(paymentPlan.getNextPaymentDueDate());
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.trueaccord.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding synthetic feeds of the requested size. The feeds are
+ * generated once per trial so generating them is never part of a measurement,
+ * and are processed once so the resulting debts and payment plans can be
+ * measured on their own.
+ * 
+ * @author mpcheng
+ */
+@State(Scope.Benchmark)
+public class SyntheticFeeds {
+
+	@Param({ "10000", "100000" })
+	public int numberOfDebts;
+
+	@Param({ "5000" })
+	public int numberOfPaymentPlans;
+
+	@Param({ "1", "12", "52" })
+	public int paymentsPerPlan;
+
+	@Param({ "42" })
+	public long seed;
+
+	private HttpGetClient client;
+	private Debt[] debts;
+	private PaymentPlan[] paymentPlans;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(seed, numberOfDebts, numberOfPaymentPlans,
+				paymentsPerPlan);
+		this.client = new PregeneratedHttpGetClient(generator);
+		this.debts = new App(this.client, Runnable::run).processDebts().values().toArray(new Debt[0]);
+		this.paymentPlans = processPaymentPlans(generator);
+	}
+
+	/**
+	 * Returns a client serving the generated feeds from memory.
+	 * 
+	 * @return a client serving the generated feeds.
+	 */
+	public HttpGetClient getClient() {
+		return this.client;
+	}
+
+	/**
+	 * Returns the debts processed from the feeds, ordered by id.
+	 * 
+	 * @return the debts processed from the feeds.
+	 */
+	public Debt[] getDebts() {
+		return this.debts;
+	}
+
+	/**
+	 * Returns the payment plans processed from the feeds, with every payment
+	 * applied.
+	 * 
+	 * @return the payment plans processed from the feeds.
+	 */
+	public PaymentPlan[] getPaymentPlans() {
+		return this.paymentPlans;
+	}
+
+	/**
+	 * Builds the payment plans of the feeds with every payment applied, the same
+	 * way App does, as App only exposes them through the debts.
+	 */
+	private static PaymentPlan[] processPaymentPlans(SyntheticDataGenerator generator) throws IOException {
+		Map<Integer, PaymentPlan> paymentPlans = new HashMap<Integer, PaymentPlan>();
+		try (JsonArrayReader reader = new JsonArrayReader(
+				new ByteArrayInputStream(generator.generate(HttpGetClient.PAYMENT_PLANS_ENDPOINT)))) {
+			reader.forEach(json -> {
+				PaymentPlan paymentPlan = new PaymentPlan(json.getInt(AppConstants.ID),
+						json.getInt(AppConstants.DEBT_ID), json.getBigDecimal(AppConstants.AMOUNT_TO_PAY),
+						json.getBigDecimal(AppConstants.INSTALLMENT_AMOUNT),
+						json.getEnum(PaymentPlan.Frequency.class, AppConstants.INSTALLMENT_FREQUENCY),
+						DateCodec.ISO.parseEpochDay(json.getString(AppConstants.START_DATE)), false);
+				paymentPlans.put(paymentPlan.getId(), paymentPlan);
+			});
+		}
+		try (JsonArrayReader reader = new JsonArrayReader(
+				new ByteArrayInputStream(generator.generate(HttpGetClient.PAYMENTS_ENDPOINT)))) {
+			reader.forEach(json -> paymentPlans.get(json.getInt(AppConstants.PAYMENT_PLAN_ID)).processPayment(
+					DateCodec.ISO.parseEpochDay(json.getString(AppConstants.DATE)),
+					json.getBigDecimal(AppConstants.AMOUNT)));
+		}
+		return paymentPlans.values().toArray(new PaymentPlan[0]);
+	}
+
+	/**
+	 * Serves feeds generated up front, so only the application's own work is
+	 * measured.
+	 */
+	private static class PregeneratedHttpGetClient implements HttpGetClient {
+
+		private final SyntheticDataGenerator generator;
+		private final Map<String, byte[]> feeds = new HashMap<String, byte[]>();
+
+		private PregeneratedHttpGetClient(SyntheticDataGenerator generator) {
+			this.generator = generator;
+			for (String url : new String[] { DEBT_ENDPOINT, PAYMENT_PLANS_ENDPOINT, PAYMENTS_ENDPOINT }) {
+				this.feeds.put(url, generator.generate(url));
+			}
+		}
+
+		@Override
+		public String fetchEndPoint(String url) {
+			return new String(feed(url), StandardCharsets.US_ASCII);
+		}
+
+		@Override
+		public InputStream fetchEndPointAsStream(String url) {
+			return new ByteArrayInputStream(feed(url));
+		}
+
+		@Override
+		public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+			return CompletableFuture.completedFuture(fetchEndPointAsStream(url));
+		}
+
+		@Override
+		public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+			int from = (page - 1) * pageSize;
+			return CompletableFuture
+					.completedFuture(new ByteArrayInputStream(this.generator.generate(url, from, from + pageSize)));
+		}
+
+		private byte[] feed(String url) {
+			byte[] feed = this.feeds.get(url);
+			if (feed == null) {
+				throw new RuntimeException("Unknown url for synthetic data " + url);
+			}
+			return feed;
+		}
+	}
+}
@@ -1 +1,7 @@
-java -classpath lib/* com.trueaccord.example.App  
+@echo off
+rem Compiles the application from source, so it runs with the current code, and passes on any arguments
+if exist build\classes rmdir /s /q build\classes
+mkdir build\classes
+dir /s /b src\main\*.java > build\main-sources.txt
+javac -d build\classes -cp "lib/*" @build\main-sources.txt || exit /b 1
+java -classpath "build\classes;lib/*" com.trueaccord.example.App %*
@@ -1 +1,4 @@
-java -classpath lib/* com.trueaccord.example.App  
+# Compiles the application from source, so it runs with the current code, and passes on any arguments
+rm -rf build/classes && mkdir -p build/classes || exit 1
+javac -d build/classes -cp "lib/*" $(find src/main -name "*.java") || exit 1
+java -classpath "build/classes:lib/*" com.trueaccord.example.App "$@"
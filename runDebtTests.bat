@@ -1 +1,7 @@
-java -classpath lib/* org.junit.runner.JUnitCore com.trueaccord.example.DebtTests com.trueaccord.example.PaymentPlanTests com.trueaccord.example.HttpGetClientMockTests com.trueaccord.example.HttpGetClientImplTests com.trueaccord.example.AppMockTests com.trueaccord.example.AppRealTests
+@echo off
+rem Compiles the application and the junits from source, so the tests run against the current code
+if exist build\test-classes rmdir /s /q build\test-classes
+mkdir build\test-classes
+dir /s /b src\main\*.java src\test\*.java > build\sources.txt
+javac -d build\test-classes -cp "lib/*" @build\sources.txt || exit /b 1
+java -classpath "build\test-classes;lib/*" org.junit.runner.JUnitCore com.trueaccord.example.DebtTests com.trueaccord.example.PaymentPlanTests com.trueaccord.example.PaymentHistoryTests com.trueaccord.example.MoneyTests com.trueaccord.example.DateCodecTests com.trueaccord.example.HttpGetClientMockTests com.trueaccord.example.JsonArrayReaderTests com.trueaccord.example.ContentEncodingTests com.trueaccord.example.EndpointReaderTests com.trueaccord.example.JsonLinesWriterTests com.trueaccord.example.DebtSnapshotTests com.trueaccord.example.ShardedConsumerTests com.trueaccord.example.HttpGetClientImplTests com.trueaccord.example.AppMockTests com.trueaccord.example.AppSyntheticTests com.trueaccord.example.LocalDebtServerTests com.trueaccord.example.CachingHttpGetClientTests com.trueaccord.example.ResilientHttpGetClientTests com.trueaccord.example.AppMetricsTests com.trueaccord.example.DebtQueryServerTests com.trueaccord.example.IntObjectMapTests com.trueaccord.example.PartitionedJoinTests com.trueaccord.example.AppThreadsTests com.trueaccord.example.DebtPublisherTests com.trueaccord.example.AppRealTests
@@ -6,21 +6,29 @@ import static com.trueaccord.example.AppConstants.DATE;
 import static com.trueaccord.example.AppConstants.DEBT_ID;
 import static com.trueaccord.example.AppConstants.ID;
 import static com.trueaccord.example.AppConstants.INSTALLMENT_FREQUENCY;
+import static com.trueaccord.example.AppConstants.PAYMENT_PLAN_ID;
 import static com.trueaccord.example.AppConstants.START_DATE;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
@@ -33,8 +41,16 @@ import org.json.JSONObject;
  */
 public class App {
 
+	/**
+	 * Executor used to parse the endpoints when none is given. Parsing blocks on
+	 * the response bodies, so it uses its own threads rather than the common fork
+	 * join pool: virtual threads when the JVM has them.
+	 */
+	private static final Executor DEFAULT_EXECUTOR = newExecutor(AppThreads.preferred());
+
 	private HttpGetClient client;
-	private DateFormat dateFormat;
+	private Executor executor;
+	private AppOptions options;
 
 	/**
 	 * Default constructor for App.
@@ -42,91 +58,547 @@ public class App {
 	 * @param client - the HttpGetClient to use for fetching endpoints.
 	 */
 	public App(HttpGetClient client) {
+		this(client, DEFAULT_EXECUTOR);
+	}
+
+	/**
+	 * Constructor for App parsing the endpoints on the given executor.
+	 * 
+	 * @param client   - the HttpGetClient to use for fetching endpoints.
+	 * @param executor - the executor to parse the endpoints on.
+	 */
+	public App(HttpGetClient client, Executor executor) {
+		this(client, executor, new AppOptions());
+	}
+
+	/**
+	 * Constructor for App parsing the endpoints on the given executor with the
+	 * given options.
+	 * 
+	 * @param client   - the HttpGetClient to use for fetching endpoints.
+	 * @param executor - the executor to parse the endpoints on.
+	 * @param options  - the options for fetching and processing the endpoints.
+	 */
+	public App(HttpGetClient client, Executor executor, AppOptions options) {
 		this.client = client;
-		this.dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		this.executor = executor;
+		this.options = options;
 	}
 
 	/**
-	 * Fetches and processes all the debts and returns them
+	 * Fetches and processes all the debts and returns them. The debts, payment
+	 * plans and payments are requested at once and each is parsed as soon as its
+	 * response arrives, so a run takes about as long as the slowest endpoint. Each
+	 * endpoint is read as a stream, or page by page when a page size is set, and
+	 * its records are applied one at a time, so memory scales with the number of
+	 * debts and payment plans rather than the size of the feeds. Debts and payment
+	 * plans are joined through IntObjectMaps, and the debts returned are iterated
+	 * by id, sorted once when first iterated.
 	 * 
 	 * @return
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
 	public Map<Integer, Debt> processDebts() throws IOException, InterruptedException {
-		Map<Integer, Debt> debts = new TreeMap<Integer, Debt>();
-		String responseString = client.fetchEndPoint(HttpGetClient.DEBT_ENDPOINT);
-		JSONArray debtsAsJson = new JSONArray(responseString);
-		debtsAsJson.forEach(object -> {
-			JSONObject json = (JSONObject) object;
+		EndpointReader paymentsReader = newEndpointReader(HttpGetClient.PAYMENTS_ENDPOINT, 0);
+		return processDebts(null, paymentsReader);
+	}
+
+	/**
+	 * Fetches and processes the debts, starting from the state of their payment
+	 * plans in a snapshot written by an earlier run. Only the payments after the
+	 * watermark of the snapshot are read and applied, on top of the amount paid
+	 * and last payment date of each payment plan in the snapshot, so a run reads
+	 * about as many payments as were made since the snapshot. The debts and
+	 * payment plans are still read in full, which tells which debts changed.
+	 * <p>
+	 * The payments endpoint is taken to be append only, as payments have no id:
+	 * the watermark is the number of its records already applied. Every payment
+	 * is applied instead when there is no snapshot, when the snapshot has no
+	 * watermark, or when the endpoint has fewer records than the watermark. In the
+	 * last case only the payments are read again, from the first record, as the
+	 * snapshot is not restored until the payments before the watermark are
+	 * skipped.
+	 * 
+	 * @param snapshot - the snapshot of an earlier run, or null.
+	 * @return every debt, the debts changed since the snapshot, and the watermark
+	 *         for the next snapshot.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public DebtUpdate processDebtsSince(DebtSnapshot snapshot) throws IOException, InterruptedException {
+		long watermark = snapshot == null ? DebtSnapshot.NO_WATERMARK : snapshot.getPaymentsWatermark();
+		if (watermark >= 0 && watermark <= Integer.MAX_VALUE) {
+			EndpointReader paymentsReader = newEndpointReader(HttpGetClient.PAYMENTS_ENDPOINT, (int) watermark);
+			IntObjectMap<Debt> debts = processDebts(snapshot, paymentsReader);
+			if (paymentsReader.getRecordsSkipped() == watermark) {
+				return newDebtUpdate(debts, snapshot, watermark + paymentsReader.getRecordsRead(), false);
+			}
+			// No payment was applied, so the payment plans are as read
+			IntObjectMap<PaymentPlan> paymentPlans = new IntObjectMap<PaymentPlan>();
+			debts.forEachValue(debt -> {
+				if (debt.getPaymentPlan() != null) {
+					paymentPlans.put(debt.getPaymentPlan().getId(), debt.getPaymentPlan());
+				}
+			});
+			paymentsReader = newEndpointReader(HttpGetClient.PAYMENTS_ENDPOINT, 0);
+			try {
+				processPayments(paymentPlans, null, paymentsReader);
+			} finally {
+				paymentsReader.close();
+			}
+			return newDebtUpdate(debts, snapshot, paymentsReader.getRecordsRead(), true);
+		}
+		EndpointReader paymentsReader = newEndpointReader(HttpGetClient.PAYMENTS_ENDPOINT, 0);
+		IntObjectMap<Debt> debts = processDebts(null, paymentsReader);
+		return newDebtUpdate(debts, snapshot, paymentsReader.getRecordsRead(), true);
+	}
+
+	/**
+	 * Fetches and processes all the debts, handing each to the consumer in id
+	 * order. The debts are the same as those returned by processDebts(). With a
+	 * spill directory set in the options, the feeds are joined out of core by a
+	 * PartitionedJoin: each endpoint is spilled to partition files as it is read,
+	 * and the partitions are joined one at a time within the join memory budget,
+	 * so the debts and payment plans need not fit in memory at once.
+	 * 
+	 * @param consumer - the consumer of the debts.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void processDebts(Consumer<Debt> consumer) throws IOException, InterruptedException {
+		Path spillDirectory = options.getSpillDirectory();
+		if (spillDirectory == null) {
+			processDebts().values().forEach(consumer);
+			return;
+		}
+		AppMetrics.Timer run = startStage(AppMetrics.Stage.RUN);
+		EndpointReader debtsReader = newEndpointReader(HttpGetClient.DEBT_ENDPOINT, 0);
+		EndpointReader paymentPlansReader = newEndpointReader(HttpGetClient.PAYMENT_PLANS_ENDPOINT, 0);
+		EndpointReader paymentsReader = newEndpointReader(HttpGetClient.PAYMENTS_ENDPOINT, 0);
+		try (PartitionedJoin join = new PartitionedJoin(spillDirectory, options.getJoinMemoryBudget(),
+				options.getMoneyScale())) {
+			// Each endpoint is spilled to its own partition files, so they are read at once
+			CompletableFuture<Void> debts = CompletableFuture.runAsync(() -> spillDebts(debtsReader, join),
+					executor);
+			CompletableFuture<Void> paymentPlans = CompletableFuture
+					.runAsync(() -> spillPaymentPlans(paymentPlansReader, join), executor);
+			CompletableFuture<Void> payments = CompletableFuture.runAsync(() -> spillPayments(paymentsReader, join),
+					executor);
+			EndpointReader.await(CompletableFuture.allOf(debts, paymentPlans, payments));
+			AppMetrics.Timer joinTimer = startStage(AppMetrics.Stage.JOIN);
+			long joined = join.join(consumer);
+			stopStage(joinTimer, joined);
+			stopStage(run, joined);
+		} finally {
+			debtsReader.close();
+			paymentPlansReader.close();
+			paymentsReader.close();
+		}
+	}
+
+	/**
+	 * Returns a Flow.Publisher of all the debts in id order, processing them
+	 * again for each subscription once the subscriber requests debts. The debts
+	 * are the same as those handed out by processDebts with a consumer. Each run
+	 * blocks a thread of the executor of this App while no debts are requested,
+	 * besides the threads parsing the endpoints, so the executor must start a
+	 * thread per task, as the default executor and newExecutor do.
+	 * <p>
+	 * Demand only holds back the delivery of the debts. No debt is final before
+	 * every payment is read, so a run fetches, parses and joins the feeds in full
+	 * before the first debt is delivered, and the in memory join holds every debt
+	 * until then. With a spill directory in the options, the debts are merged
+	 * from the partitions of the PartitionedJoin as they are requested, so the
+	 * memory of a run stays within the join memory budget.
+	 * 
+	 * @return the publisher of the debts.
+	 * @see DebtPublisher
+	 */
+	public Flow.Publisher<Debt> publishDebts() {
+		return publishDebts(this.executor);
+	}
+
+	/**
+	 * Returns a Flow.Publisher of all the debts in id order, as publishDebts(),
+	 * running each subscription on the given executor.
+	 * 
+	 * @param executor - the executor to run each subscription on, which must
+	 *                 start a thread per task.
+	 * @return the publisher of the debts.
+	 */
+	public Flow.Publisher<Debt> publishDebts(Executor executor) {
+		return new DebtPublisher(this, executor);
+	}
+
+	private IntObjectMap<Debt> processDebts(DebtSnapshot snapshot, EndpointReader paymentsReader)
+			throws IOException, InterruptedException {
+		AppMetrics.Timer run = startStage(AppMetrics.Stage.RUN);
+		EndpointReader debtsReader = newEndpointReader(HttpGetClient.DEBT_ENDPOINT, 0);
+		EndpointReader paymentPlansReader = newEndpointReader(HttpGetClient.PAYMENT_PLANS_ENDPOINT, 0);
+
+		CompletableFuture<IntObjectMap<Debt>> debts = CompletableFuture
+				.supplyAsync(() -> processDebts(debtsReader), executor);
+		// Payments can only be applied once every payment plan they refer to is known
+		CompletableFuture<IntObjectMap<PaymentPlan>> paymentPlans = CompletableFuture
+				.supplyAsync(() -> processPaymentPlans(paymentPlansReader), executor)
+				.thenApplyAsync(plans -> processPayments(plans, snapshot, paymentsReader), executor);
+		try {
+			IntObjectMap<Debt> result = EndpointReader.await(debts.thenCombine(paymentPlans, this::joinPaymentPlans));
+			stopStage(run, result.size());
+			return result;
+		} finally {
+			debtsReader.close();
+			paymentPlansReader.close();
+			paymentsReader.close();
+		}
+	}
+
+	/**
+	 * Returns a new executor to parse the endpoints and render the debts on, with
+	 * a thread per task of the given threads.
+	 * 
+	 * @param threads - the threads to run the tasks on.
+	 * @return the new executor.
+	 */
+	public static ExecutorService newExecutor(AppThreads threads) {
+		return threads.newExecutor("debt-app-parser");
+	}
+
+	private EndpointReader newEndpointReader(String url, int firstRecord) {
+		return new EndpointReader(client, url, options.getPageSize(), options.getMaxPagesInFlight(), firstRecord,
+				options.isBufferBodies(), options.getMetrics());
+	}
+
+	/**
+	 * Starts timing a stage if the runs are recorded.
+	 */
+	private AppMetrics.Timer startStage(AppMetrics.Stage stage) {
+		AppMetrics metrics = options.getMetrics();
+		return metrics == null ? null : metrics.start(stage);
+	}
+
+	private static void stopStage(AppMetrics.Timer timer, long records) {
+		if (timer != null) {
+			timer.stop(records);
+		}
+	}
+
+	private IntObjectMap<Debt> processDebts(EndpointReader reader) {
+		AppMetrics.Timer parse = startStage(AppMetrics.Stage.PARSE);
+		IntObjectMap<Debt> debts = new IntObjectMap<Debt>();
+		forEachRecord(reader, json -> {
 			Debt debt = new Debt(json.getInt(ID), json.getBigDecimal(AMOUNT));
 			debts.put(debt.getId(), debt);
 		});
-		Collection<PaymentPlan> paymentPlans = this.processPaymentPlans();
-		for (PaymentPlan paymentPlan : paymentPlans) {
-			if (!debts.containsKey(paymentPlan.getDebtId())) {
-				throw new RuntimeException(
-						"Unknown debt id " + paymentPlan.getDebtId() + " from payment plan " + paymentPlan.getId());
-			}
-			debts.get(paymentPlan.getDebtId()).setPaymentPlan(paymentPlan);
-		}
+		stopStage(parse, reader.getRecordsRead());
 		return debts;
 	}
 
-	private Collection<PaymentPlan> processPaymentPlans() throws IOException, InterruptedException {
-		Map<Integer, PaymentPlan> paymentPlans = new HashMap<Integer, PaymentPlan>();
-		String responseString = client.fetchEndPoint(HttpGetClient.PAYMENT_PLANS_ENDPOINT);
-		JSONArray paymentPlansAsJson = new JSONArray(responseString);
-		paymentPlansAsJson.forEach(object -> {
-			JSONObject json = (JSONObject) object;
-			Date startDate;
-			try {
-				startDate = dateFormat.parse(json.getString(START_DATE));
-			} catch (JSONException | ParseException e) {
-				throw new RuntimeException(e);
-			}
-			PaymentPlan paymentPlan = new PaymentPlan(json.getInt(ID), json.getInt(DEBT_ID),
-					json.getBigDecimal(AMOUNT_TO_PAY), json.getBigDecimal("installment_amount"),
-					json.getEnum(PaymentPlan.Frequency.class, INSTALLMENT_FREQUENCY), startDate);
+	private IntObjectMap<PaymentPlan> processPaymentPlans(EndpointReader reader) {
+		AppMetrics.Timer parse = startStage(AppMetrics.Stage.PARSE);
+		IntObjectMap<PaymentPlan> paymentPlans = new IntObjectMap<PaymentPlan>();
+		forEachRecord(reader, json -> {
+			PaymentPlan paymentPlan = toPaymentPlan(json);
 			paymentPlans.put(paymentPlan.getId(), paymentPlan);
 		});
+		stopStage(parse, reader.getRecordsRead());
+		return paymentPlans;
+	}
+
+	private PaymentPlan toPaymentPlan(JSONObject json) {
+		int startEpochDay = DateCodec.ISO.parseEpochDay(json.getString(START_DATE));
+		return new PaymentPlan(json.getInt(ID), json.getInt(DEBT_ID), json.getBigDecimal(AMOUNT_TO_PAY),
+				json.getBigDecimal("installment_amount"),
+				json.getEnum(PaymentPlan.Frequency.class, INSTALLMENT_FREQUENCY), startEpochDay, false,
+				options.getMoneyScale());
+	}
+
+	private void spillDebts(EndpointReader reader, PartitionedJoin join) {
+		AppMetrics.Timer parse = startStage(AppMetrics.Stage.PARSE);
+		forEachRecord(reader, json -> join.addDebt(json.getInt(ID), json.getBigDecimal(AMOUNT)));
+		stopStage(parse, reader.getRecordsRead());
+	}
+
+	private void spillPaymentPlans(EndpointReader reader, PartitionedJoin join) {
+		AppMetrics.Timer parse = startStage(AppMetrics.Stage.PARSE);
+		forEachRecord(reader, json -> join.addPaymentPlan(toPaymentPlan(json)));
+		stopStage(parse, reader.getRecordsRead());
+	}
 
-		processPayments(paymentPlans);
-		return paymentPlans.values();
+	private void spillPayments(EndpointReader reader, PartitionedJoin join) {
+		AppMetrics.Timer payments = startStage(AppMetrics.Stage.PAYMENTS);
+		forEachRecord(reader, json -> join.addPayment(json.getInt(PAYMENT_PLAN_ID),
+				DateCodec.ISO.parseEpochDay(json.getString(DATE)), json.getBigDecimal(AMOUNT)));
+		stopStage(payments, reader.getRecordsRead());
 	}
 
-	private void processPayments(Map<Integer, PaymentPlan> paymentPlans) throws IOException, InterruptedException {
-		String responseString = client.fetchEndPoint(HttpGetClient.PAYMENTS_ENDPOINT);
-		JSONArray paymentsAsJson = new JSONArray(responseString);
-		paymentsAsJson.forEach(object -> {
-			JSONObject json = (JSONObject) object;
-			int paymentPlanId = json.getInt("payment_plan_id");
-			if (!paymentPlans.containsKey(paymentPlanId)) {
-				throw new RuntimeException("Unknown payment plan id " + paymentPlanId);
+	/**
+	 * Applies the amount paid and last payment date of the payment plans of a
+	 * snapshot, as a single payment, to the payment plans with the same id.
+	 */
+	private static void restorePayments(IntObjectMap<PaymentPlan> paymentPlans, DebtSnapshot snapshot) {
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (!snapshot.hasPaymentPlan(i) || snapshot.getLastPaymentEpochDay(i) == DateCodec.NO_DATE) {
+				continue;
 			}
-			Date paymentDate;
-			try {
-				paymentDate = dateFormat.parse(json.getString(DATE));
-			} catch (JSONException | ParseException e) {
-				throw new RuntimeException(e);
+			PaymentPlan paymentPlan = paymentPlans.get(snapshot.getPaymentPlanId(i));
+			if (paymentPlan != null) {
+				paymentPlan.processPayment(snapshot.getLastPaymentEpochDay(i), snapshot.getAmountPaid(i));
+			}
+		}
+	}
+
+	/**
+	 * Applies the payments of the reader to the payment plans, on top of the
+	 * payments of a snapshot if given. The snapshot is only restored once the
+	 * reader has skipped the payments before its watermark, so the payment plans
+	 * are left as read when the endpoint has fewer records.
+	 */
+	private IntObjectMap<PaymentPlan> processPayments(IntObjectMap<PaymentPlan> paymentPlans, DebtSnapshot snapshot,
+			EndpointReader reader) {
+		AppMetrics.Timer payments = startStage(AppMetrics.Stage.PAYMENTS);
+		// A payment after the watermark can only be read once every payment before it was skipped
+		AtomicBoolean restored = new AtomicBoolean(snapshot == null);
+		Consumer<JSONObject> restoring = json -> {
+			if (restored.compareAndSet(false, true)) {
+				restorePayments(paymentPlans, snapshot);
+			}
+		};
+		int parallelism = options.getPaymentParallelism();
+		if (parallelism <= 1) {
+			forEachRecord(reader, restoring.andThen(json -> processPayment(paymentPlans, json)));
+		} else {
+			try (ShardedConsumer<JSONObject> shards = new ShardedConsumer<JSONObject>(parallelism,
+					ShardedConsumer.DEFAULT_BATCH_SIZE, json -> json.getInt(PAYMENT_PLAN_ID),
+					json -> processPayment(paymentPlans, json), options.getThreads())) {
+				forEachRecord(reader, restoring.andThen(shards));
+				shards.finish();
+			}
+		}
+		if (!restored.get() && reader.getRecordsSkipped() == snapshot.getPaymentsWatermark()) {
+			restorePayments(paymentPlans, snapshot);
+		}
+		stopStage(payments, reader.getRecordsRead());
+		return paymentPlans;
+	}
+
+	private static void processPayment(IntObjectMap<PaymentPlan> paymentPlans, JSONObject json) {
+		int paymentPlanId = json.getInt(PAYMENT_PLAN_ID);
+		PaymentPlan paymentPlan = paymentPlans.get(paymentPlanId);
+		if (paymentPlan == null) {
+			throw new RuntimeException("Unknown payment plan id " + paymentPlanId);
+		}
+		int paymentEpochDay = DateCodec.ISO.parseEpochDay(json.getString(DATE));
+		paymentPlan.processPayment(paymentEpochDay, json.getBigDecimal(AMOUNT));
+	}
+
+	private static void forEachRecord(EndpointReader reader, Consumer<JSONObject> consumer) {
+		try {
+			reader.forEach(consumer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private IntObjectMap<Debt> joinPaymentPlans(IntObjectMap<Debt> debts, IntObjectMap<PaymentPlan> paymentPlans) {
+		AppMetrics.Timer join = startStage(AppMetrics.Stage.JOIN);
+		paymentPlans.forEachValue(paymentPlan -> {
+			Debt debt = debts.get(paymentPlan.getDebtId());
+			if (debt == null) {
+				throw new RuntimeException(
+						"Unknown debt id " + paymentPlan.getDebtId() + " from payment plan " + paymentPlan.getId());
 			}
-			paymentPlans.get(paymentPlanId).processPayment(paymentDate, json.getBigDecimal(AMOUNT));
+			debt.setPaymentPlan(paymentPlan);
 		});
+		stopStage(join, paymentPlans.size());
+		return debts;
+	}
+
+	private static DebtUpdate newDebtUpdate(IntObjectMap<Debt> debts, DebtSnapshot snapshot, long paymentsWatermark,
+			boolean fullRecompute) {
+		IntObjectMap<Debt> changedDebts = new IntObjectMap<Debt>();
+		Set<Integer> removedDebtIds = new TreeSet<Integer>();
+		debts.forEachValue(debt -> {
+			int index = snapshot == null ? -1 : snapshot.indexOf(debt.getId());
+			if (index < 0 || !snapshot.matches(index, debt)) {
+				changedDebts.put(debt.getId(), debt);
+			}
+		});
+		for (int i = 0; snapshot != null && i < snapshot.size(); i++) {
+			if (!debts.containsKey(snapshot.getId(i))) {
+				removedDebtIds.add(snapshot.getId(i));
+			}
+		}
+		return new DebtUpdate(debts, changedDebts, removedDebtIds, paymentsWatermark, fullRecompute);
 	}
 
 	/**
-	 * Main entry point to execute the debt processing.
+	 * Main entry point to execute the debt processing. The debts are written to
+	 * the standard output as JSON Lines. Optional arguments:
+	 * <ul>
+	 * <li>--write-snapshot file - also writes a DebtSnapshot of the debts.</li>
+	 * <li>--read-snapshot file - renders the debts of a DebtSnapshot instead of
+	 * fetching the endpoints.</li>
+	 * <li>--incremental file - applies only the payments made since the
+	 * DebtSnapshot in the file, if it exists, writes only the debts which changed
+	 * since, and replaces the snapshot with the new one.</li>
+	 * <li>--http-cache directory - keeps the responses in a CachingHttpGetClient
+	 * in the directory, so unchanged feeds are not downloaded again.</li>
+	 * <li>--retries n - attempts of each request failed by an I/O error or a
+	 * retryable status, 3 by default and 1 to never retry.</li>
+	 * <li>--hedge-ms n - sends a request again if it has no response after n
+	 * milliseconds, using whichever response comes first.</li>
+	 * <li>--metrics file - writes the AppMetrics of the run to the file as JSON
+	 * when done. The metrics are registered over JMX in any case.</li>
+	 * <li>--serve port - rather than writing the debts, serves them with a
+	 * DebtQueryServer on the port until stopped, keeping its snapshot in the
+	 * --incremental file if given.</li>
+	 * <li>--reload-seconds n - reloads the debts served every n seconds.</li>
+	 * <li>--spill-dir directory - joins the feeds out of core with a
+	 * PartitionedJoin spilling to the directory, for feeds larger than the heap.
+	 * Cannot be combined with snapshots.</li>
+	 * <li>--join-memory-mb n - the megabytes a partition of the join may take on
+	 * the heap, 64 by default.</li>
+	 * <li>--threads virtual|platform - the threads fetching, parsing and rendering
+	 * run on, virtual threads by default on Java 21 and later.</li>
+	 * <li>--page-size n - fetches the endpoints n records per page rather than as
+	 * a single document.</li>
+	 * <li>--payment-threads n - applies the payments on n sharded threads.</li>
+	 * <li>--buffer-bodies - receives each body in full before parsing it, rather
+	 * than parsing it as it downloads.</li>
+	 * </ul>
 	 * 
 	 * @param args
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
 	public static void main(String[] args) throws IOException, InterruptedException {
-		App app = new App(new HttpGetClientImpl());
-		Map<Integer, Debt> debts = app.processDebts();
-		for (Debt debt : debts.values()) {
-			System.out.println(debt.asJsonLine());
+		Path writeSnapshot = null;
+		Path readSnapshot = null;
+		Path incremental = null;
+		Path httpCache = null;
+		int retries = ResilientHttpGetClient.DEFAULT_MAX_ATTEMPTS;
+		Duration hedgeDelay = null;
+		Path metricsFile = null;
+		int servePort = -1;
+		long reloadSeconds = 0;
+		AppOptions options = new AppOptions();
+		for (int i = 0; i < args.length; i++) {
+			if ("--write-snapshot".equals(args[i]) && i + 1 < args.length) {
+				writeSnapshot = Paths.get(args[++i]);
+			} else if ("--read-snapshot".equals(args[i]) && i + 1 < args.length) {
+				readSnapshot = Paths.get(args[++i]);
+			} else if ("--incremental".equals(args[i]) && i + 1 < args.length) {
+				incremental = Paths.get(args[++i]);
+			} else if ("--http-cache".equals(args[i]) && i + 1 < args.length) {
+				httpCache = Paths.get(args[++i]);
+			} else if ("--retries".equals(args[i]) && i + 1 < args.length) {
+				retries = Integer.parseInt(args[++i]);
+			} else if ("--hedge-ms".equals(args[i]) && i + 1 < args.length) {
+				hedgeDelay = Duration.ofMillis(Long.parseLong(args[++i]));
+			} else if ("--metrics".equals(args[i]) && i + 1 < args.length) {
+				metricsFile = Paths.get(args[++i]);
+			} else if ("--serve".equals(args[i]) && i + 1 < args.length) {
+				servePort = Integer.parseInt(args[++i]);
+			} else if ("--reload-seconds".equals(args[i]) && i + 1 < args.length) {
+				reloadSeconds = Long.parseLong(args[++i]);
+			} else if ("--spill-dir".equals(args[i]) && i + 1 < args.length) {
+				options.setSpillDirectory(Paths.get(args[++i]));
+			} else if ("--join-memory-mb".equals(args[i]) && i + 1 < args.length) {
+				options.setJoinMemoryBudget(Long.parseLong(args[++i]) * 1024 * 1024);
+			} else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+				options.setThreads(AppThreads.forName(args[++i]));
+			} else if ("--page-size".equals(args[i]) && i + 1 < args.length) {
+				options.setPageSize(Integer.parseInt(args[++i]));
+			} else if ("--payment-threads".equals(args[i]) && i + 1 < args.length) {
+				options.setPaymentParallelism(Integer.parseInt(args[++i]));
+			} else if ("--buffer-bodies".equals(args[i])) {
+				options.setBufferBodies(true);
+			} else {
+				throw new IllegalArgumentException("Unknown argument " + args[i]);
+			}
+		}
+		if (options.getSpillDirectory() != null
+				&& (writeSnapshot != null || readSnapshot != null || incremental != null || servePort >= 0)) {
+			throw new IllegalArgumentException("--spill-dir cannot be combined with snapshots");
+		}
+		AppMetrics metrics = new AppMetrics("main").register();
+		ExecutorService executor = newExecutor(options.getThreads());
+		// Responses are handled on the same threads, so a virtual thread waiting on
+		// one never holds an OS thread
+		HttpGetClient client = new HttpGetClientImpl(HttpGetClientImpl.DEFAULT_CONNECT_TIMEOUT,
+				HttpGetClientImpl.DEFAULT_REQUEST_TIMEOUT, executor);
+		if (httpCache != null) {
+			client = new CachingHttpGetClient(client, httpCache);
+		}
+		client = new ResilientHttpGetClient(client).setMaxAttempts(retries).setHedgeDelay(hedgeDelay);
+		App app = new App(client, executor, options.setMetrics(metrics));
+		if (servePort >= 0) {
+			serve(app, incremental, servePort, reloadSeconds);
+			return;
+		}
+		JsonLinesWriter writer = new JsonLinesWriter(new FileOutputStream(FileDescriptor.out));
+		if (readSnapshot != null) {
+			AppMetrics.Timer render = metrics.start(AppMetrics.Stage.RENDER);
+			DebtSnapshot snapshot = DebtSnapshot.open(readSnapshot);
+			snapshot.writeJsonLines(writer);
+			writer.flush();
+			render.stop(snapshot.size());
+		} else if (options.getSpillDirectory() != null) {
+			// Rendered as the debts are merged, within the join stage
+			app.processDebts(debt -> {
+				try {
+					writer.write(debt);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			writer.flush();
+		} else {
+			DebtSnapshot previous = null;
+			if (incremental != null && Files.exists(incremental)) {
+				previous = DebtSnapshot.open(incremental);
+			}
+			DebtUpdate update = app.processDebtsSince(previous);
+			if (writeSnapshot != null) {
+				DebtSnapshot.write(update.getDebts(), writeSnapshot, update.getPaymentsWatermark());
+			}
+			if (incremental != null) {
+				DebtSnapshot.write(update.getDebts(), incremental, update.getPaymentsWatermark());
+			}
+			Map<Integer, Debt> debts = incremental != null ? update.getChangedDebts() : update.getDebts();
+			AppMetrics.Timer render = metrics.start(AppMetrics.Stage.RENDER);
+			writer.writeAll(debts.values(), executor);
+			writer.flush();
+			render.stop(debts.size());
+		}
+		if (metricsFile != null) {
+			Files.write(metricsFile, metrics.toJson().toString(2).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Serves the debts until the process is stopped.
+	 */
+	private static void serve(App app, Path snapshotFile, int port, long reloadSeconds)
+			throws IOException, InterruptedException {
+		if (snapshotFile == null) {
+			snapshotFile = Files.createTempFile("debts", ".snapshot");
+			Files.delete(snapshotFile);
+			snapshotFile.toFile().deleteOnExit();
+		}
+		DebtQueryServer server = new DebtQueryServer(app, snapshotFile, port);
+		if (reloadSeconds > 0) {
+			server.scheduleReloads(Duration.ofSeconds(reloadSeconds));
 		}
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		System.err.println("Serving " + server.getSnapshot().size() + " debts at " + server.getUrl("/debts"));
+		// The server threads are daemons, so the process lives as long as this one
+		Thread.currentThread().join();
 	}
 
 	/**
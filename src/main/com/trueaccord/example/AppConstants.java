@@ -44,7 +44,7 @@ public interface AppConstants {
 	/**
 	 * Key for the associated payment plan id.
 	 */
-	public static final String PAYMENT_PLAN_ID = "playment_plan_id";
+	public static final String PAYMENT_PLAN_ID = "payment_plan_id";
 
 	/**
 	 * Key for date of a payment.
@@ -0,0 +1,333 @@
+package com.trueaccord.example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
+
+/**
+ * Timings and counters of the runs of App, by stage, with the bytes fetched and
+ * the bytes allocated. Set them with AppOptions.setMetrics, and register them
+ * to read them over JMX, as com.trueaccord.example:type=AppMetrics,name=NAME
+ * and one MBean per stage with a stage key.
+ * <p>
+ * A stage is timed as a whole rather than per record, so recording costs a few
+ * calls to System.nanoTime and to the thread allocation counter per stage and
+ * run, and a counter update per read of a response body. Allocations are those
+ * of the thread running the stage, so the payments applied on other threads
+ * when the payment parallelism is above 1 are not included. The JVM does not
+ * count the allocations of virtual threads, so the allocations of a stage run
+ * on one are reported as not known, -1, rather than left out of the sum.
+ * 
+ * @author mpcheng
+ */
+public class AppMetrics implements AppMetricsMXBean {
+
+	/**
+	 * The stages of a run of App.
+	 */
+	public enum Stage {
+		/**
+		 * From sending a request to receiving its response, that is the headers
+		 * when streaming or the whole body when buffering.
+		 */
+		FETCH,
+		/**
+		 * Parsing the debts and payment plans, including waiting for their bodies
+		 * when streaming.
+		 */
+		PARSE,
+		/**
+		 * Parsing and applying the payments to their payment plans.
+		 */
+		PAYMENTS,
+		/**
+		 * Joining the payment plans to their debts.
+		 */
+		JOIN,
+		/**
+		 * Writing the debts as JSON Lines.
+		 */
+		RENDER,
+		/**
+		 * A whole run of processDebts.
+		 */
+		RUN;
+
+		/**
+		 * Returns the name of the stage in MBean names and JSON summaries.
+		 * 
+		 * @return the name of the stage in lower case.
+		 */
+		public String key() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private static final String DOMAIN = "com.trueaccord.example";
+
+	private final String name;
+	private final Map<Stage, StageMetrics> stages = new EnumMap<Stage, StageMetrics>(Stage.class);
+	private final LongAdder bodiesFetched = new LongAdder();
+	private final LongAdder bytesFetched = new LongAdder();
+	private final com.sun.management.ThreadMXBean allocations;
+
+	/**
+	 * Constructor for the AppMetrics.
+	 * 
+	 * @param name - the name of the metrics in their MBean names.
+	 */
+	public AppMetrics(String name) {
+		this.name = name;
+		for (Stage stage : Stage.values()) {
+			this.stages.put(stage, new StageMetrics());
+		}
+		this.allocations = allocationCounter();
+	}
+
+	/**
+	 * Returns the name of the metrics in their MBean names.
+	 * 
+	 * @return the name of the metrics.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the metrics of a stage.
+	 * 
+	 * @param stage - the stage.
+	 * @return the metrics of the stage.
+	 */
+	public StageMetrics getStage(Stage stage) {
+		return this.stages.get(stage);
+	}
+
+	@Override
+	public long getRuns() {
+		return getStage(Stage.RUN).getCount();
+	}
+
+	@Override
+	public long getBodiesFetched() {
+		return this.bodiesFetched.sum();
+	}
+
+	@Override
+	public long getBytesFetched() {
+		return this.bytesFetched.sum();
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		long allocatedBytes = 0;
+		for (Stage stage : Stage.values()) {
+			// A run allocates what its stages do
+			if (stage == Stage.RUN) {
+				continue;
+			}
+			long stageBytes = getStage(stage).getAllocatedBytes();
+			if (stageBytes < 0) {
+				return -1;
+			}
+			allocatedBytes += stageBytes;
+		}
+		return allocatedBytes;
+	}
+
+	/**
+	 * Starts timing a stage on the current thread.
+	 * 
+	 * @param stage - the stage.
+	 * @return the timer to stop when the stage is done.
+	 */
+	public Timer start(Stage stage) {
+		return new Timer(getStage(stage), allocatedBytes());
+	}
+
+	/**
+	 * Counts a response body, and the bytes read from it until it is closed.
+	 * 
+	 * @param body - the body of a response.
+	 * @return the body counting its bytes.
+	 */
+	InputStream count(InputStream body) {
+		this.bodiesFetched.increment();
+		return new FilterInputStream(body) {
+			private long bytes;
+
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					this.bytes++;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					this.bytes += n;
+				}
+				return n;
+			}
+
+			@Override
+			public void close() throws IOException {
+				// Added once, rather than contending on every read
+				AppMetrics.this.bytesFetched.add(this.bytes);
+				this.bytes = 0;
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * Counts a response body received as a buffer.
+	 * 
+	 * @param bytes - the size of the body.
+	 */
+	void count(long bytes) {
+		this.bodiesFetched.increment();
+		this.bytesFetched.add(bytes);
+	}
+
+	/**
+	 * Registers these metrics and those of each stage with the platform MBean
+	 * server.
+	 * 
+	 * @return these metrics.
+	 * @throws IllegalStateException if metrics with the same name are registered.
+	 */
+	public AppMetrics register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(this, objectName(null));
+			for (Stage stage : Stage.values()) {
+				server.registerMBean(getStage(stage), objectName(stage));
+			}
+		} catch (InstanceAlreadyExistsException e) {
+			unregister();
+			throw new IllegalStateException("Metrics already registered as " + this.name, e);
+		} catch (JMException e) {
+			unregister();
+			throw new RuntimeException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Unregisters these metrics and those of each stage from the platform MBean
+	 * server, if registered.
+	 */
+	public void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (Stage stage : Stage.values()) {
+				unregister(server, objectName(stage));
+			}
+			unregister(server, objectName(null));
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the metrics as a JSON object, with the metrics of each stage keyed
+	 * by its name under stages.
+	 * 
+	 * @return the metrics as a JSON object.
+	 */
+	public JSONObject toJson() {
+		JSONObject stages = new JSONObject();
+		for (Stage stage : Stage.values()) {
+			stages.put(stage.key(), getStage(stage).toJson());
+		}
+		return new JSONObject().put("name", this.name).put("runs", getRuns())
+				.put("bodies_fetched", getBodiesFetched()).put("bytes_fetched", getBytesFetched())
+				.put("allocated_bytes", getAllocatedBytes()).put("stages", stages);
+	}
+
+	/**
+	 * Returns the MBean name of these metrics, or of one of their stages.
+	 * 
+	 * @param stage - the stage, or null for the metrics of the runs.
+	 * @return the MBean name.
+	 * @throws JMException if the name is not valid.
+	 */
+	public ObjectName objectName(Stage stage) throws JMException {
+		String objectName = DOMAIN + ":type=AppMetrics,name=" + ObjectName.quote(this.name);
+		return new ObjectName(stage == null ? objectName : objectName + ",stage=" + stage.key());
+	}
+
+	private static void unregister(MBeanServer server, ObjectName objectName) throws JMException {
+		try {
+			server.unregisterMBean(objectName);
+		} catch (InstanceNotFoundException e) {
+			// Not registered
+		}
+	}
+
+	private long allocatedBytes() {
+		return this.allocations == null ? -1
+				: this.allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the HotSpot thread bean, if this JVM counts allocations per thread.
+	 */
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+			if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+				return allocations;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Times a run of a stage on one thread.
+	 */
+	public class Timer {
+
+		private final StageMetrics stage;
+		private final long startBytes;
+		private final long startNanos;
+
+		private Timer(StageMetrics stage, long startBytes) {
+			this.stage = stage;
+			this.startBytes = startBytes;
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Records the run of the stage. To be called on the thread which started
+		 * it.
+		 * 
+		 * @param records - the number of records the stage processed.
+		 */
+		public void stop(long records) {
+			long nanos = System.nanoTime() - this.startNanos;
+			long allocated = this.startBytes < 0 ? -1 : allocatedBytes() - this.startBytes;
+			this.stage.record(nanos, records, allocated);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.trueaccord.example;
+
+/**
+ * Management interface of the AppMetrics of App runs, registered with the
+ * platform MBean server alongside a StageMetricsMXBean for each stage.
+ * 
+ * @author mpcheng
+ */
+public interface AppMetricsMXBean {
+
+	/**
+	 * Returns the number of runs of App completed.
+	 * 
+	 * @return the number of runs completed.
+	 */
+	public long getRuns();
+
+	/**
+	 * Returns the number of response bodies fetched.
+	 * 
+	 * @return the number of response bodies fetched.
+	 */
+	public long getBodiesFetched();
+
+	/**
+	 * Returns the bytes of the response bodies read, after decompression.
+	 * 
+	 * @return the bytes of the response bodies read.
+	 */
+	public long getBytesFetched();
+
+	/**
+	 * Returns the bytes allocated by every stage.
+	 * 
+	 * @return the bytes allocated by every stage, or -1 if not known for any of
+	 *         them.
+	 */
+	public long getAllocatedBytes();
+}
@@ -0,0 +1,253 @@
+package com.trueaccord.example;
+
+import java.nio.file.Path;
+
+/**
+ * Tuning options for how App fetches and processes the endpoints. The defaults
+ * fetch each endpoint as a single document.
+ * 
+ * @author mpcheng
+ */
+public class AppOptions {
+
+	/**
+	 * Default number of pages of an endpoint requested ahead of the page being
+	 * processed.
+	 */
+	public static final int DEFAULT_MAX_PAGES_IN_FLIGHT = 2;
+
+	/**
+	 * Default bytes the records of a partition of a PartitionedJoin may take on
+	 * the heap.
+	 */
+	public static final long DEFAULT_JOIN_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private int pageSize;
+	private int maxPagesInFlight = DEFAULT_MAX_PAGES_IN_FLIGHT;
+	private int paymentParallelism = 1;
+	private int moneyScale = Money.DEFAULT_SCALE;
+	private boolean bufferBodies;
+	private AppMetrics metrics;
+	private Path spillDirectory;
+	private long joinMemoryBudget = DEFAULT_JOIN_MEMORY_BUDGET;
+	private AppThreads threads = AppThreads.preferred();
+
+	/**
+	 * Returns the number of records fetched per page, or 0 if the endpoints are
+	 * fetched as a single document.
+	 * 
+	 * @return the number of records fetched per page.
+	 */
+	public int getPageSize() {
+		return this.pageSize;
+	}
+
+	/**
+	 * Sets the number of records fetched per page. 0 fetches each endpoint as a
+	 * single document.
+	 * 
+	 * @param pageSize - the number of records fetched per page.
+	 * @return these options.
+	 */
+	public AppOptions setPageSize(int pageSize) {
+		if (pageSize < 0) {
+			throw new IllegalArgumentException("Page size cannot be negative: " + pageSize);
+		}
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	/**
+	 * Returns the maximum number of pages of an endpoint requested at once.
+	 * 
+	 * @return the maximum number of pages of an endpoint requested at once.
+	 */
+	public int getMaxPagesInFlight() {
+		return this.maxPagesInFlight;
+	}
+
+	/**
+	 * Sets the maximum number of pages of an endpoint requested at once, including
+	 * the page being processed.
+	 * 
+	 * @param maxPagesInFlight - the maximum number of pages requested at once.
+	 * @return these options.
+	 */
+	public AppOptions setMaxPagesInFlight(int maxPagesInFlight) {
+		if (maxPagesInFlight < 1) {
+			throw new IllegalArgumentException("At least one page must be in flight: " + maxPagesInFlight);
+		}
+		this.maxPagesInFlight = maxPagesInFlight;
+		return this;
+	}
+
+	/**
+	 * Returns the number of threads payments are applied on.
+	 * 
+	 * @return the number of threads payments are applied on.
+	 */
+	public int getPaymentParallelism() {
+		return this.paymentParallelism;
+	}
+
+	/**
+	 * Sets the number of threads payments are applied on. With more than one,
+	 * payments are partitioned by payment plan id into shards each owned by one
+	 * thread, giving the same results as applying them on the parsing thread.
+	 * 
+	 * @param paymentParallelism - the number of threads payments are applied on.
+	 * @return these options.
+	 */
+	public AppOptions setPaymentParallelism(int paymentParallelism) {
+		if (paymentParallelism < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + paymentParallelism);
+		}
+		this.paymentParallelism = paymentParallelism;
+		return this;
+	}
+
+	/**
+	 * Returns the number of decimals payments are totaled with in fixed point.
+	 * 
+	 * @return the number of decimals payments are totaled with in fixed point.
+	 */
+	public int getMoneyScale() {
+		return this.moneyScale;
+	}
+
+	/**
+	 * Sets the number of decimals payments are totaled with in fixed point. Totals
+	 * are exact whatever the scale, but amounts with more decimals than the scale
+	 * are totaled with BigDecimal, which is slower.
+	 * 
+	 * @param moneyScale - the number of decimals, from 0 to Money.MAX_SCALE.
+	 * @return these options.
+	 */
+	public AppOptions setMoneyScale(int moneyScale) {
+		if (moneyScale < 0 || moneyScale > Money.MAX_SCALE) {
+			throw new IllegalArgumentException("Scale must be between 0 and " + Money.MAX_SCALE + ": " + moneyScale);
+		}
+		this.moneyScale = moneyScale;
+		return this;
+	}
+
+	/**
+	 * Returns true if each response body is received in full as bytes before it
+	 * is parsed.
+	 * 
+	 * @return true if response bodies are buffered.
+	 */
+	public boolean isBufferBodies() {
+		return this.bufferBodies;
+	}
+
+	/**
+	 * Sets whether each response body is received in full as bytes before it is
+	 * parsed, with HttpGetClient.fetchEndPointAsBufferAsync, rather than parsed
+	 * from a stream as it downloads. Buffering releases the connection as soon as
+	 * the body arrives, whatever the parsing speed, and HttpGetClientImpl keeps
+	 * large bodies in a mapped temporary file rather than on the heap.
+	 * 
+	 * @param bufferBodies - true to buffer response bodies.
+	 * @return these options.
+	 */
+	public AppOptions setBufferBodies(boolean bufferBodies) {
+		this.bufferBodies = bufferBodies;
+		return this;
+	}
+
+	/**
+	 * Returns the metrics the runs are recorded in.
+	 * 
+	 * @return the metrics the runs are recorded in, or null if not recorded.
+	 */
+	public AppMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Sets the metrics the runs are recorded in: the time and records of each
+	 * stage, and the bytes fetched.
+	 * 
+	 * @param metrics - the metrics to record the runs in, or null to not record
+	 *                them.
+	 * @return these options.
+	 */
+	public AppOptions setMetrics(AppMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Returns the directory the feeds are spilled to for App.processDebts with a
+	 * consumer.
+	 * 
+	 * @return the spill directory, or null if the feeds are joined in memory.
+	 */
+	public Path getSpillDirectory() {
+		return this.spillDirectory;
+	}
+
+	/**
+	 * Sets the directory the feeds are spilled to for App.processDebts with a
+	 * consumer, which then joins them out of core with a PartitionedJoin rather
+	 * than holding every debt and payment plan in memory.
+	 * 
+	 * @param spillDirectory - the spill directory, or null to join in memory.
+	 * @return these options.
+	 */
+	public AppOptions setSpillDirectory(Path spillDirectory) {
+		this.spillDirectory = spillDirectory;
+		return this;
+	}
+
+	/**
+	 * Returns the bytes the records of a partition of a PartitionedJoin may take
+	 * on the heap.
+	 * 
+	 * @return the memory budget of a partition in bytes.
+	 */
+	public long getJoinMemoryBudget() {
+		return this.joinMemoryBudget;
+	}
+
+	/**
+	 * Sets the bytes the records of a partition of a PartitionedJoin may take on
+	 * the heap. Partitions over the budget are split until they fit.
+	 * 
+	 * @param joinMemoryBudget - the memory budget of a partition in bytes.
+	 * @return these options.
+	 */
+	public AppOptions setJoinMemoryBudget(long joinMemoryBudget) {
+		if (joinMemoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + joinMemoryBudget);
+		}
+		this.joinMemoryBudget = joinMemoryBudget;
+		return this;
+	}
+
+	/**
+	 * Returns the threads payments are applied on when in shards.
+	 * 
+	 * @return the threads payments are applied on.
+	 */
+	public AppThreads getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * Sets the threads payments are applied on when in shards, by default
+	 * AppThreads.preferred(). The endpoints are parsed on the executor given to
+	 * App, which App.newExecutor creates from the same threads.
+	 * 
+	 * @param threads - the threads payments are applied on.
+	 * @return these options.
+	 */
+	public AppOptions setThreads(AppThreads threads) {
+		if (threads == null) {
+			throw new IllegalArgumentException("Threads cannot be null");
+		}
+		this.threads = threads;
+		return this;
+	}
+}
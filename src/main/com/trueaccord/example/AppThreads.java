@@ -0,0 +1,180 @@
+package com.trueaccord.example;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads App runs its tasks on: fetching and parsing each endpoint
+ * or page, applying payments in shards and rendering batches of debts. There
+ * are two kinds:
+ * <ul>
+ * <li>virtual threads, on Java 21 and later, with a new thread for each task.
+ * Blocking on a response or a queue unmounts the virtual thread from its
+ * carrier rather than holding an OS thread, and the JVM schedules the virtual
+ * threads over as many carriers as there are processors.</li>
+ * <li>platform threads, the daemon threads of a cached pool, reused by later
+ * tasks.</li>
+ * </ul>
+ * The application is built for Java 11, so virtual threads are created through
+ * reflection when the JVM has them.
+ * 
+ * @author mpcheng
+ */
+public final class AppThreads {
+
+	/**
+	 * System property choosing the threads of preferred(), virtual or platform.
+	 */
+	public static final String THREADS_PROPERTY = "com.trueaccord.example.threads";
+
+	// A preview in Java 19 and 20, which fails unless previews are enabled
+	private static final Method OF_VIRTUAL = Runtime.version().feature() >= 21 ? findMethod(Thread.class, "ofVirtual")
+			: null;
+	private static final AppThreads PLATFORM = new AppThreads(false);
+	private static final AppThreads VIRTUAL = new AppThreads(true);
+
+	private final boolean virtual;
+
+	private AppThreads(boolean virtual) {
+		this.virtual = virtual;
+	}
+
+	/**
+	 * Returns the platform threads.
+	 * 
+	 * @return the platform threads.
+	 */
+	public static AppThreads platform() {
+		return PLATFORM;
+	}
+
+	/**
+	 * Returns the virtual threads.
+	 * 
+	 * @return the virtual threads.
+	 * @throws UnsupportedOperationException if the JVM has no virtual threads.
+	 */
+	public static AppThreads virtual() {
+		if (!isVirtualSupported()) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or later, running " + System.getProperty("java.version"));
+		}
+		return VIRTUAL;
+	}
+
+	/**
+	 * Returns the threads of the given name.
+	 * 
+	 * @param name - virtual or platform.
+	 * @return the threads of the name.
+	 * @throws UnsupportedOperationException if virtual and the JVM has no virtual
+	 *                                       threads.
+	 */
+	public static AppThreads forName(String name) {
+		if ("virtual".equals(name)) {
+			return virtual();
+		}
+		if ("platform".equals(name)) {
+			return PLATFORM;
+		}
+		throw new IllegalArgumentException("Unknown threads, expected virtual or platform: " + name);
+	}
+
+	/**
+	 * Returns the threads named by the THREADS_PROPERTY system property, or the
+	 * virtual threads when the property is not set. Falls back to the platform
+	 * threads when the JVM has no virtual threads.
+	 * 
+	 * @return the preferred threads.
+	 */
+	public static AppThreads preferred() {
+		String name = System.getProperty(THREADS_PROPERTY, "virtual");
+		if ("virtual".equals(name) && !isVirtualSupported()) {
+			return PLATFORM;
+		}
+		return forName(name);
+	}
+
+	/**
+	 * Returns true if the JVM has virtual threads.
+	 * 
+	 * @return true if the JVM has virtual threads.
+	 */
+	public static boolean isVirtualSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Returns true if these are virtual threads.
+	 * 
+	 * @return true if these are virtual threads.
+	 */
+	public boolean isVirtual() {
+		return this.virtual;
+	}
+
+	/**
+	 * Returns a factory of threads with the given name. Platform threads are
+	 * daemons, and virtual threads are numbered after the name.
+	 * 
+	 * @param name - the name of the threads.
+	 * @return the factory of threads.
+	 */
+	public ThreadFactory newThreadFactory(String name) {
+		if (!this.virtual) {
+			return runnable -> {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+		try {
+			// Thread.ofVirtual().name(name + "-", 0).factory()
+			Object builder = OF_VIRTUAL.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create virtual threads", e);
+		}
+	}
+
+	/**
+	 * Returns a new executor running each task on one of these threads as soon as
+	 * it is submitted, without queuing: a new virtual thread per task, or an idle
+	 * platform thread of a cached pool if there is one.
+	 * 
+	 * @param name - the name of the threads.
+	 * @return the new executor.
+	 */
+	public ExecutorService newExecutor(String name) {
+		ThreadFactory factory = newThreadFactory(name);
+		if (!this.virtual) {
+			return Executors.newCachedThreadPool(factory);
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Cannot create virtual threads", e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create virtual threads", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.virtual ? "virtual" : "platform";
+	}
+
+	private static Method findMethod(Class<?> type, String name) {
+		try {
+			return type.getMethod(name);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,532 @@
+package com.trueaccord.example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Decorates a HttpGetClient with a response cache kept in a local directory.
+ * Responses with an ETag or Last-Modified header are stored as they are read,
+ * and the next request for the same URL is sent with If-None-Match and
+ * If-Modified-Since, so a 304 Not Modified response is served from the cache
+ * without downloading the body again. Pages are cached by their URL like any
+ * other response, and bodies fetched as buffers are read through the cache as
+ * well. Requests are sent with the conditional fetches of the client, so only
+ * responses of clients sending them, such as HttpGetClientImpl or a
+ * ResilientHttpGetClient wrapping one, have validators to be stored by.
+ * <p>
+ * The cache is bounded by the total size of the bodies stored, evicting the
+ * least recently used ones first. Each entry is a body file and a properties
+ * file with its URL and validators, whose modification time records when the
+ * entry was last used, so the cache and its order survive restarts. A body is
+ * only stored once read to the end, so an abandoned read never leaves a
+ * truncated entry. The cache is safe to use from several threads, but a
+ * directory should only be used by one CachingHttpGetClient at a time.
+ * 
+ * @author mpcheng
+ */
+public class CachingHttpGetClient implements HttpGetClient {
+
+	/**
+	 * Default bound on the total size of the bodies stored, 256 MB.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static final int READ_AHEAD = 8192;
+	private static final String BODY_SUFFIX = ".body";
+	private static final String ENTRY_SUFFIX = ".entry";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String URL = "url";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String SIZE = "size";
+
+	/**
+	 * A cached response, immutable so it can be handed out while the cache
+	 * changes.
+	 */
+	private static final class Entry {
+		private final String key;
+		private final String etag;
+		private final String lastModified;
+		private final long size;
+
+		private Entry(String key, String etag, String lastModified, long size) {
+			this.key = key;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+	}
+
+	private final HttpGetClient client;
+	private final Path directory;
+	private final long maxBytes;
+	// In access order, so the first entry is the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private long sizeInBytes;
+
+	/**
+	 * Constructor for the CachingHttpGetClient with the default size bound.
+	 * 
+	 * @param client    - the client to send requests with.
+	 * @param directory - the directory to keep the cache in, created if needed.
+	 * @throws IOException if the directory cannot be created or read.
+	 */
+	public CachingHttpGetClient(HttpGetClient client, Path directory) throws IOException {
+		this(client, directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Constructor for the CachingHttpGetClient, which loads the entries already in
+	 * the directory.
+	 * 
+	 * @param client    - the client to send requests with.
+	 * @param directory - the directory to keep the cache in, created if needed.
+	 * @param maxBytes  - the bound on the total size of the bodies stored.
+	 * @throws IOException if the directory cannot be created or read.
+	 */
+	public CachingHttpGetClient(HttpGetClient client, Path directory, long maxBytes) throws IOException {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Cache size cannot be negative: " + maxBytes);
+		}
+		this.client = client;
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		load();
+	}
+
+	/**
+	 * Returns the number of responses served from the cache.
+	 * 
+	 * @return the number of responses served from the cache.
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Returns the number of responses downloaded in full.
+	 * 
+	 * @return the number of responses downloaded in full.
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Returns the number of responses in the cache.
+	 * 
+	 * @return the number of responses in the cache.
+	 */
+	public synchronized int getEntries() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the total size of the bodies in the cache.
+	 * 
+	 * @return the total size of the bodies in the cache in bytes.
+	 */
+	public synchronized long getSizeInBytes() {
+		return this.sizeInBytes;
+	}
+
+	@Override
+	public String fetchEndPoint(String url) throws IOException, InterruptedException {
+		try (InputStream body = fetchEndPointAsStream(url)) {
+			return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException {
+		return EndpointReader.await(fetchEndPointAsync(url));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+		return fetch(url, (etag, lastModified) -> this.client.fetchEndPointIfModifiedAsync(url, etag, lastModified));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+		return fetch(HttpGetClientImpl.pageUrl(url, page, pageSize),
+				(etag, lastModified) -> this.client.fetchPageIfModifiedAsync(url, page, pageSize, etag, lastModified));
+	}
+
+	/**
+	 * Reads the body through the cache into a heap buffer, rather than fetching it
+	 * as a buffer from the client, so it is cached like a streamed body.
+	 */
+	@Override
+	public CompletableFuture<ByteBuffer> fetchEndPointAsBufferAsync(String url) {
+		return fetchEndPointAsync(url).thenApply(CachingHttpGetClient::readFully);
+	}
+
+	/**
+	 * Reads the page through the cache into a heap buffer, rather than fetching it
+	 * as a buffer from the client, so it is cached like a streamed page.
+	 */
+	@Override
+	public CompletableFuture<ByteBuffer> fetchPageAsBufferAsync(String url, int page, int pageSize) {
+		return fetchPageAsync(url, page, pageSize).thenApply(CachingHttpGetClient::readFully);
+	}
+
+	/**
+	 * Sends a request with the validators of the entry of the URL if any, and
+	 * returns the body from the cache if not modified.
+	 */
+	private CompletableFuture<InputStream> fetch(String url,
+			BiFunction<String, String, CompletableFuture<ConditionalResponse>> request) {
+		Entry entry = get(url);
+		return request.apply(entry == null ? null : entry.etag, entry == null ? null : entry.lastModified)
+				.thenCompose(response -> {
+					InputStream body;
+					try {
+						body = handle(url, entry, response);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					// Evicted since the request was sent, so ask again without validators
+					return body != null ? CompletableFuture.completedFuture(body) : fetch(url, request);
+				});
+	}
+
+	/**
+	 * Returns the body of the response, from the cache if not modified, or null if
+	 * not modified but no longer in the cache.
+	 */
+	private InputStream handle(String url, Entry entry, ConditionalResponse response) throws IOException {
+		if (response.isNotModified() && entry != null) {
+			InputStream cached = open(url, entry);
+			if (cached != null) {
+				this.hits.incrementAndGet();
+			}
+			return cached;
+		} else if (response.isNotModified()) {
+			throw new IOException("Not modified response to an unconditional request for " + url);
+		}
+		InputStream body = response.getBody();
+		this.misses.incrementAndGet();
+		String etag = response.getETag();
+		String lastModified = response.getLastModified();
+		if ((etag == null && lastModified == null) || response.isNoStore() || response.getLength() > this.maxBytes) {
+			return body;
+		}
+		String key = keyOf(url);
+		Path temp;
+		try {
+			temp = Files.createTempFile(this.directory, key, TEMP_SUFFIX);
+		} catch (IOException e) {
+			body.close();
+			throw e;
+		}
+		return new CachingInputStream(body, url, new Entry(key, etag, lastModified, 0), temp, response.getLength());
+	}
+
+	private static ByteBuffer readFully(InputStream body) {
+		try (InputStream in = body) {
+			return ByteBuffer.wrap(in.readAllBytes()).asReadOnlyBuffer();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private synchronized Entry get(String url) {
+		return this.entries.get(url);
+	}
+
+	/**
+	 * Opens the body of an entry and marks it as the most recently used, or
+	 * returns null if it is no longer in the cache.
+	 */
+	private synchronized InputStream open(String url, Entry entry) throws IOException {
+		if (this.entries.get(url) != entry) {
+			return null;
+		}
+		Files.setLastModifiedTime(entryPath(entry.key), FileTime.fromMillis(System.currentTimeMillis()));
+		return Files.newInputStream(bodyPath(entry.key));
+	}
+
+	/**
+	 * Adds a body read to the end to the cache, replacing any entry of the same
+	 * URL, and evicts the least recently used entries over the bound.
+	 */
+	private synchronized void put(String url, Entry entry, Path temp) throws IOException {
+		if (entry.size > this.maxBytes) {
+			Files.deleteIfExists(temp);
+			return;
+		}
+		Properties properties = new Properties();
+		properties.setProperty(URL, url);
+		if (entry.etag != null) {
+			properties.setProperty(ETAG, entry.etag);
+		}
+		if (entry.lastModified != null) {
+			properties.setProperty(LAST_MODIFIED, entry.lastModified);
+		}
+		properties.setProperty(SIZE, Long.toString(entry.size));
+		Path entryTemp = Files.createTempFile(this.directory, entry.key, TEMP_SUFFIX);
+		try (Writer writer = Files.newBufferedWriter(entryTemp, StandardCharsets.UTF_8)) {
+			properties.store(writer, null);
+		}
+		Files.move(temp, bodyPath(entry.key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.move(entryTemp, entryPath(entry.key), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		Entry previous = this.entries.put(url, entry);
+		if (previous != null) {
+			this.sizeInBytes -= previous.size;
+		}
+		this.sizeInBytes += entry.size;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+		while (this.sizeInBytes > this.maxBytes && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			iterator.remove();
+			this.sizeInBytes -= entry.size;
+			delete(entryPath(entry.key));
+			delete(bodyPath(entry.key));
+		}
+	}
+
+	/**
+	 * Deletes a file of the cache if possible. A file left behind, such as one
+	 * still open on some platforms, is deleted by the next load.
+	 */
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// Deleted by the next load
+		}
+	}
+
+	/**
+	 * Loads the entries of the directory, least recently used first, and deletes
+	 * the bodies left without an entry and the temporary files of an earlier
+	 * process.
+	 */
+	private synchronized void load() throws IOException {
+		List<Path> entryPaths = new ArrayList<Path>();
+		List<Path> orphans = new ArrayList<Path>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(ENTRY_SUFFIX)) {
+					entryPaths.add(file);
+				} else if (name.endsWith(TEMP_SUFFIX) || (name.endsWith(BODY_SUFFIX) && !Files.exists(
+						entryPath(name.substring(0, name.length() - BODY_SUFFIX.length()))))) {
+					orphans.add(file);
+				}
+			}
+		}
+		for (Path orphan : orphans) {
+			Files.deleteIfExists(orphan);
+		}
+		entryPaths.sort(Comparator.comparing(file -> {
+			try {
+				return Files.getLastModifiedTime(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}));
+		for (Path file : entryPaths) {
+			String name = file.getFileName().toString();
+			String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+			Properties properties = new Properties();
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+			String url = properties.getProperty(URL);
+			long size = Long.parseLong(properties.getProperty(SIZE, "-1"));
+			Path body = bodyPath(key);
+			if (url == null || !key.equals(keyOf(url)) || !Files.exists(body) || Files.size(body) != size) {
+				Files.deleteIfExists(file);
+				Files.deleteIfExists(body);
+				continue;
+			}
+			this.entries.put(url,
+					new Entry(key, properties.getProperty(ETAG), properties.getProperty(LAST_MODIFIED), size));
+			this.sizeInBytes += size;
+		}
+		evict();
+	}
+
+	private Path bodyPath(String key) {
+		return this.directory.resolve(key + BODY_SUFFIX);
+	}
+
+	private Path entryPath(String key) {
+		return this.directory.resolve(key + ENTRY_SUFFIX);
+	}
+
+	/**
+	 * Returns the SHA-256 of the URL in hexadecimal, the name of its files.
+	 */
+	private static String keyOf(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Copies the body of a response to a temporary file as it is read, and adds it
+	 * to the cache once read to the end. Caching is given up, without failing the
+	 * read, if the body grows over the bound or cannot be written.
+	 */
+	private class CachingInputStream extends FilterInputStream {
+		private final String url;
+		private final Entry entry;
+		private final Path temp;
+		private final long contentLength;
+		private OutputStream copy;
+		private long size;
+
+		private CachingInputStream(InputStream body, String url, Entry entry, Path temp, long contentLength)
+				throws IOException {
+			super(body);
+			this.url = url;
+			this.entry = entry;
+			this.temp = temp;
+			this.contentLength = contentLength;
+			this.copy = Files.newOutputStream(temp);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0) {
+				finish();
+			} else if (this.copy != null) {
+				copy(new byte[] { (byte) b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int count = super.read(bytes, offset, length);
+			if (count < 0) {
+				finish();
+			} else if (count > 0 && this.copy != null) {
+				copy(bytes, offset, count);
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Read rather than skip, so the copy is complete
+			byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			int count = read(buffer, 0, buffer.length);
+			return Math.max(count, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * Stores the body if it was read to the end. A parser stops at the end of the
+		 * JSON, which may be just short of the end of the stream, so a few bytes are
+		 * read ahead when the length is not known.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				if (this.copy != null && this.contentLength >= 0 && this.size == this.contentLength) {
+					finish();
+				} else if (this.copy != null && this.contentLength < 0) {
+					byte[] buffer = new byte[READ_AHEAD];
+					long limit = this.size + READ_AHEAD;
+					while (this.copy != null && read(buffer, 0, buffer.length) >= 0) {
+						if (this.size > limit) {
+							abandon();
+						}
+					}
+				}
+				super.close();
+			} finally {
+				abandon();
+			}
+		}
+
+		private void copy(byte[] bytes, int offset, int length) {
+			this.size += length;
+			if (this.size > CachingHttpGetClient.this.maxBytes) {
+				abandon();
+				return;
+			}
+			try {
+				this.copy.write(bytes, offset, length);
+			} catch (IOException e) {
+				abandon();
+			}
+		}
+
+		private void finish() {
+			if (this.copy == null) {
+				return;
+			}
+			try {
+				this.copy.close();
+				this.copy = null;
+				put(this.url, new Entry(this.entry.key, this.entry.etag, this.entry.lastModified, this.size),
+						this.temp);
+			} catch (IOException e) {
+				abandon();
+				delete(this.temp);
+			}
+		}
+
+		private void abandon() {
+			if (this.copy == null) {
+				return;
+			}
+			try {
+				this.copy.close();
+			} catch (IOException e) {
+				// Deleted below
+			}
+			this.copy = null;
+			delete(this.temp);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.trueaccord.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.http.HttpHeaders;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes the HTTP content encodings HttpGetClientImpl asks for. Bodies are
+ * decompressed as a stream while they are read, so a compressed body is never
+ * inflated into memory in full.
+ * 
+ * @author mpcheng
+ */
+final class ContentEncoding {
+
+	/**
+	 * Value of the Accept-Encoding header sent with every request.
+	 */
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private ContentEncoding() {
+	}
+
+	/**
+	 * Returns true if the response has a Content-Encoding other than identity.
+	 * 
+	 * @param headers - the headers of the response.
+	 * @return true if the body must be decoded.
+	 */
+	static boolean isEncoded(HttpHeaders headers) {
+		String encoding = headers.firstValue("Content-Encoding").orElse("identity").trim();
+		return !encoding.isEmpty() && !"identity".equalsIgnoreCase(encoding);
+	}
+
+	/**
+	 * Returns the length of the decoded body, which is the Content-Length only if
+	 * the body is not encoded.
+	 * 
+	 * @param headers - the headers of the response.
+	 * @return the length of the decoded body, or -1 if not known.
+	 */
+	static long decodedLength(HttpHeaders headers) {
+		return isEncoded(headers) ? -1 : headers.firstValueAsLong("Content-Length").orElse(-1);
+	}
+
+	/**
+	 * Wraps a response body in a stream decoding its Content-Encoding.
+	 * 
+	 * @param headers - the headers of the response.
+	 * @param body    - the body as received.
+	 * @return the decoded body.
+	 * @throws IOException if the encoding is not supported or the body is not
+	 *                     valid for it.
+	 */
+	static InputStream decode(HttpHeaders headers, InputStream body) throws IOException {
+		if (!isEncoded(headers)) {
+			return body;
+		}
+		String encoding = headers.firstValue("Content-Encoding").get().trim();
+		if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(body, BUFFER_SIZE);
+		}
+		if ("deflate".equalsIgnoreCase(encoding)) {
+			return inflate(body);
+		}
+		body.close();
+		throw new IOException("Unsupported content encoding: " + encoding);
+	}
+
+	/**
+	 * Deflate is meant to be zlib wrapped, but some servers send raw deflate data,
+	 * so the first two bytes tell which.
+	 */
+	private static InputStream inflate(InputStream body) throws IOException {
+		PushbackInputStream in = new PushbackInputStream(body, 2);
+		int first = in.read();
+		int second = first < 0 ? -1 : in.read();
+		if (second >= 0) {
+			in.unread(second);
+		}
+		if (first >= 0) {
+			in.unread(first);
+		}
+		// A zlib header uses the deflate method and is a multiple of 31
+		boolean zlib = second >= 0 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+		return new InflaterInputStream(in, new Inflater(!zlib), BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					// Not the default inflater, so not ended by InflaterInputStream
+					this.inf.end();
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,189 @@
+package com.trueaccord.example;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Parses and formats ISO 8601 dates (yyyy-MM-dd) as epoch days, the number of
+ * days since 1970-01-01. Unlike java.text.SimpleDateFormat it is immutable and
+ * safe to share between threads. Parsing works directly on the characters
+ * without allocating, and the strings of recently formatted days are cached, as
+ * payment and due dates repeat heavily in the feeds.
+ * 
+ * @author mpcheng
+ */
+public final class DateCodec {
+
+	/**
+	 * Default number of formatted dates cached.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+
+	/**
+	 * Shared codec with the default cache size.
+	 */
+	public static final DateCodec ISO = new DateCodec(DEFAULT_CACHE_SIZE);
+
+	/**
+	 * Epoch day standing for no date.
+	 */
+	public static final int NO_DATE = Integer.MIN_VALUE;
+
+	private static final int DATE_LENGTH = 10;
+	private static final int DAYS_0000_TO_1970 = 719468;
+	private static final int DAYS_PER_ERA = 146097;
+
+	/**
+	 * Immutable so entries can be shared between threads without locking.
+	 */
+	private static final class CachedDate {
+		private final int epochDay;
+		private final String text;
+
+		private CachedDate(int epochDay, String text) {
+			this.epochDay = epochDay;
+			this.text = text;
+		}
+	}
+
+	private final CachedDate[] cache;
+	private final int cacheMask;
+
+	/**
+	 * Constructor for a DateCodec.
+	 * 
+	 * @param cacheSize - the number of formatted dates to cache, rounded up to a
+	 *                  power of two.
+	 */
+	public DateCodec(int cacheSize) {
+		int size = Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+		this.cache = new CachedDate[size];
+		this.cacheMask = size - 1;
+	}
+
+	/**
+	 * Parses an ISO 8601 date (yyyy-MM-dd) into an epoch day.
+	 * 
+	 * @param text - the date to parse.
+	 * @return the date as an epoch day.
+	 * @throws DateTimeParseException if the text is not a valid date.
+	 */
+	public int parseEpochDay(CharSequence text) {
+		if (text.length() != DATE_LENGTH || text.charAt(4) != '-' || text.charAt(7) != '-') {
+			throw new DateTimeParseException("Expected a date as yyyy-MM-dd", text, 0);
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 7);
+		int day = digits(text, 8, 10);
+		if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+			throw new DateTimeParseException("Invalid date", text, 0);
+		}
+		return toEpochDay(year, month, day);
+	}
+
+	/**
+	 * Formats an epoch day as an ISO 8601 date (yyyy-MM-dd).
+	 * 
+	 * @param epochDay - the epoch day to format.
+	 * @return the epoch day as an ISO 8601 date.
+	 */
+	public String format(int epochDay) {
+		int index = epochDay & this.cacheMask;
+		CachedDate cached = this.cache[index];
+		if (cached != null && cached.epochDay == epochDay) {
+			return cached.text;
+		}
+		String text = formatUncached(epochDay);
+		this.cache[index] = new CachedDate(epochDay, text);
+		return text;
+	}
+
+	/**
+	 * Returns the epoch day of a date in the default time zone.
+	 * 
+	 * @param date - the date.
+	 * @return the epoch day of the date.
+	 */
+	public static int toEpochDay(Date date) {
+		return Math.toIntExact(date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay());
+	}
+
+	/**
+	 * Returns the start of the epoch day in the default time zone.
+	 * 
+	 * @param epochDay - the epoch day.
+	 * @return the start of the epoch day as a date.
+	 */
+	public static Date toDate(int epochDay) {
+		return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	private static String formatUncached(int epochDay) {
+		// Civil from days, counting eras of 400 years starting on March 1st
+		long shifted = (long) epochDay + DAYS_0000_TO_1970;
+		long era = (shifted >= 0 ? shifted : shifted - DAYS_PER_ERA + 1) / DAYS_PER_ERA;
+		int dayOfEra = (int) (shifted - era * DAYS_PER_ERA);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			return LocalDate.ofEpochDay(epochDay).toString();
+		}
+		char[] chars = new char[DATE_LENGTH];
+		putDigits(chars, 0, 4, (int) year);
+		chars[4] = '-';
+		putDigits(chars, 5, 7, month);
+		chars[7] = '-';
+		putDigits(chars, 8, 10, day);
+		return new String(chars);
+	}
+
+	private static int toEpochDay(int year, int month, int day) {
+		// Days from civil, counting eras of 400 years starting on March 1st
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970;
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static int digits(CharSequence text, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new DateTimeParseException("Expected a digit", text, i);
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static void putDigits(char[] chars, int from, int to, int value) {
+		for (int i = to - 1; i >= from; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+}
@@ -2,12 +2,6 @@
 package com.trueaccord.example;
 
 import java.math.BigDecimal;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-import org.json.JSONObject;
-import static com.trueaccord.example.AppConstants.*;
 
 /**
  * Represents a customer debt. Provides various utility functions in regards to
@@ -21,8 +15,6 @@ public class Debt {
 	private final BigDecimal amount;
 	private PaymentPlan paymentPlan;
 
-	private static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
 	/**
 	 * Constructor for the Debt class.
 	 * 
@@ -58,11 +50,20 @@ public class Debt {
 	 * @return true if the debt is in a payment plan, false otherwise.
 	 */
 	public boolean isInPaymentPlan() {
-		if (this.paymentPlan == null || getRemainingAmount().doubleValue() <= 0.0)
+		if (this.paymentPlan == null || this.paymentPlan.isPaidOff())
 			return false;
 		return true;
 	}
 
+	/**
+	 * Returns the payment plan of this debt, or null if it has none.
+	 * 
+	 * @return the payment plan of this debt, or null if it has none.
+	 */
+	public PaymentPlan getPaymentPlan() {
+		return this.paymentPlan;
+	}
+
 	/**
 	 * Set's a payment plan for this debt.
 	 * 
@@ -109,23 +110,17 @@ public class Debt {
 		if (!this.isInPaymentPlan()) {
 			return null;
 		}
-		Date nextPaymentDueDate = this.paymentPlan.getNextPaymentDueDate();
-		return dateFormat.format(nextPaymentDueDate);
+		return DateCodec.ISO.format(this.paymentPlan.getNextPaymentDueEpochDay());
 	}
 
 	/**
-	 * Returns the debt as a JSON line string.
+	 * Returns the debt as a JSON line string. The next_payment_due_date is always
+	 * present, and null when there is no payment due.
 	 * 
 	 * @return the debt as a JSON line string.
+	 * @see JsonLinesWriter
 	 */
 	public String asJsonLine() {
-		JSONObject jsonObject = new JSONObject();
-		jsonObject.put(ID, this.id);
-		jsonObject.put(AMOUNT, this.getAmount());
-		jsonObject.put(IS_IN_PAYMENT_PLAN, this.isInPaymentPlan());
-		jsonObject.put(REMAINING_AMOUNT, this.getRemainingAmount());
-		// NOTE: JSONObject doesn't print out next_payment_due_date if its null
-		jsonObject.put(NEXT_PAYMENT_DUE_DATE, this.getNextPaymentDueDate()); 
-		return jsonObject.toString();
+		return JsonLinesWriter.toJsonLine(this);
 	}
 }
@@ -0,0 +1,151 @@
+package com.trueaccord.example;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * Publishes the debts of App in id order to Flow subscribers, as
+ * App.processDebts with a consumer hands them out. Each subscription is its own
+ * run: nothing is fetched until the subscriber first requests debts, and the
+ * run then blocks whenever the debts requested have all been delivered, so
+ * debts are never delivered faster than requested.
+ * <p>
+ * Demand does not hold back fetching or parsing. A debt is only final once
+ * every payment has been read, as the payments of a payment plan can be
+ * anywhere in the feed, so the feeds are read in full before the first debt is
+ * delivered. Joined in memory, every debt is held in the map until delivered.
+ * With a spill directory, the runs of the PartitionedJoin are only read and
+ * merged as debts are requested. Cancelling stops the run and deletes its spill
+ * files.
+ * 
+ * @author mpcheng
+ */
+public class DebtPublisher implements Flow.Publisher<Debt> {
+
+	private final App app;
+	private final Executor executor;
+
+	/**
+	 * Constructor for the DebtPublisher. The executor must run each run on its own
+	 * thread, as a run blocks until debts are requested.
+	 * 
+	 * @param app      - the App to process the debts with.
+	 * @param executor - the executor to run each subscription on.
+	 */
+	public DebtPublisher(App app, Executor executor) {
+		this.app = app;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Debt> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber");
+		subscriber.onSubscribe(new DebtSubscription(subscriber));
+	}
+
+	/**
+	 * Thrown out of the consumer of a run to stop it once cancelled.
+	 */
+	private static final class Cancelled extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Cancelled() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * A run of App delivering the debts to one subscriber as they are requested.
+	 * Every signal to the subscriber is sent from the thread of the run.
+	 */
+	private final class DebtSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super Debt> subscriber;
+		private long demand;
+		private boolean started;
+		private boolean cancelled;
+		private Throwable failure;
+
+		DebtSubscription(Flow.Subscriber<? super Debt> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			synchronized (this) {
+				if (this.cancelled) {
+					return;
+				}
+				if (n <= 0) {
+					// Sent from the run, after any debt it is delivering
+					this.failure = new IllegalArgumentException("Requested debts must be positive: " + n);
+					this.cancelled = true;
+				} else {
+					this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+				}
+				notifyAll();
+				if (this.started) {
+					return;
+				}
+				this.started = true;
+			}
+			DebtPublisher.this.executor.execute(this::run);
+		}
+
+		@Override
+		public synchronized void cancel() {
+			this.cancelled = true;
+			notifyAll();
+		}
+
+		private void run() {
+			try {
+				checkCancelled();
+				DebtPublisher.this.app.processDebts(this::deliver);
+				checkCancelled();
+			} catch (Cancelled e) {
+				Throwable failure = failure();
+				if (failure != null) {
+					this.subscriber.onError(failure);
+				}
+				return;
+			} catch (Throwable t) {
+				if (!isCancelled()) {
+					this.subscriber.onError(t);
+				}
+				return;
+			}
+			this.subscriber.onComplete();
+		}
+
+		private void deliver(Debt debt) {
+			synchronized (this) {
+				while (this.demand == 0 && !this.cancelled) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException(e);
+					}
+				}
+				checkCancelled();
+				this.demand--;
+			}
+			this.subscriber.onNext(debt);
+		}
+
+		private synchronized void checkCancelled() {
+			if (this.cancelled) {
+				throw new Cancelled();
+			}
+		}
+
+		private synchronized boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		private synchronized Throwable failure() {
+			return this.failure;
+		}
+	}
+}
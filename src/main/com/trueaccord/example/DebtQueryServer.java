@@ -0,0 +1,341 @@
+package com.trueaccord.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the processed debts over HTTP on the loopback interface, so the state
+ * of a debt can be looked up without processing every debt again:
+ * <ul>
+ * <li>GET /debts/{id} - the debt as a JSON line, or a 404.</li>
+ * <li>GET /debts?ids=1,2,3 - the debts found as JSON Lines, in the order
+ * asked. The ids can also be sent as the body of a POST /debts, separated by
+ * commas or whitespace.</li>
+ * <li>POST /reload - processes the debts again and answers with the number of
+ * debts and reloads.</li>
+ * </ul>
+ * The debts are indexed in a DebtSnapshot kept in a file and mapped into
+ * memory, so the index is off heap, a lookup is a binary search over fixed size
+ * records, and a restarted server answers from the file at once. A reload
+ * applies only the payments made since the snapshot, writes a new snapshot and
+ * swaps it in, and lookups in progress finish on the previous one. A failed
+ * reload leaves the previous snapshot in place.
+ * 
+ * @author mpcheng
+ */
+public class DebtQueryServer implements AutoCloseable {
+
+	/**
+	 * Maximum number of ids in a batch lookup.
+	 */
+	public static final int MAX_BATCH_SIZE = 10000;
+
+	private static final int RESPONSE_OK = 200;
+	private static final int RESPONSE_BAD_REQUEST = 400;
+	private static final int RESPONSE_NOT_FOUND = 404;
+	private static final int RESPONSE_METHOD_NOT_ALLOWED = 405;
+	private static final int RESPONSE_SERVER_ERROR = 500;
+	private static final String DEBTS_PATH = "/debts";
+	private static final String RELOAD_PATH = "/reload";
+	private static final String JSON = "application/json; charset=utf-8";
+	private static final String JSON_LINES = "application/x-ndjson; charset=utf-8";
+	private static final int LINE_SIZE = 256;
+
+	private final App app;
+	private final Path snapshotFile;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService reloads;
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong reloadCount = new AtomicLong();
+	private volatile DebtSnapshot snapshot;
+	private volatile Exception lastReloadFailure;
+
+	/**
+	 * Constructor for the DebtQueryServer, which loads the debts and starts
+	 * serving them. The debts are read from the snapshot file if it exists, and
+	 * processed otherwise.
+	 * 
+	 * @param app          - the App to process the debts with.
+	 * @param snapshotFile - the file the snapshot of the debts is kept in.
+	 * @param port         - the port to listen on, or 0 for any free port.
+	 * @throws IOException          if the debts cannot be loaded or the server
+	 *                              cannot be started.
+	 * @throws InterruptedException
+	 */
+	public DebtQueryServer(App app, Path snapshotFile, int port) throws IOException, InterruptedException {
+		this.app = app;
+		this.snapshotFile = snapshotFile;
+		if (Files.exists(snapshotFile)) {
+			this.snapshot = DebtSnapshot.open(snapshotFile);
+		} else {
+			reload();
+		}
+		this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				daemon("debt-query-server"));
+		this.reloads = Executors.newSingleThreadScheduledExecutor(daemon("debt-query-reload"));
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext(DEBTS_PATH, this::handleDebts);
+		this.server.createContext(RELOAD_PATH, this::handleReload);
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * Reloads the debts every period, until the server is closed. A failed reload
+	 * is retried at the next one.
+	 * 
+	 * @param period - the time between the end of a reload and the next one.
+	 * @return this server.
+	 */
+	public DebtQueryServer scheduleReloads(Duration period) {
+		this.reloads.scheduleWithFixedDelay(() -> {
+			try {
+				reload();
+			} catch (IOException | RuntimeException e) {
+				// Recorded by reload, and the previous snapshot is still served
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, period.toNanos(), period.toNanos(), TimeUnit.NANOSECONDS);
+		return this;
+	}
+
+	/**
+	 * Processes the debts again and swaps the new snapshot in. Only one reload
+	 * runs at a time.
+	 * 
+	 * @return the new snapshot.
+	 * @throws IOException          if the debts cannot be processed or the
+	 *                              snapshot cannot be written.
+	 * @throws InterruptedException
+	 */
+	public synchronized DebtSnapshot reload() throws IOException, InterruptedException {
+		try {
+			DebtUpdate update = this.app.processDebtsSince(this.snapshot);
+			DebtSnapshot.write(update.getDebts(), this.snapshotFile, update.getPaymentsWatermark());
+			this.snapshot = DebtSnapshot.open(this.snapshotFile);
+			this.reloadCount.incrementAndGet();
+			this.lastReloadFailure = null;
+			return this.snapshot;
+		} catch (IOException | RuntimeException e) {
+			this.lastReloadFailure = e;
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the snapshot the debts are served from.
+	 * 
+	 * @return the snapshot the debts are served from.
+	 */
+	public DebtSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Returns the number of successful reloads, including the initial load when
+	 * there was no snapshot file.
+	 * 
+	 * @return the number of successful reloads.
+	 */
+	public long getReloads() {
+		return this.reloadCount.get();
+	}
+
+	/**
+	 * Returns the failure of the last reload.
+	 * 
+	 * @return the failure of the last reload, or null if it succeeded.
+	 */
+	public Exception getLastReloadFailure() {
+		return this.lastReloadFailure;
+	}
+
+	/**
+	 * Returns the number of debts looked up, found or not.
+	 * 
+	 * @return the number of debts looked up.
+	 */
+	public long getLookups() {
+		return this.lookups.get();
+	}
+
+	/**
+	 * Returns the URL of a path on this server.
+	 * 
+	 * @param path - the path, starting with a slash.
+	 * @return the local URL of the path.
+	 */
+	public String getUrl(String path) {
+		InetSocketAddress address = this.server.getAddress();
+		return "http://" + address.getHostString() + ":" + address.getPort() + path;
+	}
+
+	/**
+	 * Stops the server and the scheduled reloads.
+	 */
+	@Override
+	public void close() {
+		this.reloads.shutdownNow();
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	private void handleDebts(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+			DebtSnapshot snapshot = this.snapshot;
+			if (path.equals(DEBTS_PATH) || path.equals(DEBTS_PATH + "/")) {
+				String ids;
+				if ("GET".equals(method)) {
+					ids = queryParameter(exchange.getRequestURI().getRawQuery(), "ids");
+				} else if ("POST".equals(method)) {
+					try (InputStream body = exchange.getRequestBody()) {
+						ids = new String(body.readAllBytes(), StandardCharsets.US_ASCII);
+					}
+				} else {
+					send(exchange, RESPONSE_METHOD_NOT_ALLOWED, JSON, error("Method not allowed: " + method));
+					return;
+				}
+				lookUpBatch(exchange, snapshot, ids == null ? "" : ids);
+				return;
+			}
+			if (!"GET".equals(method)) {
+				send(exchange, RESPONSE_METHOD_NOT_ALLOWED, JSON, error("Method not allowed: " + method));
+				return;
+			}
+			int id;
+			try {
+				id = Integer.parseInt(path.substring(DEBTS_PATH.length() + 1));
+			} catch (NumberFormatException | IndexOutOfBoundsException e) {
+				send(exchange, RESPONSE_NOT_FOUND, JSON, error("Not found: " + path));
+				return;
+			}
+			this.lookups.incrementAndGet();
+			int index = snapshot.indexOf(id);
+			if (index < 0) {
+				send(exchange, RESPONSE_NOT_FOUND, JSON, error("Unknown debt id " + id));
+				return;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(LINE_SIZE);
+			JsonLinesWriter writer = new JsonLinesWriter(out, LINE_SIZE);
+			snapshot.writeJsonLine(index, writer);
+			writer.flush();
+			send(exchange, RESPONSE_OK, JSON, out.toByteArray());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void lookUpBatch(HttpExchange exchange, DebtSnapshot snapshot, String ids) throws IOException {
+		String[] tokens = ids.trim().isEmpty() ? new String[0] : ids.trim().split("[,\\s]+");
+		if (tokens.length > MAX_BATCH_SIZE) {
+			send(exchange, RESPONSE_BAD_REQUEST, JSON,
+					error("At most " + MAX_BATCH_SIZE + " ids can be looked up at once: " + tokens.length));
+			return;
+		}
+		int[] debtIds = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			try {
+				debtIds[i] = Integer.parseInt(tokens[i]);
+			} catch (NumberFormatException e) {
+				send(exchange, RESPONSE_BAD_REQUEST, JSON, error("Invalid debt id " + tokens[i]));
+				return;
+			}
+		}
+		this.lookups.addAndGet(debtIds.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(LINE_SIZE * Math.max(1, debtIds.length));
+		JsonLinesWriter writer = new JsonLinesWriter(out);
+		for (int debtId : debtIds) {
+			int index = snapshot.indexOf(debtId);
+			if (index >= 0) {
+				snapshot.writeJsonLine(index, writer);
+			}
+		}
+		writer.flush();
+		send(exchange, RESPONSE_OK, JSON_LINES, out.toByteArray());
+	}
+
+	private void handleReload(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				send(exchange, RESPONSE_METHOD_NOT_ALLOWED, JSON,
+						error("Method not allowed: " + exchange.getRequestMethod()));
+				return;
+			}
+			DebtSnapshot snapshot;
+			try {
+				snapshot = reload();
+			} catch (IOException | RuntimeException e) {
+				send(exchange, RESPONSE_SERVER_ERROR, JSON, error("Reload failed: " + e.getMessage()));
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				send(exchange, RESPONSE_SERVER_ERROR, JSON, error("Reload interrupted"));
+				return;
+			}
+			String body = "{\"debts\":" + snapshot.size() + ",\"reloads\":" + getReloads() + "}\n";
+			send(exchange, RESPONSE_OK, JSON, body.getBytes(StandardCharsets.US_ASCII));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static String queryParameter(String query, String name) {
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(name + "=")) {
+				// Ids are digits, separated by commas which may be percent encoded
+				return parameter.substring(name.length() + 1).replace("%2C", ",").replace("%2c", ",");
+			}
+		}
+		return null;
+	}
+
+	private static byte[] error(String message) {
+		return ("{\"error\":" + JSONObject.quote(message) + "}\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+			throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		// A length of 0 would mean a chunked body
+		exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
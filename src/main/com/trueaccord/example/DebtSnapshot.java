@@ -0,0 +1,478 @@
+package com.trueaccord.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.trueaccord.example.PaymentPlan.Frequency;
+
+/**
+ * Binary snapshot of processed debts, with the terms of their payment plans and
+ * the aggregated state of their payments. A snapshot is opened by mapping the
+ * file into memory, and the debts are read straight from the mapping, so a
+ * restarted process can look debts up or render them as JSON Lines without
+ * fetching the feeds or rebuilding the objects.
+ * <p>
+ * The file is big endian: a header with the magic number "DEBT", the format
+ * version, a CRC32 of everything after it, the number of debts, the length of
+ * the overflow area and the payments watermark, then one fixed size record per
+ * debt ordered by id, then the overflow area. Amounts are stored as the
+ * unscaled long value and scale of the BigDecimal, or in the overflow area as
+ * text when they do not fit. Records are read with absolute gets only, so a
+ * snapshot can be read from several threads.
+ * 
+ * @author mpcheng
+ */
+public final class DebtSnapshot {
+
+	/**
+	 * Magic number at the start of every snapshot, "DEBT" in ASCII.
+	 */
+	public static final int MAGIC = 0x44454254;
+
+	/**
+	 * Version of the format written.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Payments watermark of a snapshot not written from an incremental run, which
+	 * cannot be the base of one.
+	 */
+	public static final long NO_WATERMARK = -1;
+
+	private static final int HEADER_SIZE = 28;
+	private static final int VERSION_OFFSET = 4;
+	private static final int CRC_OFFSET = 8;
+	private static final int COUNT_OFFSET = 12;
+	private static final int OVERFLOW_LENGTH_OFFSET = 16;
+	private static final int WATERMARK_OFFSET = 20;
+
+	private static final int RECORD_SIZE = 64;
+	private static final int ID = 0;
+	private static final int AMOUNT = 4;
+	private static final int FLAGS = 13;
+	private static final int FREQUENCY = 14;
+	private static final int PAYMENT_PLAN_ID = 16;
+	private static final int AMOUNT_TO_PAY = 20;
+	private static final int INSTALLMENT_AMOUNT = 29;
+	private static final int START_EPOCH_DAY = 40;
+	private static final int LAST_PAYMENT_EPOCH_DAY = 44;
+	private static final int AMOUNT_PAID = 48;
+	private static final int TERMS_HASH = 60;
+
+	private static final int HAS_PAYMENT_PLAN = 1;
+	private static final int DECIMAL_SCALE = 8;
+	private static final byte SCALE_IN_OVERFLOW = Byte.MIN_VALUE;
+	private static final Frequency[] FREQUENCIES = Frequency.values();
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final int overflowOffset;
+
+	private DebtSnapshot(ByteBuffer buffer, int size) {
+		this.buffer = buffer;
+		this.size = size;
+		this.overflowOffset = HEADER_SIZE + size * RECORD_SIZE;
+	}
+
+	/**
+	 * Writes a snapshot of the debts without a payments watermark.
+	 * 
+	 * @param debts - the processed debts.
+	 * @param path  - the file to write the snapshot to.
+	 * @throws IOException
+	 * @see #write(Map, Path, long)
+	 */
+	public static void write(Map<Integer, Debt> debts, Path path) throws IOException {
+		write(debts, path, NO_WATERMARK);
+	}
+
+	/**
+	 * Writes a snapshot of the debts. The snapshot is written to a temporary file
+	 * next to the path and then moved over it, so readers never see a partial
+	 * snapshot.
+	 * 
+	 * @param debts              - the processed debts.
+	 * @param path               - the file to write the snapshot to.
+	 * @param paymentsWatermark  - the number of records of the payments endpoint
+	 *                           applied to the debts, or NO_WATERMARK.
+	 * @throws IOException
+	 */
+	public static void write(Map<Integer, Debt> debts, Path path, long paymentsWatermark) throws IOException {
+		Debt[] sorted = debts.values().toArray(new Debt[0]);
+		Arrays.sort(sorted, Comparator.comparingInt(Debt::getId));
+		ByteArrayOutputStream overflowBytes = new ByteArrayOutputStream();
+		DataOutputStream overflow = new DataOutputStream(overflowBytes);
+		ByteBuffer records = ByteBuffer.allocate(Math.multiplyExact(sorted.length, RECORD_SIZE));
+		for (int i = 0; i < sorted.length; i++) {
+			writeRecord(records, i * RECORD_SIZE, sorted[i], overflow);
+		}
+		overflow.flush();
+		long length = (long) HEADER_SIZE + records.capacity() + overflowBytes.size();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Too many debts for a snapshot: " + sorted.length);
+		}
+
+		ByteBuffer file = ByteBuffer.allocate((int) length);
+		file.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(sorted.length).putInt(overflowBytes.size())
+				.putLong(paymentsWatermark);
+		file.put(records.array()).put(overflowBytes.toByteArray());
+		CRC32 crc = new CRC32();
+		crc.update(file.array(), COUNT_OFFSET, file.capacity() - COUNT_OFFSET);
+		file.putInt(CRC_OFFSET, (int) crc.getValue());
+		file.flip();
+
+		Path directory = path.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (file.hasRemaining()) {
+					channel.write(file);
+				}
+				channel.force(true);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Opens a snapshot by mapping it into memory, after checking its header and
+	 * checksum.
+	 * 
+	 * @param path - the snapshot file.
+	 * @return the snapshot.
+	 * @throws IOException if the file cannot be read, or is not a valid snapshot
+	 *                     of a supported version.
+	 */
+	public static DebtSnapshot open(Path path) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+				throw new IOException("Not a debt snapshot: " + path);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a debt snapshot: " + path);
+		}
+		int version = buffer.getInt(VERSION_OFFSET);
+		if (version != VERSION) {
+			throw new IOException("Unsupported debt snapshot version " + version + ": " + path);
+		}
+		int size = buffer.getInt(COUNT_OFFSET);
+		int overflowLength = buffer.getInt(OVERFLOW_LENGTH_OFFSET);
+		if (size < 0 || overflowLength < 0
+				|| (long) HEADER_SIZE + (long) size * RECORD_SIZE + overflowLength != buffer.capacity()) {
+			throw new IOException("Truncated debt snapshot: " + path);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate().position(COUNT_OFFSET));
+		if ((int) crc.getValue() != buffer.getInt(CRC_OFFSET)) {
+			throw new IOException("Corrupt debt snapshot, checksum mismatch: " + path);
+		}
+		return new DebtSnapshot(buffer, size);
+	}
+
+	/**
+	 * Returns the number of debts in the snapshot.
+	 * 
+	 * @return the number of debts in the snapshot.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of records of the payments endpoint applied to the debts,
+	 * which the next incremental run starts from.
+	 * 
+	 * @return the payments watermark, or NO_WATERMARK.
+	 */
+	public long getPaymentsWatermark() {
+		return this.buffer.getLong(WATERMARK_OFFSET);
+	}
+
+	/**
+	 * Returns the index of a debt by its id.
+	 * 
+	 * @param debtId - the id of the debt.
+	 * @return the index of the debt, or -1 if it is not in the snapshot.
+	 */
+	public int indexOf(int debtId) {
+		int low = 0;
+		int high = this.size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int id = getId(middle);
+			if (id < debtId) {
+				low = middle + 1;
+			} else if (id > debtId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the id of a debt.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the id of the debt.
+	 */
+	public int getId(int index) {
+		return this.buffer.getInt(record(index) + ID);
+	}
+
+	/**
+	 * Returns the original amount of a debt.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the original amount of the debt.
+	 */
+	public BigDecimal getAmount(int index) {
+		return readDecimal(record(index) + AMOUNT);
+	}
+
+	/**
+	 * Returns whether a debt is in a payment plan, as Debt.isInPaymentPlan.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return true if the debt is in a payment plan.
+	 */
+	public boolean isInPaymentPlan(int index) {
+		int record = record(index);
+		return recordHasPaymentPlan(record)
+				&& readDecimal(record + AMOUNT_PAID).compareTo(readDecimal(record + AMOUNT_TO_PAY)) < 0;
+	}
+
+	/**
+	 * Returns the remaining amount of a debt, as Debt.getRemainingAmount.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the remaining amount of the debt.
+	 */
+	public BigDecimal getRemainingAmount(int index) {
+		int record = record(index);
+		if (!recordHasPaymentPlan(record)) {
+			return readDecimal(record + AMOUNT);
+		}
+		return readDecimal(record + AMOUNT_TO_PAY).subtract(readDecimal(record + AMOUNT_PAID));
+	}
+
+	/**
+	 * Returns the next payment due date of a debt, as Debt.getNextPaymentDueDate.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the next payment due date as an ISO 8601 date, or null if there is
+	 *         none.
+	 */
+	public String getNextPaymentDueDate(int index) {
+		if (!isInPaymentPlan(index)) {
+			return null;
+		}
+		int record = record(index);
+		int frequencyInDays = PaymentPlan.getFrequencyInDays(FREQUENCIES[this.buffer.get(record + FREQUENCY)]);
+		return DateCodec.ISO.format(PaymentPlan.getNextInstallmentEpochDay(
+				this.buffer.getInt(record + START_EPOCH_DAY), frequencyInDays,
+				this.buffer.getInt(record + LAST_PAYMENT_EPOCH_DAY)));
+	}
+
+	/**
+	 * Returns whether a debt is associated with a payment plan, even if paid off.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return true if the debt has a payment plan.
+	 */
+	public boolean hasPaymentPlan(int index) {
+		return recordHasPaymentPlan(record(index));
+	}
+
+	/**
+	 * Returns the id of the payment plan of a debt.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the id of the payment plan, undefined if the debt has none.
+	 */
+	public int getPaymentPlanId(int index) {
+		return this.buffer.getInt(record(index) + PAYMENT_PLAN_ID);
+	}
+
+	/**
+	 * Returns the total paid on the payment plan of a debt.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the total paid, undefined if the debt has no payment plan.
+	 */
+	public BigDecimal getAmountPaid(int index) {
+		return readDecimal(record(index) + AMOUNT_PAID);
+	}
+
+	/**
+	 * Returns the last payment date on the payment plan of a debt.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the last payment date as an epoch day, or DateCodec.NO_DATE.
+	 */
+	public int getLastPaymentEpochDay(int index) {
+		return this.buffer.getInt(record(index) + LAST_PAYMENT_EPOCH_DAY);
+	}
+
+	/**
+	 * Returns PaymentPlan.getTermsHash of the payment plan of a debt.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the hash of the terms, undefined if the debt has no payment plan.
+	 */
+	public int getTermsHash(int index) {
+		return this.buffer.getInt(record(index) + TERMS_HASH);
+	}
+
+	/**
+	 * Returns whether a debt has the same amount, payment plan terms and payments
+	 * state as a debt of the snapshot, so it would be written the same way.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @param debt  - the debt to compare with.
+	 * @return true if the debt is the same as in the snapshot.
+	 */
+	public boolean matches(int index, Debt debt) {
+		int record = record(index);
+		if (this.buffer.getInt(record + ID) != debt.getId() || !readDecimal(record + AMOUNT).equals(debt.getAmount())) {
+			return false;
+		}
+		PaymentPlan paymentPlan = debt.getPaymentPlan();
+		if (paymentPlan == null || !recordHasPaymentPlan(record)) {
+			return paymentPlan == null && !recordHasPaymentPlan(record);
+		}
+		return this.buffer.getInt(record + PAYMENT_PLAN_ID) == paymentPlan.getId()
+				&& this.buffer.getInt(record + TERMS_HASH) == paymentPlan.getTermsHash()
+				&& this.buffer.getInt(record + LAST_PAYMENT_EPOCH_DAY) == paymentPlan.getLastPaymentEpochDay()
+				&& readDecimal(record + AMOUNT_PAID).equals(paymentPlan.getAmountPaid());
+	}
+
+	/**
+	 * Rebuilds a debt with its payment plan. The payment plan has the amount paid
+	 * and last payment date of its payments, but no payment history.
+	 * 
+	 * @param index - the index of the debt, from 0 to size() - 1.
+	 * @return the debt.
+	 */
+	public Debt toDebt(int index) {
+		int record = record(index);
+		Debt debt = new Debt(getId(index), readDecimal(record + AMOUNT));
+		if (recordHasPaymentPlan(record)) {
+			PaymentPlan paymentPlan = new PaymentPlan(this.buffer.getInt(record + PAYMENT_PLAN_ID), debt.getId(),
+					readDecimal(record + AMOUNT_TO_PAY), readDecimal(record + INSTALLMENT_AMOUNT),
+					FREQUENCIES[this.buffer.get(record + FREQUENCY)], this.buffer.getInt(record + START_EPOCH_DAY),
+					false);
+			int lastPaymentEpochDay = this.buffer.getInt(record + LAST_PAYMENT_EPOCH_DAY);
+			if (lastPaymentEpochDay != DateCodec.NO_DATE) {
+				paymentPlan.processPayment(lastPaymentEpochDay, readDecimal(record + AMOUNT_PAID));
+			}
+			debt.setPaymentPlan(paymentPlan);
+		}
+		return debt;
+	}
+
+	/**
+	 * Writes every debt as a JSON line, ordered by id.
+	 * 
+	 * @param writer - the writer to write the lines to.
+	 * @throws IOException
+	 */
+	public void writeJsonLines(JsonLinesWriter writer) throws IOException {
+		for (int i = 0; i < this.size; i++) {
+			writeJsonLine(i, writer);
+		}
+	}
+
+	/**
+	 * Writes a debt as a JSON line.
+	 * 
+	 * @param index  - the index of the debt, from 0 to size() - 1.
+	 * @param writer - the writer to write the line to.
+	 * @throws IOException
+	 */
+	public void writeJsonLine(int index, JsonLinesWriter writer) throws IOException {
+		writer.write(getId(index), getAmount(index), isInPaymentPlan(index), getRemainingAmount(index),
+				getNextPaymentDueDate(index));
+	}
+
+	private int record(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+		return HEADER_SIZE + index * RECORD_SIZE;
+	}
+
+	private boolean recordHasPaymentPlan(int record) {
+		return (this.buffer.get(record + FLAGS) & HAS_PAYMENT_PLAN) != 0;
+	}
+
+	private BigDecimal readDecimal(int offset) {
+		long unscaled = this.buffer.getLong(offset);
+		byte scale = this.buffer.get(offset + DECIMAL_SCALE);
+		if (scale != SCALE_IN_OVERFLOW) {
+			return BigDecimal.valueOf(unscaled, scale);
+		}
+		int position = this.overflowOffset + (int) unscaled;
+		byte[] text = new byte[this.buffer.getShort(position) & 0xFFFF];
+		this.buffer.duplicate().position(position + Short.BYTES).get(text);
+		return new BigDecimal(new String(text, StandardCharsets.US_ASCII));
+	}
+
+	private static void writeRecord(ByteBuffer records, int record, Debt debt, DataOutputStream overflow)
+			throws IOException {
+		records.putInt(record + ID, debt.getId());
+		writeDecimal(records, record + AMOUNT, debt.getAmount(), overflow);
+		PaymentPlan paymentPlan = debt.getPaymentPlan();
+		if (paymentPlan == null) {
+			return;
+		}
+		records.put(record + FLAGS, (byte) HAS_PAYMENT_PLAN);
+		records.put(record + FREQUENCY, (byte) paymentPlan.getFrequency().ordinal());
+		records.putInt(record + PAYMENT_PLAN_ID, paymentPlan.getId());
+		writeDecimal(records, record + AMOUNT_TO_PAY, paymentPlan.getAmountToPay(), overflow);
+		writeDecimal(records, record + INSTALLMENT_AMOUNT, paymentPlan.getInstallmentAmount(), overflow);
+		records.putInt(record + START_EPOCH_DAY, paymentPlan.getStartEpochDay());
+		records.putInt(record + LAST_PAYMENT_EPOCH_DAY, paymentPlan.getLastPaymentEpochDay());
+		writeDecimal(records, record + AMOUNT_PAID, paymentPlan.getAmountPaid(), overflow);
+		records.putInt(record + TERMS_HASH, paymentPlan.getTermsHash());
+	}
+
+	private static void writeDecimal(ByteBuffer records, int offset, BigDecimal value, DataOutputStream overflow)
+			throws IOException {
+		if (value.scale() > SCALE_IN_OVERFLOW && value.scale() <= Byte.MAX_VALUE
+				&& value.unscaledValue().bitLength() < Long.SIZE) {
+			records.putLong(offset, value.unscaledValue().longValue());
+			records.put(offset + DECIMAL_SCALE, (byte) value.scale());
+			return;
+		}
+		byte[] text = value.toString().getBytes(StandardCharsets.US_ASCII);
+		if (text.length > 0xFFFF) {
+			throw new IOException("Amount too long for a snapshot: " + text.length + " characters");
+		}
+		records.putLong(offset, overflow.size());
+		records.put(offset + DECIMAL_SCALE, SCALE_IN_OVERFLOW);
+		overflow.writeShort(text.length);
+		overflow.write(text);
+	}
+}
@@ -0,0 +1,92 @@
+package com.trueaccord.example;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of an incremental run of App: every debt, the debts which changed
+ * since the snapshot the run started from, and the payments watermark to write
+ * with the next snapshot.
+ * 
+ * @author mpcheng
+ */
+public class DebtUpdate {
+
+	private final Map<Integer, Debt> debts;
+	private final Map<Integer, Debt> changedDebts;
+	private final Set<Integer> removedDebtIds;
+	private final long paymentsWatermark;
+	private final boolean fullRecompute;
+
+	/**
+	 * Constructor for the DebtUpdate.
+	 * 
+	 * @param debts             - every debt, by id.
+	 * @param changedDebts      - the debts new or changed since the snapshot, by
+	 *                          id.
+	 * @param removedDebtIds    - the ids of the debts of the snapshot which no
+	 *                          longer exist.
+	 * @param paymentsWatermark - the number of records of the payments endpoint
+	 *                          applied to the debts.
+	 * @param fullRecompute     - true if every payment was applied, rather than
+	 *                          the payments after the watermark of the snapshot.
+	 */
+	public DebtUpdate(Map<Integer, Debt> debts, Map<Integer, Debt> changedDebts, Set<Integer> removedDebtIds,
+			long paymentsWatermark, boolean fullRecompute) {
+		this.debts = debts;
+		this.changedDebts = changedDebts;
+		this.removedDebtIds = removedDebtIds;
+		this.paymentsWatermark = paymentsWatermark;
+		this.fullRecompute = fullRecompute;
+	}
+
+	/**
+	 * Returns every debt, ordered by id.
+	 * 
+	 * @return every debt, by id.
+	 */
+	public Map<Integer, Debt> getDebts() {
+		return Collections.unmodifiableMap(this.debts);
+	}
+
+	/**
+	 * Returns the debts new or changed since the snapshot, ordered by id.
+	 * 
+	 * @return the changed debts, by id.
+	 */
+	public Map<Integer, Debt> getChangedDebts() {
+		return Collections.unmodifiableMap(this.changedDebts);
+	}
+
+	/**
+	 * Returns the ids of the debts of the snapshot which no longer exist, in
+	 * order.
+	 * 
+	 * @return the ids of the removed debts.
+	 */
+	public Set<Integer> getRemovedDebtIds() {
+		return Collections.unmodifiableSet(this.removedDebtIds);
+	}
+
+	/**
+	 * Returns the number of records of the payments endpoint applied to the
+	 * debts, to write with the next snapshot.
+	 * 
+	 * @return the payments watermark.
+	 */
+	public long getPaymentsWatermark() {
+		return this.paymentsWatermark;
+	}
+
+	/**
+	 * Returns true if every payment was applied, because there was no snapshot,
+	 * the snapshot had no watermark, or the payments endpoint had fewer records
+	 * than the watermark.
+	 * 
+	 * @return true if every payment was applied.
+	 */
+	public boolean isFullRecompute() {
+		return this.fullRecompute;
+	}
+}
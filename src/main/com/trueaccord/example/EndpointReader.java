@@ -0,0 +1,327 @@
+package com.trueaccord.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+/**
+ * Reads the records of an endpoint, either as a single document or page by
+ * page. The first requests are sent as soon as the reader is created, so the
+ * endpoint is downloading while the caller gets ready to process it. When paged,
+ * up to maxPagesInFlight pages are requested ahead, so page N is processed while
+ * the following pages are in flight.
+ * <p>
+ * A page with fewer or more records than the page size is the last one. A
+ * server ignoring the paging parameters returns the whole endpoint for every
+ * page, which has the length of a page when the endpoint has exactly one page
+ * of records. So when the first page read is full, the record after it is
+ * requested on its own with a limit other than the page size, and the reader
+ * stops if the server returns no record or more than that limit.
+ * 
+ * @author mpcheng
+ */
+public class EndpointReader implements Closeable {
+
+	private final HttpGetClient client;
+	private final String url;
+	private final int pageSize;
+	private final boolean buffered;
+	private final AppMetrics metrics;
+	private final Deque<CompletableFuture<JsonArrayReader>> inFlight;
+	private final int firstPage;
+	private int nextPage;
+	private int toSkip;
+	private int skipped;
+	private int read;
+	private boolean firstPageRead;
+	private boolean closed;
+
+	/**
+	 * Constructor for the EndpointReader, which starts fetching the endpoint.
+	 * 
+	 * @param client           - the HttpGetClient to use for fetching the endpoint.
+	 * @param url              - the service endpoint to read.
+	 * @param pageSize         - the number of records per page, or 0 to fetch the
+	 *                         endpoint as a single document.
+	 * @param maxPagesInFlight - the maximum number of pages requested at once.
+	 */
+	public EndpointReader(HttpGetClient client, String url, int pageSize, int maxPagesInFlight) {
+		this(client, url, pageSize, maxPagesInFlight, 0);
+	}
+
+	/**
+	 * Constructor for the EndpointReader starting at a given record, which starts
+	 * fetching the endpoint. When paged, the pages before the first record are
+	 * never fetched. Otherwise the records before it are read but skipped.
+	 * 
+	 * @param client           - the HttpGetClient to use for fetching the endpoint.
+	 * @param url              - the service endpoint to read.
+	 * @param pageSize         - the number of records per page, or 0 to fetch the
+	 *                         endpoint as a single document.
+	 * @param maxPagesInFlight - the maximum number of pages requested at once.
+	 * @param firstRecord      - the index of the first record to read.
+	 */
+	public EndpointReader(HttpGetClient client, String url, int pageSize, int maxPagesInFlight, int firstRecord) {
+		this(client, url, pageSize, maxPagesInFlight, firstRecord, false);
+	}
+
+	/**
+	 * Constructor for the EndpointReader starting at a given record, which starts
+	 * fetching the endpoint, either as streams parsed as they download or as
+	 * buffers parsed once each body is received in full.
+	 * 
+	 * @param client           - the HttpGetClient to use for fetching the endpoint.
+	 * @param url              - the service endpoint to read.
+	 * @param pageSize         - the number of records per page, or 0 to fetch the
+	 *                         endpoint as a single document.
+	 * @param maxPagesInFlight - the maximum number of pages requested at once.
+	 * @param firstRecord      - the index of the first record to read.
+	 * @param buffered         - true to fetch each body as a ByteBuffer.
+	 */
+	public EndpointReader(HttpGetClient client, String url, int pageSize, int maxPagesInFlight, int firstRecord,
+			boolean buffered) {
+		this(client, url, pageSize, maxPagesInFlight, firstRecord, buffered, null);
+	}
+
+	/**
+	 * Constructor for the EndpointReader starting at a given record, which starts
+	 * fetching the endpoint and records the time to each response and the bytes
+	 * of each body in the given metrics.
+	 * 
+	 * @param client           - the HttpGetClient to use for fetching the endpoint.
+	 * @param url              - the service endpoint to read.
+	 * @param pageSize         - the number of records per page, or 0 to fetch the
+	 *                         endpoint as a single document.
+	 * @param maxPagesInFlight - the maximum number of pages requested at once.
+	 * @param firstRecord      - the index of the first record to read.
+	 * @param buffered         - true to fetch each body as a ByteBuffer.
+	 * @param metrics          - the metrics to record the fetches in, or null.
+	 */
+	public EndpointReader(HttpGetClient client, String url, int pageSize, int maxPagesInFlight, int firstRecord,
+			boolean buffered, AppMetrics metrics) {
+		if (firstRecord < 0) {
+			throw new IllegalArgumentException("First record cannot be negative: " + firstRecord);
+		}
+		this.client = client;
+		this.url = url;
+		this.pageSize = pageSize;
+		this.buffered = buffered;
+		this.metrics = metrics;
+		this.inFlight = new ArrayDeque<CompletableFuture<JsonArrayReader>>();
+		if (pageSize <= 0) {
+			this.firstPage = 0;
+			this.nextPage = 1;
+			this.toSkip = firstRecord;
+			this.inFlight.add(fetch(0));
+		} else {
+			this.firstPage = firstRecord / pageSize + 1;
+			this.nextPage = this.firstPage;
+			this.toSkip = firstRecord % pageSize;
+			for (int i = 0; i < maxPagesInFlight; i++) {
+				requestNextPage();
+			}
+		}
+	}
+
+	/**
+	 * Reads every record of the endpoint from the first record and hands them one
+	 * at a time to the consumer in the order they appear.
+	 * 
+	 * @param consumer - the consumer of each record.
+	 * @return the number of records handed to the consumer.
+	 * @throws IOException, InterruptedException
+	 */
+	public int forEach(Consumer<JSONObject> consumer) throws IOException, InterruptedException {
+		int count = 0;
+		int skippedBefore = this.skipped;
+		Consumer<JSONObject> skipping = json -> {
+			if (this.toSkip > 0) {
+				this.toSkip--;
+				this.skipped++;
+			} else {
+				consumer.accept(json);
+			}
+		};
+		CompletableFuture<JsonArrayReader> body;
+		while ((body = nextBody()) != null) {
+			int pageCount;
+			try (JsonArrayReader reader = await(body)) {
+				pageCount = reader.forEach(this.toSkip > 0 ? skipping : consumer);
+			}
+			count += pageCount;
+			// A short page is the last one. So is a page larger than asked for, as the
+			// endpoint then doesn't support paging and returned every record.
+			boolean more = this.pageSize > 0 && pageCount == this.pageSize;
+			if (this.pageSize > 0 && !this.firstPageRead) {
+				this.firstPageRead = true;
+				int before = recordsBeforeFirstPage(pageCount);
+				this.skipped += before;
+				skippedBefore += before;
+				more = more && hasMorePages();
+			}
+			if (!more) {
+				close();
+				break;
+			}
+			requestNextPage();
+		}
+		count -= this.skipped - skippedBefore;
+		this.read += count;
+		return count;
+	}
+
+	/**
+	 * Returns the number of records handed to consumers so far.
+	 * 
+	 * @return the number of records read.
+	 */
+	public int getRecordsRead() {
+		return this.read;
+	}
+
+	/**
+	 * Returns the number of records before the first record, that were skipped or,
+	 * when paged, never fetched. Those never fetched are only counted once the
+	 * first page read shows the endpoint still has them, so it is less than the
+	 * first record once read if the endpoint has fewer records.
+	 * 
+	 * @return the number of records before the first record.
+	 */
+	public int getRecordsSkipped() {
+		return this.skipped;
+	}
+
+	/**
+	 * Closes the bodies of any pages still in flight. Safe to call from another
+	 * thread to abandon a read in progress.
+	 */
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		while (!this.inFlight.isEmpty()) {
+			this.inFlight.poll().thenAccept(body -> {
+				try {
+					body.close();
+				} catch (IOException e) {
+					// Nothing left to read from it
+				}
+			});
+		}
+	}
+
+	private synchronized CompletableFuture<JsonArrayReader> nextBody() {
+		return this.inFlight.poll();
+	}
+
+	private synchronized void requestNextPage() {
+		if (this.closed) {
+			return;
+		}
+		this.inFlight.add(fetch(this.nextPage++));
+	}
+
+	/**
+	 * Returns the number of records before the first page read, the pages never
+	 * fetched, if the endpoint still has them. A page with records shows they are
+	 * there. An empty page may follow them or be past the end of a shorter
+	 * endpoint, so the last record before the page is requested on its own.
+	 * Returns 0 if the endpoint has fewer records.
+	 */
+	private int recordsBeforeFirstPage(int pageCount) throws IOException, InterruptedException {
+		int before = (this.firstPage - 1) * this.pageSize;
+		if (pageCount > 0 || before == 0 || countRecords(before, 1) > 0) {
+			return before;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns true if the endpoint has records after the first page read, which
+	 * was full. A server ignoring the paging parameters would return the same full
+	 * page for every page, so the record after the page is requested with a limit
+	 * other than the page size: a server honouring it returns at most that many
+	 * records, and one ignoring it returns the page size of records again.
+	 */
+	private boolean hasMorePages() throws IOException, InterruptedException {
+		int end = this.firstPage * this.pageSize;
+		if (this.pageSize > 1) {
+			return countRecords(end + 1, 1) == 1;
+		}
+		// A limit of one is the page size, so ask for every record up to the next
+		return countRecords(1, end + 1) == end + 1;
+	}
+
+	/**
+	 * Fetches a page with the given limit and returns the number of records in it.
+	 */
+	private int countRecords(int page, int limit) throws IOException, InterruptedException {
+		try (JsonArrayReader reader = new JsonArrayReader(await(this.client.fetchPageAsync(this.url, page, limit)))) {
+			return reader.forEach(json -> {
+			});
+		}
+	}
+
+	/**
+	 * Requests a page, or the whole endpoint if page is 0.
+	 */
+	private CompletableFuture<JsonArrayReader> fetch(int page) {
+		AppMetrics metrics = this.metrics;
+		if (metrics == null) {
+			return this.buffered ? fetchBuffer(page).thenApply(JsonArrayReader::new)
+					: fetchStream(page).thenApply(JsonArrayReader::new);
+		}
+		StageMetrics fetches = metrics.getStage(AppMetrics.Stage.FETCH);
+		long start = System.nanoTime();
+		if (this.buffered) {
+			return fetchBuffer(page).thenApply(buffer -> {
+				fetches.record(System.nanoTime() - start, 0, -1);
+				metrics.count(buffer.remaining());
+				return new JsonArrayReader(buffer);
+			});
+		}
+		return fetchStream(page).thenApply(body -> {
+			fetches.record(System.nanoTime() - start, 0, -1);
+			return new JsonArrayReader(metrics.count(body));
+		});
+	}
+
+	private CompletableFuture<InputStream> fetchStream(int page) {
+		return page == 0 ? this.client.fetchEndPointAsync(this.url)
+				: this.client.fetchPageAsync(this.url, page, this.pageSize);
+	}
+
+	private CompletableFuture<ByteBuffer> fetchBuffer(int page) {
+		return page == 0 ? this.client.fetchEndPointAsBufferAsync(this.url)
+				: this.client.fetchPageAsBufferAsync(this.url, page, this.pageSize);
+	}
+
+	/**
+	 * Waits for the future and returns its result, unwrapping the cause of a
+	 * failure so callers see the original exception.
+	 */
+	static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+}
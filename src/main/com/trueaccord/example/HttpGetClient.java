@@ -1,6 +1,10 @@
 package com.trueaccord.example;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for executing a HTTP GET request and returns the response as a
@@ -34,4 +38,201 @@ public interface HttpGetClient {
 	 * @throws IOException, InterruptedException
 	 */
 	public String fetchEndPoint(String url) throws IOException, InterruptedException;
+
+	/**
+	 * Executes a HTTP GET request to the given url and returns the response body as
+	 * a stream, so it can be consumed without holding the whole body in memory. The
+	 * caller is responsible for closing the stream.
+	 * 
+	 * @param url - the service endpoint to fetch.
+	 * @return the response body as a stream.
+	 * @throws IOException, InterruptedException
+	 */
+	public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException;
+
+	/**
+	 * Executes a HTTP GET request to the given url without blocking the caller.
+	 * The returned future completes with the response body as a stream once the
+	 * response headers are received, or exceptionally if the request failed. The
+	 * caller is responsible for closing the stream.
+	 * 
+	 * @param url - the service endpoint to fetch.
+	 * @return a future of the response body as a stream.
+	 */
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url);
+
+	/**
+	 * Executes a HTTP GET request for one page of the records of the given url
+	 * without blocking the caller. Pages are numbered from 1, and every page but
+	 * the last holds exactly pageSize records. The caller is responsible for
+	 * closing the stream.
+	 * 
+	 * @param url      - the service endpoint to fetch.
+	 * @param page     - the page number, starting at 1.
+	 * @param pageSize - the number of records per page.
+	 * @return a future of the page of the response body as a stream.
+	 */
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize);
+
+	/**
+	 * Executes a HTTP GET request to the given url without blocking the caller.
+	 * The returned future completes with the whole response body as bytes, not
+	 * decoded, once it has been received, or exceptionally if the request failed.
+	 * By default the body is read from fetchEndPointAsync into a heap buffer.
+	 * 
+	 * @param url - the service endpoint to fetch.
+	 * @return a future of the response body as a read only buffer.
+	 */
+	public default CompletableFuture<ByteBuffer> fetchEndPointAsBufferAsync(String url) {
+		return fetchEndPointAsync(url).thenApply(HttpGetClient::readFully);
+	}
+
+	/**
+	 * Executes a HTTP GET request for one page of the records of the given url
+	 * without blocking the caller, as fetchPageAsync, and completes with the whole
+	 * page as bytes. By default the page is read from fetchPageAsync into a heap
+	 * buffer.
+	 * 
+	 * @param url      - the service endpoint to fetch.
+	 * @param page     - the page number, starting at 1.
+	 * @param pageSize - the number of records per page.
+	 * @return a future of the page of the response body as a read only buffer.
+	 */
+	public default CompletableFuture<ByteBuffer> fetchPageAsBufferAsync(String url, int page, int pageSize) {
+		return fetchPageAsync(url, page, pageSize).thenApply(HttpGetClient::readFully);
+	}
+
+	/**
+	 * Executes a conditional HTTP GET request to the given url without blocking
+	 * the caller, sent with If-None-Match and If-Modified-Since for the validators
+	 * given. The returned future completes with the response, without a body if
+	 * not modified, or exceptionally if the request failed. The caller is
+	 * responsible for closing the body. By default the request is sent
+	 * unconditionally with fetchEndPointAsync, and the response has no
+	 * validators.
+	 * 
+	 * @param url          - the service endpoint to fetch.
+	 * @param etag         - the ETag of the cached response, or null.
+	 * @param lastModified - the Last-Modified date of the cached response, or
+	 *                     null.
+	 * @return a future of the response.
+	 */
+	public default CompletableFuture<ConditionalResponse> fetchEndPointIfModifiedAsync(String url, String etag,
+			String lastModified) {
+		return fetchEndPointAsync(url).thenApply(body -> new ConditionalResponse(body, null, null, false, -1));
+	}
+
+	/**
+	 * Executes a conditional HTTP GET request for one page of the records of the
+	 * given url without blocking the caller, as fetchEndPointIfModifiedAsync. By
+	 * default the page is requested unconditionally with fetchPageAsync, and the
+	 * response has no validators.
+	 * 
+	 * @param url          - the service endpoint to fetch.
+	 * @param page         - the page number, starting at 1.
+	 * @param pageSize     - the number of records per page.
+	 * @param etag         - the ETag of the cached response, or null.
+	 * @param lastModified - the Last-Modified date of the cached response, or
+	 *                     null.
+	 * @return a future of the response.
+	 */
+	public default CompletableFuture<ConditionalResponse> fetchPageIfModifiedAsync(String url, int page, int pageSize,
+			String etag, String lastModified) {
+		return fetchPageAsync(url, page, pageSize)
+				.thenApply(body -> new ConditionalResponse(body, null, null, false, -1));
+	}
+
+	/**
+	 * Response to a conditional request: the body as a stream unless not
+	 * modified, and the headers telling whether and how it may be cached.
+	 */
+	public static final class ConditionalResponse {
+		private final InputStream body;
+		private final String etag;
+		private final String lastModified;
+		private final boolean noStore;
+		private final long length;
+
+		/**
+		 * Constructor for the ConditionalResponse.
+		 * 
+		 * @param body         - the decoded body, or null if not modified.
+		 * @param etag         - the ETag header, or null.
+		 * @param lastModified - the Last-Modified header, or null.
+		 * @param noStore      - true if the Cache-Control header forbids storing
+		 *                     the response.
+		 * @param length       - the length of the decoded body, or -1 if not
+		 *                     known.
+		 */
+		public ConditionalResponse(InputStream body, String etag, String lastModified, boolean noStore,
+				long length) {
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.noStore = noStore;
+			this.length = length;
+		}
+
+		/**
+		 * Returns the decoded body, or null if not modified.
+		 * 
+		 * @return the decoded body, or null if not modified.
+		 */
+		public InputStream getBody() {
+			return this.body;
+		}
+
+		/**
+		 * Returns true if the cached response was not modified.
+		 * 
+		 * @return true if the cached response was not modified.
+		 */
+		public boolean isNotModified() {
+			return this.body == null;
+		}
+
+		/**
+		 * Returns the ETag header.
+		 * 
+		 * @return the ETag header, or null.
+		 */
+		public String getETag() {
+			return this.etag;
+		}
+
+		/**
+		 * Returns the Last-Modified header.
+		 * 
+		 * @return the Last-Modified header, or null.
+		 */
+		public String getLastModified() {
+			return this.lastModified;
+		}
+
+		/**
+		 * Returns true if the Cache-Control header forbids storing the response.
+		 * 
+		 * @return true if the response must not be stored.
+		 */
+		public boolean isNoStore() {
+			return this.noStore;
+		}
+
+		/**
+		 * Returns the length of the decoded body.
+		 * 
+		 * @return the length of the decoded body, or -1 if not known.
+		 */
+		public long getLength() {
+			return this.length;
+		}
+	}
+
+	private static ByteBuffer readFully(InputStream body) {
+		try (InputStream in = body) {
+			return ByteBuffer.wrap(in.readAllBytes()).asReadOnlyBuffer();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 }
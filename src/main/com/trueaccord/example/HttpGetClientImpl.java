@@ -1,37 +1,410 @@
 package com.trueaccord.example;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 /**
- * Default implementation of the HttpGetClient.
+ * Default implementation of the HttpGetClient. A single java.net.http.HttpClient
+ * is reused for every request, so connections (and their TLS sessions) are kept
+ * alive and pooled across endpoints and across instances sharing the client.
+ * HTTP/2 is preferred, falling back to HTTP/1.1 when the server does not support
+ * it. How long idle connections are kept alive is controlled by the JDK system
+ * property jdk.httpclient.keepalive.timeout. Requests accept gzip and deflate
+ * compressed bodies, which are decompressed as they are read.
  * 
  * @author mpcheng
  */
 public class HttpGetClientImpl implements HttpGetClient {
 
+	/**
+	 * Default time allowed to establish a connection.
+	 */
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(3);
+
+	/**
+	 * Default time allowed to receive the response headers once a request is sent.
+	 */
+	public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(3);
+
+	/**
+	 * Bodies fetched as a buffer longer than this, or of unknown length, are
+	 * spilled to a temporary file and mapped rather than held on the heap.
+	 */
+	public static final long SPILL_THRESHOLD = 1024 * 1024;
+
 	private static final int RESPONSE_OK = 200;
-	private static final int TIMEOUT = 3;
+	private static final int RESPONSE_NOT_MODIFIED = 304;
+
+	/**
+	 * Shared by every instance created with the default constructor.
+	 */
+	private static final HttpClient DEFAULT_CLIENT = newHttpClient(DEFAULT_CONNECT_TIMEOUT, null);
+
+	private final HttpClient client;
+	private final Duration requestTimeout;
+
+	/**
+	 * Default constructor for HttpGetClientImpl, using a shared HttpClient with the
+	 * default timeouts.
+	 */
+	public HttpGetClientImpl() {
+		this(DEFAULT_CLIENT, DEFAULT_REQUEST_TIMEOUT);
+	}
+
+	/**
+	 * Constructor for HttpGetClientImpl with its own HttpClient.
+	 * 
+	 * @param connectTimeout - the time allowed to establish a connection.
+	 * @param requestTimeout - the time allowed to receive the response headers.
+	 * @param executor       - the executor for asynchronous tasks of the client, or
+	 *                       null to use the default executor of the HttpClient.
+	 */
+	public HttpGetClientImpl(Duration connectTimeout, Duration requestTimeout, Executor executor) {
+		this(newHttpClient(connectTimeout, executor), requestTimeout);
+	}
+
+	/**
+	 * Constructor for HttpGetClientImpl reusing an existing HttpClient.
+	 * 
+	 * @param client         - the HttpClient to send requests with.
+	 * @param requestTimeout - the time allowed to receive the response headers.
+	 */
+	public HttpGetClientImpl(HttpClient client, Duration requestTimeout) {
+		this.client = client;
+		this.requestTimeout = requestTimeout;
+	}
+
+	/**
+	 * Creates a HttpClient preferring HTTP/2 and following redirects, suitable to
+	 * be shared by many HttpGetClientImpl instances.
+	 * 
+	 * @param connectTimeout - the time allowed to establish a connection.
+	 * @param executor       - the executor for asynchronous tasks of the client, or
+	 *                       null to use the default executor of the HttpClient.
+	 * @return the new HttpClient.
+	 */
+	public static HttpClient newHttpClient(Duration connectTimeout, Executor executor) {
+		HttpClient.Builder builder = HttpClient.newBuilder().version(Version.HTTP_2).followRedirects(Redirect.NORMAL)
+				.connectTimeout(connectTimeout);
+		if (executor != null) {
+			builder.executor(executor);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the HttpClient requests are sent with.
+	 * 
+	 * @return the HttpClient requests are sent with.
+	 */
+	public HttpClient getHttpClient() {
+		return this.client;
+	}
+
+	/**
+	 * Returns the time allowed to receive the response headers.
+	 * 
+	 * @return the time allowed to receive the response headers.
+	 */
+	public Duration getRequestTimeout() {
+		return this.requestTimeout;
+	}
 
 	@Override
 	public String fetchEndPoint(String url) throws IOException, InterruptedException {
-		HttpClient client = HttpClient.newHttpClient();
-		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).timeout(Duration.ofSeconds(TIMEOUT))
-				.build();
-		HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
+		try (InputStream body = fetchEndPointAsStream(url)) {
+			return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException {
+		return checkResponse(this.client.send(newRequest(url), BodyHandlers.ofInputStream()));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+		return this.client.sendAsync(newRequest(url), BodyHandlers.ofInputStream()).thenApply(response -> {
+			try {
+				return checkResponse(response);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Fetches a page using the json-server _page and _limit query parameters.
+	 */
+	@Override
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+		return fetchEndPointAsync(pageUrl(url, page, pageSize));
+	}
+
+	@Override
+	public CompletableFuture<ConditionalResponse> fetchEndPointIfModifiedAsync(String url, String etag,
+			String lastModified) {
+		HttpRequest.Builder request = newRequestBuilder(url);
+		if (etag != null) {
+			request.header("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			request.header("If-Modified-Since", lastModified);
+		}
+		return this.client.sendAsync(request.build(), BodyHandlers.ofInputStream()).thenApply(response -> {
+			try {
+				HttpHeaders headers = response.headers();
+				InputStream body = null;
+				if (response.statusCode() == RESPONSE_NOT_MODIFIED) {
+					response.body().close();
+				} else {
+					body = checkResponse(response);
+				}
+				boolean noStore = headers.allValues("Cache-Control").stream()
+						.anyMatch(value -> value.toLowerCase().contains("no-store"));
+				return new ConditionalResponse(body, headers.firstValue("ETag").orElse(null),
+						headers.firstValue("Last-Modified").orElse(null), noStore,
+						ContentEncoding.decodedLength(headers));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<ConditionalResponse> fetchPageIfModifiedAsync(String url, int page, int pageSize,
+			String etag, String lastModified) {
+		return fetchEndPointIfModifiedAsync(pageUrl(url, page, pageSize), etag, lastModified);
+	}
+
+	/**
+	 * Fetches the body as bytes. Bodies up to SPILL_THRESHOLD are received into a
+	 * heap array. Larger ones are written to a temporary file as they arrive,
+	 * which is then mapped into memory and deleted, so they take no heap and may
+	 * be up to 2 GB. The mapping is released when the buffer is garbage collected.
+	 * Compressed bodies are received the same way, then inflated into a heap array
+	 * or another mapped file by the same rule.
+	 */
+	@Override
+	public CompletableFuture<ByteBuffer> fetchEndPointAsBufferAsync(String url) {
+		return this.client.sendAsync(newRequest(url), HttpGetClientImpl::bufferSubscriber).thenApply(response -> {
+			try {
+				ByteBuffer body = decode(response.headers(), response.body());
+				int statusCode = response.statusCode();
+				if (statusCode == RESPONSE_OK)
+					return body;
+				throw failedRequest(statusCode, StandardCharsets.UTF_8.decode(body).toString());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<ByteBuffer> fetchPageAsBufferAsync(String url, int page, int pageSize) {
+		return fetchEndPointAsBufferAsync(pageUrl(url, page, pageSize));
+	}
+
+	private static BodySubscriber<ByteBuffer> bufferSubscriber(ResponseInfo response) {
+		long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		if (response.statusCode() != RESPONSE_OK || (length >= 0 && length <= SPILL_THRESHOLD)) {
+			return BodySubscribers.mapping(BodySubscribers.ofByteArray(),
+					bytes -> ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+		}
+		try {
+			Path file = Files.createTempFile("debt-body", ".json");
+			BodySubscriber<ByteBuffer> mapped = BodySubscribers.mapping(BodySubscribers.ofFile(file),
+					HttpGetClientImpl::map);
+			return new SpillingSubscriber(mapped, file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Receives a body into a temporary file, which is mapped and deleted once the
+	 * body is complete, or deleted if the body fails, so a failed or cancelled
+	 * download leaves no file behind.
+	 */
+	private static final class SpillingSubscriber implements BodySubscriber<ByteBuffer> {
+		private final BodySubscriber<ByteBuffer> subscriber;
+		private final CompletionStage<ByteBuffer> body;
+
+		private SpillingSubscriber(BodySubscriber<ByteBuffer> subscriber, Path file) {
+			this.subscriber = subscriber;
+			this.body = subscriber.getBody().whenComplete((body, error) -> {
+				if (error != null) {
+					try {
+						Files.deleteIfExists(file);
+					} catch (IOException e) {
+						file.toFile().deleteOnExit();
+					}
+				}
+			});
+		}
+
+		@Override
+		public CompletionStage<ByteBuffer> getBody() {
+			return this.body;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscriber.onSubscribe(subscription);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> item) {
+			this.subscriber.onNext(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.subscriber.onError(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			this.subscriber.onComplete();
+		}
+	}
+
+	private static ByteBuffer decode(HttpHeaders headers, ByteBuffer body) throws IOException {
+		if (!ContentEncoding.isEncoded(headers)) {
+			return body;
+		}
+		try (InputStream in = ContentEncoding.decode(headers, new ByteBufferInputStream(body))) {
+			byte[] head = in.readNBytes((int) SPILL_THRESHOLD + 1);
+			if (head.length <= SPILL_THRESHOLD) {
+				return ByteBuffer.wrap(head).asReadOnlyBuffer();
+			}
+			Path file = Files.createTempFile("debt-body", ".json");
+			try (OutputStream out = Files.newOutputStream(file)) {
+				out.write(head);
+				in.transferTo(out);
+			} catch (IOException e) {
+				Files.deleteIfExists(file);
+				throw e;
+			}
+			return map(file);
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of a buffer, leaving the buffer unchanged.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer.duplicate();
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, this.buffer.remaining());
+			this.buffer.get(bytes, offset, count);
+			return count;
+		}
+	}
+
+	/**
+	 * Maps a spilled body into memory and deletes its file. The mapping outlives
+	 * the file where the platform allows it. Elsewhere the file is deleted on
+	 * exit.
+	 */
+	private static ByteBuffer map(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Response body of " + size + " bytes is too large to map");
+			}
+			return channel.map(MapMode.READ_ONLY, 0, size);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			try {
+				Files.delete(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Returns the URL of a page using the json-server _page and _limit query
+	 * parameters.
+	 */
+	static String pageUrl(String url, int page, int pageSize) {
+		String separator = url.indexOf('?') < 0 ? "?" : "&";
+		return url + separator + "_page=" + page + "&_limit=" + pageSize;
+	}
+
+	/**
+	 * Returns the body of a 200 response, or throws the same exception as the
+	 * fetch methods for any other status code.
+	 */
+	private InputStream checkResponse(HttpResponse<InputStream> response) throws IOException {
 		int statusCode = response.statusCode();
 		if (statusCode == RESPONSE_OK)
-			return response.body();
-		// TODO: It there was more time improve the error handling and use
-		// javax.ws.rs.core.Response status codes.
-		// Due to time limitations just throw an exception when response is not 200.
-		throw new RuntimeException(
-				"Failed request with response code: " + statusCode + " and message: " + response.body());
+			return ContentEncoding.decode(response.headers(), response.body());
+		try (InputStream body = ContentEncoding.decode(response.headers(), response.body())) {
+			throw failedRequest(statusCode, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private HttpRequest newRequest(String url) {
+		return newRequestBuilder(url).build();
+	}
+
+	/**
+	 * Returns a builder of a GET request to the url with the request timeout and
+	 * accepting compressed bodies, to add headers to.
+	 */
+	private HttpRequest.Builder newRequestBuilder(String url) {
+		return HttpRequest.newBuilder().uri(URI.create(url)).timeout(this.requestTimeout).header("Accept-Encoding",
+				ContentEncoding.ACCEPT_ENCODING);
+	}
+
+	private RuntimeException failedRequest(int statusCode, String body) {
+		return new HttpStatusException(statusCode, body);
 	}
 
 }
@@ -0,0 +1,34 @@
+package com.trueaccord.example;
+
+/**
+ * Thrown when an endpoint answers with a status code other than 200, so callers
+ * can tell a failure worth retrying, such as a 503, from one that is not.
+ * 
+ * @author mpcheng
+ */
+public class HttpStatusException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	/**
+	 * Constructor for the HttpStatusException.
+	 * 
+	 * @param statusCode - the status code of the response.
+	 * @param body       - the body of the response.
+	 */
+	public HttpStatusException(int statusCode, String body) {
+		super("Failed request with response code: " + statusCode + " and message: " + body);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * Returns the status code of the response.
+	 * 
+	 * @return the status code of the response.
+	 */
+	public int getStatusCode() {
+		return this.statusCode;
+	}
+}
@@ -0,0 +1,404 @@
+package com.trueaccord.example;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Map from int keys to non null values, with open addressing and linear
+ * probing over parallel arrays of keys and values, so a lookup with get(int)
+ * neither boxes the key nor follows a pointer per entry. Keys are spread with
+ * Fibonacci hashing, so the consecutive ids of the feeds are scattered evenly
+ * over the table rather than filling runs of slots which probes would cross.
+ * <p>
+ * The map is also a Map of Integer keys iterated in ascending key order. The
+ * order is not maintained on insertion but sorted when the map is first
+ * iterated after a change, so filling the map costs no more than a hash map
+ * and rendering it by id costs one sort of primitive longs. Removing an entry
+ * shifts the entries after it in its probe sequence back into the freed slot,
+ * so no tombstones are left to lengthen later probes. Not safe for concurrent
+ * updates, but safe to read from several threads once filled.
+ * 
+ * @author mpcheng
+ * @param <V> - the type of the values.
+ */
+public final class IntObjectMap<V> extends AbstractMap<Integer, V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int shift;
+	private int modCount;
+	/**
+	 * Slots of the entries in ascending key order, or null if not sorted since
+	 * the last insertion.
+	 */
+	private volatile int[] order;
+
+	/**
+	 * Constructor for an empty IntObjectMap.
+	 */
+	public IntObjectMap() {
+		this(DEFAULT_CAPACITY / 2);
+	}
+
+	/**
+	 * Constructor for an empty IntObjectMap holding the given number of entries
+	 * without growing.
+	 * 
+	 * @param expectedSize - the number of entries expected.
+	 */
+	public IntObjectMap(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Expected size cannot be negative: " + expectedSize);
+		}
+		// At most half full, to keep probe sequences short
+		int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY / 2, expectedSize) * 2 - 1) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Returns the value of a key.
+	 * 
+	 * @param key - the key.
+	 * @return the value of the key, or null if the key is not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int mask = this.keys.length - 1;
+		for (int slot = slotOf(key); this.values[slot] != null; slot = (slot + 1) & mask) {
+			if (this.keys[slot] == key) {
+				return (V) this.values[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the key is in the map.
+	 * 
+	 * @param key - the key.
+	 * @return true if the key is in the map.
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Sets the value of a key.
+	 * 
+	 * @param key   - the key.
+	 * @param value - the value, which cannot be null.
+	 * @return the previous value of the key, or null if it was not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not supported, key " + key);
+		}
+		int mask = this.keys.length - 1;
+		int slot = slotOf(key);
+		for (; this.values[slot] != null; slot = (slot + 1) & mask) {
+			if (this.keys[slot] == key) {
+				V previous = (V) this.values[slot];
+				this.values[slot] = value;
+				return previous;
+			}
+		}
+		this.keys[slot] = key;
+		this.values[slot] = value;
+		this.order = null;
+		this.modCount++;
+		if (++this.size > this.keys.length / 2) {
+			grow();
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a key.
+	 * 
+	 * @param key - the key.
+	 * @return the value of the key, or null if the key was not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int mask = this.keys.length - 1;
+		for (int slot = slotOf(key); this.values[slot] != null; slot = (slot + 1) & mask) {
+			if (this.keys[slot] == key) {
+				V previous = (V) this.values[slot];
+				removeSlot(slot, null, 0);
+				return previous;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the value of a key, setting it to a computed value first if the key
+	 * is not in the map.
+	 * 
+	 * @param key      - the key.
+	 * @param function - computes the value of a key not in the map.
+	 * @return the value of the key.
+	 */
+	public V computeIfAbsent(int key, Function<Integer, ? extends V> function) {
+		V value = get(key);
+		if (value == null) {
+			value = function.apply(key);
+			put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Hands every value to the action in no particular order, which unlike
+	 * iterating values() does not sort the entries.
+	 * 
+	 * @param action - the action to apply to each value.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<? super V> action) {
+		for (Object value : this.values) {
+			if (value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public V get(Object key) {
+		return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public V put(Integer key, V value) {
+		return put(key.intValue(), value);
+	}
+
+	@Override
+	public V remove(Object key) {
+		return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+	}
+
+	@Override
+	public void clear() {
+		allocate(this.keys.length);
+		this.size = 0;
+		this.order = null;
+		this.modCount++;
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new SortedIterator<V>() {
+					@Override
+					@SuppressWarnings("unchecked")
+					V at(int slot) {
+						return (V) IntObjectMap.this.values[slot];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return IntObjectMap.this.size;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, V>> entrySet() {
+		return new AbstractSet<Map.Entry<Integer, V>>() {
+			@Override
+			public Iterator<Map.Entry<Integer, V>> iterator() {
+				return new SortedIterator<Map.Entry<Integer, V>>() {
+					@Override
+					@SuppressWarnings("unchecked")
+					Map.Entry<Integer, V> at(int slot) {
+						return new SimpleImmutableEntry<Integer, V>(IntObjectMap.this.keys[slot],
+								(V) IntObjectMap.this.values[slot]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return IntObjectMap.this.size;
+			}
+		};
+	}
+
+	private int slotOf(int key) {
+		return (key * GOLDEN_RATIO) >>> this.shift;
+	}
+
+	private void allocate(int capacity) {
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.shift = Integer.numberOfLeadingZeros(capacity - 1);
+	}
+
+	private void grow() {
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		allocate(oldKeys.length * 2);
+		int mask = this.keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotOf(oldKeys[i]);
+				while (this.values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Empties a slot, then moves back each entry of the probe sequence after it
+	 * whose home slot is not between the gap and itself, so every entry stays
+	 * reachable from its home slot. The slots of the entries moved are updated in
+	 * order from the given index on, if an order is given.
+	 */
+	private void removeSlot(int slot, int[] order, int fromIndex) {
+		int mask = this.keys.length - 1;
+		int gap = slot;
+		for (int next = (gap + 1) & mask; this.values[next] != null; next = (next + 1) & mask) {
+			int home = slotOf(this.keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				if (order != null) {
+					int index = indexOf(order, fromIndex, this.keys[next]);
+					if (index >= 0) {
+						order[index] = gap;
+					}
+				}
+				this.keys[gap] = this.keys[next];
+				this.values[gap] = this.values[next];
+				gap = next;
+			}
+		}
+		this.values[gap] = null;
+		this.size--;
+		this.order = null;
+		this.modCount++;
+	}
+
+	/**
+	 * Returns the index of a key in order from the given index on, or -1 if it is
+	 * not there.
+	 */
+	private int indexOf(int[] order, int fromIndex, int key) {
+		int low = fromIndex;
+		int high = order.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleKey = this.keys[order[middle]];
+			if (middleKey < key) {
+				low = middle + 1;
+			} else if (middleKey > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the slots of the entries in ascending key order, sorting them if
+	 * the map changed since the last call.
+	 */
+	private int[] order() {
+		int[] order = this.order;
+		if (order != null) {
+			return order;
+		}
+		// The key in the high half and the slot in the low half sort by key
+		long[] keysAndSlots = new long[this.size];
+		int count = 0;
+		for (int slot = 0; slot < this.keys.length; slot++) {
+			if (this.values[slot] != null) {
+				keysAndSlots[count++] = ((long) this.keys[slot] << 32) | slot;
+			}
+		}
+		Arrays.sort(keysAndSlots);
+		order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = (int) keysAndSlots[i];
+		}
+		this.order = order;
+		return order;
+	}
+
+	/**
+	 * Iterates the entries in ascending key order. Removing an entry updates the
+	 * slots of the entries still to come that were moved back.
+	 */
+	private abstract class SortedIterator<T> implements Iterator<T> {
+
+		private int expectedModCount = IntObjectMap.this.modCount;
+		private final int[] order = order();
+		private int next;
+		private boolean removable;
+
+		abstract T at(int slot);
+
+		@Override
+		public boolean hasNext() {
+			return this.next < this.order.length;
+		}
+
+		@Override
+		public T next() {
+			if (this.expectedModCount != IntObjectMap.this.modCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			this.removable = true;
+			return at(this.order[this.next++]);
+		}
+
+		@Override
+		public void remove() {
+			if (!this.removable) {
+				throw new IllegalStateException();
+			}
+			if (this.expectedModCount != IntObjectMap.this.modCount) {
+				throw new ConcurrentModificationException();
+			}
+			// The order of the map, no longer used by it or other iterators once changed
+			removeSlot(this.order[this.next - 1], this.order, this.next);
+			this.removable = false;
+			this.expectedModCount = IntObjectMap.this.modCount;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.trueaccord.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Reads a top level JSON array of objects one record at a time. Unlike
+ * org.json.JSONArray, the array is never materialized, so only the record
+ * currently being processed is held in memory no matter how large the feed is.
+ * 
+ * @author mpcheng
+ */
+public class JsonArrayReader implements Closeable {
+
+	private final Reader reader;
+	private final JSONTokener tokener;
+
+	/**
+	 * Constructor for a JsonArrayReader over a UTF-8 encoded byte stream.
+	 * 
+	 * @param inputStream - the stream containing the JSON array.
+	 */
+	public JsonArrayReader(InputStream inputStream) {
+		this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Constructor for a JsonArrayReader over UTF-8 encoded bytes, such as a body
+	 * fetched with HttpGetClient.fetchEndPointAsBufferAsync. The bytes are
+	 * decoded a block at a time straight from the buffer, which is left
+	 * unchanged.
+	 * 
+	 * @param buffer - the bytes containing the JSON array.
+	 */
+	public JsonArrayReader(ByteBuffer buffer) {
+		this(new ByteBufferReader(buffer));
+	}
+
+	/**
+	 * Constructor for a JsonArrayReader over a character stream.
+	 * 
+	 * @param reader - the reader containing the JSON array.
+	 */
+	public JsonArrayReader(Reader reader) {
+		this.reader = reader;
+		this.tokener = new JSONTokener(reader);
+	}
+
+	/**
+	 * Reads every object of the array and hands them one at a time to the
+	 * consumer in the order they appear.
+	 * 
+	 * @param consumer - the consumer of each JSON object.
+	 * @return the number of objects read.
+	 * @throws JSONException if the input is not a JSON array of objects.
+	 */
+	public int forEach(Consumer<JSONObject> consumer) {
+		if (this.tokener.nextClean() != '[') {
+			throw this.tokener.syntaxError("A JSON array text must start with '['");
+		}
+		int count = 0;
+		if (this.tokener.nextClean() == ']') {
+			return count;
+		}
+		this.tokener.back();
+		while (true) {
+			consumer.accept(new JSONObject(this.tokener));
+			count++;
+			char c = this.tokener.nextClean();
+			if (c == ']') {
+				return count;
+			}
+			if (c != ',') {
+				throw this.tokener.syntaxError("Expected a ',' or ']'");
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+	/**
+	 * Reader decoding UTF-8 from a ByteBuffer, replacing malformed input like
+	 * InputStreamReader.
+	 */
+	private static final class ByteBufferReader extends Reader {
+		private static final int BLOCK_SIZE = 8192;
+
+		private final ByteBuffer bytes;
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE).flip();
+		private boolean flushed;
+
+		private ByteBufferReader(ByteBuffer bytes) {
+			this.bytes = bytes.duplicate();
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!this.chars.hasRemaining() && !fill()) {
+				return -1;
+			}
+			int count = Math.min(length, this.chars.remaining());
+			this.chars.get(buffer, offset, count);
+			return count;
+		}
+
+		private boolean fill() {
+			if (this.flushed) {
+				return false;
+			}
+			this.chars.clear();
+			this.decoder.decode(this.bytes, this.chars, true);
+			if (!this.bytes.hasRemaining()) {
+				this.decoder.flush(this.chars);
+				this.flushed = true;
+			}
+			this.chars.flip();
+			return this.chars.hasRemaining();
+		}
+
+		@Override
+		public void close() {
+			this.flushed = true;
+			this.chars.clear().flip();
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package com.trueaccord.example;
+
+import static com.trueaccord.example.AppConstants.AMOUNT;
+import static com.trueaccord.example.AppConstants.ID;
+import static com.trueaccord.example.AppConstants.IS_IN_PAYMENT_PLAN;
+import static com.trueaccord.example.AppConstants.NEXT_PAYMENT_DUE_DATE;
+import static com.trueaccord.example.AppConstants.REMAINING_AMOUNT;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes debts as JSON Lines. Each line is encoded straight into a reusable
+ * byte buffer which is only written to the underlying stream when full or
+ * flushed, so no intermediate objects are created per debt and the stream is
+ * not flushed per line. Every line has the fields id, amount,
+ * is_in_payment_plan, remaining_amount and next_payment_due_date, the last
+ * being null when there is no payment due. Numbers are written the same way as
+ * org.json.JSONObject writes them.
+ * 
+ * @author mpcheng
+ */
+public class JsonLinesWriter implements Closeable, Flushable {
+
+	/**
+	 * Default size of the buffer in bytes.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Number of debts rendered by each task of writeAll.
+	 */
+	public static final int RENDER_BATCH_SIZE = 4096;
+
+	private static final int MAX_BATCHES_IN_FLIGHT = 64;
+	private static final int MIN_BUFFER_SIZE = 16;
+	private static final byte[] ID_FIELD = ("{\"" + ID + "\":").getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] AMOUNT_FIELD = (",\"" + AMOUNT + "\":").getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] IS_IN_PAYMENT_PLAN_FIELD = (",\"" + IS_IN_PAYMENT_PLAN + "\":")
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] REMAINING_AMOUNT_FIELD = (",\"" + REMAINING_AMOUNT + "\":")
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NEXT_PAYMENT_DUE_DATE_FIELD = (",\"" + NEXT_PAYMENT_DUE_DATE + "\":")
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int position;
+
+	/**
+	 * Constructor for a JsonLinesWriter with the default buffer size.
+	 * 
+	 * @param out - the stream to write the lines to.
+	 */
+	public JsonLinesWriter(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor for a JsonLinesWriter.
+	 * 
+	 * @param out        - the stream to write the lines to.
+	 * @param bufferSize - the size of the buffer in bytes.
+	 */
+	public JsonLinesWriter(OutputStream out, int bufferSize) {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + ": " + bufferSize);
+		}
+		this.out = out;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Returns the debt as a JSON line string, without the line separator.
+	 * 
+	 * @param debt - the debt to write.
+	 * @return the debt as a JSON line string.
+	 */
+	public static String toJsonLine(Debt debt) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+		JsonLinesWriter writer = new JsonLinesWriter(out, 128);
+		try {
+			writer.writeDebt(debt);
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes the debt as a JSON line.
+	 * 
+	 * @param debt - the debt to write.
+	 * @throws IOException
+	 */
+	public void write(Debt debt) throws IOException {
+		writeDebt(debt);
+		writeByte('\n');
+	}
+
+	/**
+	 * Writes the debts as JSON lines in the order they are iterated, rendering
+	 * batches of RENDER_BATCH_SIZE debts on the executor while the previous
+	 * batches are written. At most a few dozen batches are rendered ahead of the
+	 * one being written, so the output is not held in memory at once.
+	 * 
+	 * @param debts    - the debts to write.
+	 * @param executor - the executor to render the batches on.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void writeAll(Collection<Debt> debts, Executor executor) throws IOException, InterruptedException {
+		if (debts.size() <= RENDER_BATCH_SIZE) {
+			for (Debt debt : debts) {
+				write(debt);
+			}
+			return;
+		}
+		Deque<CompletableFuture<ByteArrayOutputStream>> rendering = new ArrayDeque<CompletableFuture<ByteArrayOutputStream>>();
+		List<Debt> batch = new ArrayList<Debt>(RENDER_BATCH_SIZE);
+		for (Debt debt : debts) {
+			batch.add(debt);
+			if (batch.size() == RENDER_BATCH_SIZE) {
+				rendering.add(render(batch, executor));
+				batch = new ArrayList<Debt>(RENDER_BATCH_SIZE);
+				if (rendering.size() == MAX_BATCHES_IN_FLIGHT) {
+					writeRendered(rendering.poll());
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			rendering.add(render(batch, executor));
+		}
+		while (!rendering.isEmpty()) {
+			writeRendered(rendering.poll());
+		}
+	}
+
+	private static CompletableFuture<ByteArrayOutputStream> render(List<Debt> batch, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(batch.size() * 128);
+			JsonLinesWriter writer = new JsonLinesWriter(out, DEFAULT_BUFFER_SIZE / 4);
+			try {
+				for (Debt debt : batch) {
+					writer.write(debt);
+				}
+				writer.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out;
+		}, executor);
+	}
+
+	private void writeRendered(CompletableFuture<ByteArrayOutputStream> rendered)
+			throws IOException, InterruptedException {
+		ByteArrayOutputStream lines = EndpointReader.await(rendered);
+		flushBuffer();
+		lines.writeTo(this.out);
+	}
+
+	/**
+	 * Writes a JSON line from the fields of a debt.
+	 * 
+	 * @param id                 - the id of the debt.
+	 * @param amount             - the original amount of the debt.
+	 * @param isInPaymentPlan    - whether the debt is in a payment plan.
+	 * @param remainingAmount    - the remaining amount due on the debt.
+	 * @param nextPaymentDueDate - the next payment due date as an ISO 8601 date, or
+	 *                           null if there is none.
+	 * @throws IOException
+	 */
+	public void write(int id, BigDecimal amount, boolean isInPaymentPlan, BigDecimal remainingAmount,
+			String nextPaymentDueDate) throws IOException {
+		writeFields(id, amount, isInPaymentPlan, remainingAmount, nextPaymentDueDate);
+		writeByte('\n');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		this.out.close();
+	}
+
+	private void writeDebt(Debt debt) throws IOException {
+		writeFields(debt.getId(), debt.getAmount(), debt.isInPaymentPlan(), debt.getRemainingAmount(),
+				debt.getNextPaymentDueDate());
+	}
+
+	private void writeFields(int id, BigDecimal amount, boolean isInPaymentPlan, BigDecimal remainingAmount,
+			String nextPaymentDueDate) throws IOException {
+		writeBytes(ID_FIELD);
+		writeInt(id);
+		writeBytes(AMOUNT_FIELD);
+		writeNumber(amount);
+		writeBytes(IS_IN_PAYMENT_PLAN_FIELD);
+		writeBytes(isInPaymentPlan ? TRUE : FALSE);
+		writeBytes(REMAINING_AMOUNT_FIELD);
+		writeNumber(remainingAmount);
+		writeBytes(NEXT_PAYMENT_DUE_DATE_FIELD);
+		if (nextPaymentDueDate == null) {
+			writeBytes(NULL);
+		} else {
+			writeByte('"');
+			writeAscii(nextPaymentDueDate, 0, nextPaymentDueDate.length());
+			writeByte('"');
+		}
+		writeByte('}');
+	}
+
+	private void writeInt(int value) throws IOException {
+		if (value < 0) {
+			writeByte('-');
+		} else {
+			value = -value; // Work with negatives so Integer.MIN_VALUE doesn't overflow
+		}
+		if (this.position + 10 > this.buffer.length) {
+			flushBuffer();
+		}
+		int digits = 1;
+		for (int remaining = value / 10; remaining != 0; remaining /= 10) {
+			digits++;
+		}
+		int end = this.position + digits;
+		for (int i = end - 1; i >= this.position; i--) {
+			this.buffer[i] = (byte) ('0' - value % 10);
+			value /= 10;
+		}
+		this.position = end;
+	}
+
+	/**
+	 * Writes the number as org.json.JSONObject does, with trailing zeros of the
+	 * fraction removed.
+	 */
+	private void writeNumber(BigDecimal number) throws IOException {
+		if (number == null) {
+			writeBytes(NULL);
+			return;
+		}
+		String string = number.toString();
+		int end = string.length();
+		if (string.indexOf('.') > 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+			while (string.charAt(end - 1) == '0') {
+				end--;
+			}
+			if (string.charAt(end - 1) == '.') {
+				end--;
+			}
+		}
+		writeAscii(string, 0, end);
+	}
+
+	private void writeAscii(String string, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			writeByte(string.charAt(i));
+		}
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (this.position + bytes.length > this.buffer.length) {
+			flushBuffer();
+			if (bytes.length > this.buffer.length) {
+				this.out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+		this.position += bytes.length;
+	}
+
+	private void writeByte(int b) throws IOException {
+		if (this.position == this.buffer.length) {
+			flushBuffer();
+		}
+		this.buffer[this.position++] = (byte) b;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (this.position > 0) {
+			this.out.write(this.buffer, 0, this.position);
+			this.position = 0;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.trueaccord.example;
+
+import java.math.BigDecimal;
+
+/**
+ * Running total of money amounts kept as a long number of units at a fixed
+ * scale, such as micro units at scale 6, so adding a payment neither allocates
+ * nor rounds. Amounts with more decimals than the scale, or totals overflowing
+ * a long, switch the total to BigDecimal arithmetic for good, so the result is
+ * always exact.
+ * <p>
+ * Results are identical, in value and scale, to summing with BigDecimal
+ * starting from BigDecimal.ZERO: the scale of the total is the largest scale of
+ * the amounts added, as with BigDecimal.add. Totals may be read from several
+ * threads once no more amounts are added.
+ * 
+ * @author mpcheng
+ */
+public final class Money {
+
+	/**
+	 * Default scale, in micro units, enough for any amount in fractions of cents.
+	 */
+	public static final int DEFAULT_SCALE = 6;
+
+	/**
+	 * Largest scale supported, as 10^18 is the largest power of ten in a long.
+	 */
+	public static final int MAX_SCALE = 18;
+
+	/**
+	 * Marks an amount that cannot be represented in units.
+	 */
+	private static final long OUT_OF_RANGE = Long.MIN_VALUE;
+
+	private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i <= MAX_SCALE; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Immutable so concurrent readers of a total never see an amount with the
+	 * units of another.
+	 */
+	private static final class Operand {
+		private final BigDecimal amount;
+		private final long units;
+
+		private Operand(BigDecimal amount, long units) {
+			this.amount = amount;
+			this.units = units;
+		}
+	}
+
+	private final int scale;
+	private long units;
+	private int totalScale;
+	private BigDecimal exactTotal;
+	private Operand lastOperand;
+
+	/**
+	 * Constructor for a Money total of zero at the default scale.
+	 */
+	public Money() {
+		this(DEFAULT_SCALE);
+	}
+
+	/**
+	 * Constructor for a Money total of zero.
+	 * 
+	 * @param scale - the number of decimals kept in fixed point, from 0 to 18.
+	 */
+	public Money(int scale) {
+		if (scale < 0 || scale > MAX_SCALE) {
+			throw new IllegalArgumentException("Scale must be between 0 and " + MAX_SCALE + ": " + scale);
+		}
+		this.scale = scale;
+	}
+
+	/**
+	 * Returns the number of decimals kept in fixed point.
+	 * 
+	 * @return the number of decimals kept in fixed point.
+	 */
+	public int getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * Returns true while the total is kept in fixed point, false once it has
+	 * switched to BigDecimal.
+	 * 
+	 * @return true while the total is kept in fixed point.
+	 */
+	public boolean isFixedPoint() {
+		return this.exactTotal == null;
+	}
+
+	/**
+	 * Adds an amount to the total.
+	 * 
+	 * @param amount - the amount to add.
+	 */
+	public void add(BigDecimal amount) {
+		if (this.exactTotal == null) {
+			long amountUnits = toUnits(amount, this.scale);
+			if (amountUnits != OUT_OF_RANGE) {
+				long sum = this.units + amountUnits;
+				// Overflow only if both operands have the same sign, unlike the sum
+				if (((this.units ^ sum) & (amountUnits ^ sum)) >= 0) {
+					this.units = sum;
+					this.totalScale = Math.max(this.totalScale, amount.scale());
+					return;
+				}
+			}
+			this.exactTotal = toBigDecimal();
+		}
+		this.exactTotal = this.exactTotal.add(amount);
+	}
+
+	/**
+	 * Returns the total as a BigDecimal.
+	 * 
+	 * @return the total as a BigDecimal.
+	 */
+	public BigDecimal toBigDecimal() {
+		if (this.exactTotal != null) {
+			return this.exactTotal;
+		}
+		return BigDecimal.valueOf(this.units / POWERS_OF_TEN[this.scale - this.totalScale], this.totalScale);
+	}
+
+	/**
+	 * Returns the amount minus the total, as amount.subtract(toBigDecimal()) would.
+	 * 
+	 * @param amount - the amount to subtract the total from.
+	 * @return the amount minus the total.
+	 */
+	public BigDecimal subtractFrom(BigDecimal amount) {
+		if (this.exactTotal == null) {
+			long amountUnits = operandUnits(amount);
+			if (amountUnits != OUT_OF_RANGE) {
+				long difference = amountUnits - this.units;
+				// Overflow only if the operands have different signs, and the difference
+				// not the sign of the amount
+				if (((amountUnits ^ this.units) & (amountUnits ^ difference)) >= 0) {
+					int differenceScale = Math.max(amount.scale(), this.totalScale);
+					return BigDecimal.valueOf(difference / POWERS_OF_TEN[this.scale - differenceScale],
+							differenceScale);
+				}
+			}
+		}
+		return amount.subtract(toBigDecimal());
+	}
+
+	/**
+	 * Compares the total with an amount.
+	 * 
+	 * @param amount - the amount to compare with.
+	 * @return -1, 0 or 1 as the total is less than, equal to or greater than the
+	 *         amount.
+	 */
+	public int compareTo(BigDecimal amount) {
+		if (this.exactTotal == null) {
+			long amountUnits = operandUnits(amount);
+			if (amountUnits != OUT_OF_RANGE) {
+				return Long.compare(this.units, amountUnits);
+			}
+		}
+		return toBigDecimal().compareTo(amount);
+	}
+
+	@Override
+	public String toString() {
+		return toBigDecimal().toString();
+	}
+
+	/**
+	 * Returns toUnits of the amount, remembering it for the last amount as the
+	 * same amount, such as the amount to pay of a plan, is used over and over.
+	 */
+	private long operandUnits(BigDecimal amount) {
+		Operand operand = this.lastOperand;
+		if (operand == null || operand.amount != amount) {
+			operand = new Operand(amount, toUnits(amount, this.scale));
+			this.lastOperand = operand;
+		}
+		return operand.units;
+	}
+
+	/**
+	 * Returns the amount as a number of units at the scale, or OUT_OF_RANGE if it
+	 * has more decimals than the scale or does not fit in a long.
+	 */
+	private static long toUnits(BigDecimal amount, int scale) {
+		int shift = scale - amount.scale();
+		if (shift < 0 || shift > MAX_SCALE || amount.precision() > MAX_SCALE) {
+			return OUT_OF_RANGE;
+		}
+		long unscaled = amount.unscaledValue().longValue();
+		long power = POWERS_OF_TEN[shift];
+		long units = unscaled * power;
+		// The product fits if its high 64 bits only extend the sign of the low ones
+		if (Math.multiplyHigh(unscaled, power) != (units >> 63) || units == OUT_OF_RANGE) {
+			return OUT_OF_RANGE;
+		}
+		return units;
+	}
+}
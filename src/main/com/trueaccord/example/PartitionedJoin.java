@@ -0,0 +1,536 @@
+package com.trueaccord.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.trueaccord.example.PaymentPlan.Frequency;
+
+/**
+ * Joins debts, payment plans and payments too large to be held in memory at
+ * once, by spilling them to disk. Each record is appended to one of FAN_OUT
+ * partition files by the hash of its key: debts by id, and payment plans and
+ * payments by payment plan id. The join then runs partition by partition, so
+ * only the records of one partition are in memory at a time:
+ * <ol>
+ * <li>the payment plans of a partition are loaded and the payments of the same
+ * partition applied to them, and the resulting payment plans are spilled again
+ * by debt id;</li>
+ * <li>the debts of a partition are loaded, joined with the payment plans of the
+ * same partition and written sorted by id to a run file;</li>
+ * <li>the runs are merged, handing the debts out in id order.</li>
+ * </ol>
+ * A partition whose records would take more than the memory budget on the heap
+ * is split again into FAN_OUT partitions by other bits of the hash, until it
+ * fits. Payments and the payment plans joined with debts are read as a stream,
+ * so only payment plans and debts count against the budget. The debts handed
+ * out are the same as App.processDebts() would return, with payment plans
+ * keeping no payment history.
+ * <p>
+ * Records of each kind may be added on their own thread, but records of one
+ * kind from only one thread at a time.
+ * 
+ * @author mpcheng
+ */
+public class PartitionedJoin implements AutoCloseable {
+
+	/**
+	 * Number of partitions records are spilled to, and a partition too large for
+	 * the memory budget is split into.
+	 */
+	public static final int FAN_OUT = 16;
+
+	/**
+	 * Estimated bytes taken on the heap by the objects of a record, per byte of
+	 * the record spilled, by which partitions are checked against the memory
+	 * budget.
+	 */
+	static final int HEAP_BYTES_PER_SPILLED_BYTE = 8;
+
+	private static final int PARTITION_BITS = Integer.numberOfTrailingZeros(FAN_OUT);
+	private static final int MAX_DEPTH = Integer.SIZE / PARTITION_BITS - 1;
+	private static final int GOLDEN_RATIO = 0x9E3779B9;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final Frequency[] FREQUENCIES = Frequency.values();
+
+	private final Path directory;
+	private final long memoryBudget;
+	private final int moneyScale;
+	private final Partitions debts;
+	private final Partitions paymentPlans;
+	private final Partitions payments;
+	private int partitionsJoined;
+	private int partitionsSplit;
+	private int files;
+
+	/**
+	 * Constructor for the PartitionedJoin, spilling to a new directory which is
+	 * deleted on close.
+	 * 
+	 * @param spillDirectory - the directory to create the spill directory in.
+	 * @param memoryBudget   - the bytes the records of a partition may take on
+	 *                       the heap.
+	 * @param moneyScale     - the number of decimals payments are totaled with in
+	 *                       fixed point.
+	 * @throws IOException if the partition files cannot be created.
+	 */
+	public PartitionedJoin(Path spillDirectory, long memoryBudget, int moneyScale) throws IOException {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+		}
+		Files.createDirectories(spillDirectory);
+		this.directory = Files.createTempDirectory(spillDirectory, "debt-join");
+		this.memoryBudget = memoryBudget;
+		this.moneyScale = moneyScale;
+		this.debts = new Partitions("debts", 0);
+		this.paymentPlans = new Partitions("plans", 0);
+		this.payments = new Partitions("payments", 0);
+	}
+
+	/**
+	 * Adds a debt.
+	 * 
+	 * @param id     - the id of the debt.
+	 * @param amount - the original amount of the debt.
+	 * @throws UncheckedIOException if the debt cannot be spilled.
+	 */
+	public void addDebt(int id, BigDecimal amount) {
+		this.debts.add(id, out -> writeDecimal(out, amount));
+	}
+
+	/**
+	 * Adds a payment plan, with the payments already processed for it if any.
+	 * 
+	 * @param paymentPlan - the payment plan.
+	 * @throws UncheckedIOException if the payment plan cannot be spilled.
+	 */
+	public void addPaymentPlan(PaymentPlan paymentPlan) {
+		this.paymentPlans.add(paymentPlan.getId(), out -> writePaymentPlan(out, paymentPlan));
+	}
+
+	/**
+	 * Adds a payment.
+	 * 
+	 * @param paymentPlanId - the id of the payment plan paid.
+	 * @param epochDay      - the date of the payment as an epoch day.
+	 * @param amount        - the amount of the payment.
+	 * @throws UncheckedIOException if the payment cannot be spilled.
+	 */
+	public void addPayment(int paymentPlanId, int epochDay, BigDecimal amount) {
+		this.payments.add(paymentPlanId, out -> {
+			out.writeInt(epochDay);
+			writeDecimal(out, amount);
+		});
+	}
+
+	/**
+	 * Joins the records added and hands each debt to the consumer, in id order.
+	 * No more records may be added. A payment of an unknown payment plan, or a
+	 * payment plan of an unknown debt, fails the join before any debt is handed
+	 * out, as with App.processDebts().
+	 * 
+	 * @param consumer - the consumer of the debts.
+	 * @return the number of debts handed out.
+	 * @throws IOException if the partitions cannot be read or written.
+	 */
+	public long join(Consumer<Debt> consumer) throws IOException {
+		Path[] debtFiles = this.debts.finish();
+		Path[] paymentPlanFiles = this.paymentPlans.finish();
+		Path[] paymentFiles = this.payments.finish();
+		Path[] joinedPaymentPlanFiles;
+		try (Partitions paymentPlansByDebt = new Partitions("plans-by-debt", 0)) {
+			for (int partition = 0; partition < FAN_OUT; partition++) {
+				applyPayments(paymentPlanFiles[partition], paymentFiles[partition], 0, paymentPlansByDebt);
+			}
+			joinedPaymentPlanFiles = paymentPlansByDebt.finish();
+		}
+		List<Path> runs = new ArrayList<Path>();
+		for (int partition = 0; partition < FAN_OUT; partition++) {
+			joinDebts(debtFiles[partition], joinedPaymentPlanFiles[partition], 0, runs);
+		}
+		return merge(runs, consumer);
+	}
+
+	/**
+	 * Returns the number of partitions joined in memory, after splitting those
+	 * over the memory budget.
+	 * 
+	 * @return the number of partitions joined in memory.
+	 */
+	public int getPartitionsJoined() {
+		return this.partitionsJoined;
+	}
+
+	/**
+	 * Returns the number of partitions split for being over the memory budget.
+	 * 
+	 * @return the number of partitions split.
+	 */
+	public int getPartitionsSplit() {
+		return this.partitionsSplit;
+	}
+
+	/**
+	 * Deletes the spill directory and every file in it.
+	 */
+	@Override
+	public void close() {
+		this.debts.close();
+		this.paymentPlans.close();
+		this.payments.close();
+		try (Stream<Path> paths = Files.walk(this.directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		} catch (IOException e) {
+			// Left for the operating system to clean up
+		}
+	}
+
+	/**
+	 * Applies the payments of a partition to its payment plans, and spills them
+	 * by debt id.
+	 */
+	private void applyPayments(Path paymentPlanFile, Path paymentFile, int depth, Partitions paymentPlansByDebt)
+			throws IOException {
+		if (isOverBudget(paymentPlanFile) && depth < MAX_DEPTH) {
+			Path[] paymentPlanFiles = split(paymentPlanFile, depth + 1);
+			Path[] paymentFiles = split(paymentFile, depth + 1);
+			for (int partition = 0; partition < FAN_OUT; partition++) {
+				applyPayments(paymentPlanFiles[partition], paymentFiles[partition], depth + 1, paymentPlansByDebt);
+			}
+			return;
+		}
+		IntObjectMap<PaymentPlan> paymentPlans = new IntObjectMap<PaymentPlan>();
+		forEachRecord(paymentPlanFile, (key, in) -> paymentPlans.put(key, readPaymentPlan(in, key)));
+		forEachRecord(paymentFile, (key, in) -> {
+			PaymentPlan paymentPlan = paymentPlans.get(key);
+			if (paymentPlan == null) {
+				throw new RuntimeException("Unknown payment plan id " + key);
+			}
+			int epochDay = in.readInt();
+			paymentPlan.processPayment(epochDay, readDecimal(in));
+		});
+		paymentPlans.forEachValue(paymentPlan -> paymentPlansByDebt.add(paymentPlan.getDebtId(), out -> {
+			out.writeInt(paymentPlan.getId());
+			writePaymentPlan(out, paymentPlan);
+		}));
+		Files.delete(paymentPlanFile);
+		Files.delete(paymentFile);
+		this.partitionsJoined++;
+	}
+
+	/**
+	 * Joins the debts of a partition with their payment plans, and writes them
+	 * sorted by id to a new run.
+	 */
+	private void joinDebts(Path debtFile, Path paymentPlanFile, int depth, List<Path> runs) throws IOException {
+		if (isOverBudget(debtFile) && depth < MAX_DEPTH) {
+			Path[] debtFiles = split(debtFile, depth + 1);
+			Path[] paymentPlanFiles = split(paymentPlanFile, depth + 1);
+			for (int partition = 0; partition < FAN_OUT; partition++) {
+				joinDebts(debtFiles[partition], paymentPlanFiles[partition], depth + 1, runs);
+			}
+			return;
+		}
+		IntObjectMap<Debt> debts = new IntObjectMap<Debt>();
+		forEachRecord(debtFile, (key, in) -> debts.put(key, new Debt(key, readDecimal(in))));
+		forEachRecord(paymentPlanFile, (key, in) -> {
+			PaymentPlan paymentPlan = readPaymentPlan(in, in.readInt());
+			Debt debt = debts.get(key);
+			if (debt == null) {
+				throw new RuntimeException("Unknown debt id " + key + " from payment plan " + paymentPlan.getId());
+			}
+			debt.setPaymentPlan(paymentPlan);
+		});
+		Path run = newFile("run");
+		try (DataOutputStream out = newOutput(run)) {
+			for (Debt debt : debts.values()) {
+				out.writeInt(debt.getId());
+				writeDecimal(out, debt.getAmount());
+				PaymentPlan paymentPlan = debt.getPaymentPlan();
+				out.writeBoolean(paymentPlan != null);
+				if (paymentPlan != null) {
+					out.writeInt(paymentPlan.getId());
+					writePaymentPlan(out, paymentPlan);
+				}
+			}
+		}
+		runs.add(run);
+		Files.delete(debtFile);
+		Files.delete(paymentPlanFile);
+		this.partitionsJoined++;
+	}
+
+	/**
+	 * Merges the runs, each sorted by debt id, handing out the debts in id order.
+	 */
+	private long merge(List<Path> runs, Consumer<Debt> consumer) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, runs.size()),
+				Comparator.comparingInt(run -> run.debt.getId()));
+		try {
+			for (Path path : runs) {
+				Run run = new Run(path);
+				if (run.next()) {
+					queue.add(run);
+				} else {
+					run.close();
+				}
+			}
+			long count = 0;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				consumer.accept(run.debt);
+				count++;
+				if (run.next()) {
+					queue.add(run);
+				} else {
+					run.close();
+				}
+			}
+			return count;
+		} finally {
+			for (Run run : queue) {
+				run.close();
+			}
+		}
+	}
+
+	/**
+	 * Splits a partition file into FAN_OUT partitions by the hash bits of its keys
+	 * for the depth, and deletes it.
+	 */
+	private Path[] split(Path file, int depth) throws IOException {
+		Path[] files;
+		try (Partitions partitions = new Partitions("split", depth); DataInputStream in = newInput(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (hasRecord(in)) {
+				int key = in.readInt();
+				int length = in.readInt();
+				if (buffer.length < length) {
+					buffer = new byte[length];
+				}
+				in.readFully(buffer, 0, length);
+				partitions.write(key, buffer, length);
+			}
+			files = partitions.finish();
+		}
+		Files.delete(file);
+		this.partitionsSplit++;
+		return files;
+	}
+
+	private boolean isOverBudget(Path file) throws IOException {
+		return Files.size(file) > this.memoryBudget / HEAP_BYTES_PER_SPILLED_BYTE;
+	}
+
+	/**
+	 * Returns the partition of a key at a depth, from different bits of the hash
+	 * of the key at each depth.
+	 */
+	static int partitionOf(int key, int depth) {
+		return Integer.rotateLeft(key * GOLDEN_RATIO, depth * PARTITION_BITS) >>> (Integer.SIZE - PARTITION_BITS);
+	}
+
+	private synchronized Path newFile(String name) {
+		return this.directory.resolve(name + "-" + this.files++);
+	}
+
+	private static DataOutputStream newOutput(Path file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+	}
+
+	private static DataInputStream newInput(Path file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+	}
+
+	/**
+	 * Returns true if a record is left in a file. A record of a partition file is
+	 * its key, the length of its fields and its fields.
+	 */
+	private static boolean hasRecord(DataInputStream in) throws IOException {
+		in.mark(1);
+		if (in.read() < 0) {
+			return false;
+		}
+		in.reset();
+		return true;
+	}
+
+	private static void forEachRecord(Path file, RecordReader reader) throws IOException {
+		try (DataInputStream in = newInput(file)) {
+			while (hasRecord(in)) {
+				int key = in.readInt();
+				in.readInt();
+				reader.read(key, in);
+			}
+		}
+	}
+
+	/**
+	 * Writes the terms of a payment plan, and its amount paid and last payment
+	 * date if it has payments, but not its id.
+	 */
+	private static void writePaymentPlan(DataOutputStream out, PaymentPlan paymentPlan) throws IOException {
+		out.writeInt(paymentPlan.getDebtId());
+		writeDecimal(out, paymentPlan.getAmountToPay());
+		writeDecimal(out, paymentPlan.getInstallmentAmount());
+		out.writeByte(paymentPlan.getFrequency().ordinal());
+		out.writeInt(paymentPlan.getStartEpochDay());
+		out.writeInt(paymentPlan.getLastPaymentEpochDay());
+		if (paymentPlan.getLastPaymentEpochDay() != DateCodec.NO_DATE) {
+			writeDecimal(out, paymentPlan.getAmountPaid());
+		}
+	}
+
+	/**
+	 * Reads a payment plan written by writePaymentPlan, with its payments as a
+	 * single payment, as DebtSnapshot.toDebt.
+	 */
+	private PaymentPlan readPaymentPlan(DataInputStream in, int id) throws IOException {
+		PaymentPlan paymentPlan = new PaymentPlan(id, in.readInt(), readDecimal(in), readDecimal(in),
+				FREQUENCIES[in.readByte()], in.readInt(), false, this.moneyScale);
+		int lastPaymentEpochDay = in.readInt();
+		if (lastPaymentEpochDay != DateCodec.NO_DATE) {
+			paymentPlan.processPayment(lastPaymentEpochDay, readDecimal(in));
+		}
+		return paymentPlan;
+	}
+
+	private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+		out.writeUTF(value.toString());
+	}
+
+	private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+		return new BigDecimal(in.readUTF());
+	}
+
+	/**
+	 * Writes the fields of a record.
+	 */
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Reads the fields of a record with the given key.
+	 */
+	private interface RecordReader {
+		void read(int key, DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * Records of one kind, appended to FAN_OUT partition files by the hash of
+	 * their key.
+	 */
+	private final class Partitions implements Closeable {
+		private final int depth;
+		private final Path[] files = new Path[FAN_OUT];
+		private final DataOutputStream[] outputs = new DataOutputStream[FAN_OUT];
+		private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+		private final DataOutputStream recordOutput = new DataOutputStream(this.record);
+
+		Partitions(String name, int depth) throws IOException {
+			this.depth = depth;
+			try {
+				for (int partition = 0; partition < FAN_OUT; partition++) {
+					this.files[partition] = newFile(name);
+					this.outputs[partition] = newOutput(this.files[partition]);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		void add(int key, RecordWriter writer) {
+			try {
+				this.record.reset();
+				writer.write(this.recordOutput);
+				write(key, this.record.toByteArray(), this.record.size());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void write(int key, byte[] fields, int length) throws IOException {
+			DataOutputStream out = this.outputs[partitionOf(key, this.depth)];
+			if (out == null) {
+				throw new IllegalStateException("Records can no longer be added");
+			}
+			out.writeInt(key);
+			out.writeInt(length);
+			out.write(fields, 0, length);
+		}
+
+		/**
+		 * Flushes and closes the partition files, and returns them.
+		 */
+		Path[] finish() throws IOException {
+			for (int partition = 0; partition < FAN_OUT; partition++) {
+				if (this.outputs[partition] != null) {
+					this.outputs[partition].close();
+					this.outputs[partition] = null;
+				}
+			}
+			return this.files;
+		}
+
+		@Override
+		public void close() {
+			for (int partition = 0; partition < FAN_OUT; partition++) {
+				if (this.outputs[partition] != null) {
+					try {
+						this.outputs[partition].close();
+					} catch (IOException e) {
+						// The files are deleted with the spill directory
+					}
+					this.outputs[partition] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A run of joined debts sorted by id, read one debt at a time.
+	 */
+	private final class Run implements Closeable {
+		private final DataInputStream in;
+		private Debt debt;
+
+		Run(Path file) throws IOException {
+			this.in = newInput(file);
+		}
+
+		/**
+		 * Reads the next debt of the run, returning false at the end of the run.
+		 */
+		boolean next() throws IOException {
+			if (!hasRecord(this.in)) {
+				return false;
+			}
+			this.debt = new Debt(this.in.readInt(), readDecimal(this.in));
+			if (this.in.readBoolean()) {
+				this.debt.setPaymentPlan(readPaymentPlan(this.in, this.in.readInt()));
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
+}
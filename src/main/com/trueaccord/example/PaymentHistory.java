@@ -0,0 +1,113 @@
+package com.trueaccord.example;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact, append only history of the payments of a payment plan. Payments are
+ * stored column by column in growable primitive arrays: the epoch day as an
+ * int, and the amount as the unscaled long value and scale of its BigDecimal.
+ * A payment takes 13 bytes instead of a Payment object holding a Date and a
+ * BigDecimal, and amounts come back with the exact value and scale they were
+ * added with. The rare amounts whose unscaled value does not fit in a long, or
+ * whose scale does not fit in a byte, are kept as BigDecimal on the side.
+ * <p>
+ * Not thread safe, like the payment plan it belongs to.
+ * 
+ * @author mpcheng
+ */
+final class PaymentHistory {
+
+	private static final int INITIAL_CAPACITY = 4;
+	private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+	private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+	private int[] epochDays = new int[INITIAL_CAPACITY];
+	private long[] unscaledAmounts = new long[INITIAL_CAPACITY];
+	private byte[] scales = new byte[INITIAL_CAPACITY];
+	private Map<Integer, BigDecimal> largeAmounts;
+	private int size;
+
+	/**
+	 * Appends a payment to the history.
+	 * 
+	 * @param epochDay - the date the payment was made as an epoch day.
+	 * @param amount   - the amount of the payment.
+	 */
+	void add(int epochDay, BigDecimal amount) {
+		if (this.size == this.epochDays.length) {
+			int capacity = this.size + (this.size >> 1);
+			this.epochDays = Arrays.copyOf(this.epochDays, capacity);
+			this.unscaledAmounts = Arrays.copyOf(this.unscaledAmounts, capacity);
+			this.scales = Arrays.copyOf(this.scales, capacity);
+		}
+		this.epochDays[this.size] = epochDay;
+		if (fitsColumns(amount)) {
+			this.unscaledAmounts[this.size] = amount.unscaledValue().longValue();
+			this.scales[this.size] = (byte) amount.scale();
+		} else {
+			if (this.largeAmounts == null) {
+				this.largeAmounts = new HashMap<Integer, BigDecimal>();
+			}
+			this.largeAmounts.put(this.size, amount);
+		}
+		this.size++;
+	}
+
+	/**
+	 * Returns the number of payments in the history.
+	 * 
+	 * @return the number of payments in the history.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the date of a payment as an epoch day.
+	 * 
+	 * @param index - the index of the payment, in the order they were added.
+	 * @return the date of the payment as an epoch day.
+	 */
+	int getEpochDay(int index) {
+		checkIndex(index);
+		return this.epochDays[index];
+	}
+
+	/**
+	 * Returns the amount of a payment, with the scale it was added with.
+	 * 
+	 * @param index - the index of the payment, in the order they were added.
+	 * @return the amount of the payment.
+	 */
+	BigDecimal getAmount(int index) {
+		checkIndex(index);
+		if (this.largeAmounts != null) {
+			BigDecimal amount = this.largeAmounts.get(index);
+			if (amount != null) {
+				return amount;
+			}
+		}
+		return BigDecimal.valueOf(this.unscaledAmounts[index], this.scales[index]);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+	}
+
+	private static boolean fitsColumns(BigDecimal amount) {
+		if (amount.scale() < Byte.MIN_VALUE || amount.scale() > Byte.MAX_VALUE) {
+			return false;
+		}
+		if (amount.precision() < 19) {
+			return true; // At most 18 digits always fits
+		}
+		BigInteger unscaled = amount.unscaledValue();
+		return unscaled.compareTo(LONG_MIN) >= 0 && unscaled.compareTo(LONG_MAX) <= 0;
+	}
+}
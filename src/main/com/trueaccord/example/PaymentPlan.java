@@ -1,17 +1,19 @@
 package com.trueaccord.example;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Calendar;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.CRC32;
 
 /**
  * Represents a payment plan. Each payment plan is associated with exactly one
  * Debt.
  * 
  * @author mpcheng
- *
+ * 
  */
 public class PaymentPlan {
 
@@ -24,21 +26,23 @@ public class PaymentPlan {
 		WEEKLY, BI_WEEKLY
 	}
 
-	private static final int maxPossibleInstallments = 10000;
 	private final int id;
 	private final int debtId;
 	private final BigDecimal amountToPay;
 	private final BigDecimal installmentAmount;
 	private final Frequency frequency;
-	private final Date startDate;
-	private final List<Payment> payments;
+	private final int startEpochDay;
+	private final PaymentHistory payments;
+	private final Money amountPaid;
+	private int lastPaymentEpochDay;
 
 	/**
-	 * Inner class that represents payments made to the payment plan.
+	 * Nested class that represents payments made to the payment plan. Payments
+	 * are kept in a compact PaymentHistory and only created when read.
 	 * 
 	 * @author mpcheng
 	 */
-	class Payment {
+	public static class Payment {
 		private final Date paymentDate;
 		private final BigDecimal amountPaid;
 
@@ -78,14 +82,77 @@ public class PaymentPlan {
 	 */
 	public PaymentPlan(int id, int debtId, BigDecimal amountToPay, BigDecimal installmentAmount, Frequency frequency,
 			Date startDate) {
+		this(id, debtId, amountToPay, installmentAmount, frequency, startDate, false);
+	}
+
+	/**
+	 * Represents a payment plan, optionally keeping every processed payment as an
+	 * audit history. The remaining amount and last payment date never depend on
+	 * the history, so it is only worth keeping when the payments need to be
+	 * inspected.
+	 * 
+	 * @param id                 - the payment plan id.
+	 * @param debtId             - the associated debt id.
+	 * @param amountToPay        - the amount to pay for the debt to be forgiven.
+	 * @param installmentAmount  - the installment amount.
+	 * @param frequency          - the frequency of payments.
+	 * @param startDate          - the start date of the payment plan.
+	 * @param keepPaymentHistory - true to keep each processed payment.
+	 */
+	public PaymentPlan(int id, int debtId, BigDecimal amountToPay, BigDecimal installmentAmount, Frequency frequency,
+			Date startDate, boolean keepPaymentHistory) {
+		this(id, debtId, amountToPay, installmentAmount, frequency, DateCodec.toEpochDay(startDate),
+				keepPaymentHistory);
+	}
+
+	/**
+	 * Represents a payment plan starting on the given epoch day.
+	 * 
+	 * @param id                 - the payment plan id.
+	 * @param debtId             - the associated debt id.
+	 * @param amountToPay        - the amount to pay for the debt to be forgiven.
+	 * @param installmentAmount  - the installment amount.
+	 * @param frequency          - the frequency of payments.
+	 * @param startEpochDay      - the start date of the payment plan as an epoch
+	 *                           day.
+	 * @param keepPaymentHistory - true to keep each processed payment.
+	 * @see DateCodec
+	 */
+	public PaymentPlan(int id, int debtId, BigDecimal amountToPay, BigDecimal installmentAmount, Frequency frequency,
+			int startEpochDay, boolean keepPaymentHistory) {
+		this(id, debtId, amountToPay, installmentAmount, frequency, startEpochDay, keepPaymentHistory,
+				Money.DEFAULT_SCALE);
+	}
+
+	/**
+	 * Represents a payment plan starting on the given epoch day, totaling its
+	 * payments in fixed point at the given scale. Amounts with more decimals than
+	 * the scale are still totaled exactly, only more slowly.
+	 * 
+	 * @param id                 - the payment plan id.
+	 * @param debtId             - the associated debt id.
+	 * @param amountToPay        - the amount to pay for the debt to be forgiven.
+	 * @param installmentAmount  - the installment amount.
+	 * @param frequency          - the frequency of payments.
+	 * @param startEpochDay      - the start date of the payment plan as an epoch
+	 *                           day.
+	 * @param keepPaymentHistory - true to keep each processed payment.
+	 * @param moneyScale         - the number of decimals of the payments totaled in
+	 *                           fixed point.
+	 * @see Money
+	 */
+	public PaymentPlan(int id, int debtId, BigDecimal amountToPay, BigDecimal installmentAmount, Frequency frequency,
+			int startEpochDay, boolean keepPaymentHistory, int moneyScale) {
 		super();
 		this.id = id;
 		this.debtId = debtId;
 		this.amountToPay = amountToPay;
 		this.installmentAmount = installmentAmount;
 		this.frequency = frequency;
-		this.startDate = startDate;
-		this.payments = new ArrayList<PaymentPlan.Payment>();
+		this.startEpochDay = startEpochDay;
+		this.payments = keepPaymentHistory ? new PaymentHistory() : null;
+		this.amountPaid = new Money(moneyScale);
+		this.lastPaymentEpochDay = DateCodec.NO_DATE;
 	}
 
 	/**
@@ -139,22 +206,51 @@ public class PaymentPlan {
 	 * @return the frequency as number of days as an int.
 	 */
 	public int getFrequencyInDays() {
-		switch (this.frequency) {
+		return getFrequencyInDays(this.frequency);
+	}
+
+	static int getFrequencyInDays(Frequency frequency) {
+		switch (frequency) {
 		case WEEKLY:
 			return 7;
 		case BI_WEEKLY:
 			return 14;
 		}
-		throw new RuntimeException("Unknown frequency type: " + this.frequency);
+		throw new RuntimeException("Unknown frequency type: " + frequency);
 	}
 
 	/**
-	 * Returns the start date of the payment plan.
+	 * Returns a hash of the terms of the payment plan: its ids, amounts, frequency
+	 * and start date. The hash is the same from one run to the next, so it can be
+	 * persisted to tell whether the terms changed.
+	 * 
+	 * @return a hash of the terms of the payment plan.
+	 */
+	public int getTermsHash() {
+		String terms = this.id + "," + this.debtId + "," + this.amountToPay + "," + this.installmentAmount + ","
+				+ this.frequency + "," + this.startEpochDay;
+		CRC32 crc = new CRC32();
+		crc.update(terms.getBytes(StandardCharsets.US_ASCII));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Returns the start date of the payment plan, at the start of the day in the
+	 * default time zone.
 	 * 
 	 * @return the start date of the payment plan.
 	 */
 	public Date getStartDate() {
-		return startDate;
+		return DateCodec.toDate(this.startEpochDay);
+	}
+
+	/**
+	 * Returns the start date of the payment plan as an epoch day.
+	 * 
+	 * @return the start date of the payment plan as an epoch day.
+	 */
+	public int getStartEpochDay() {
+		return this.startEpochDay;
 	}
 
 	/**
@@ -163,11 +259,25 @@ public class PaymentPlan {
 	 * @return the remaining amount due on the debt as a BigDecimal.
 	 */
 	public BigDecimal getRemainingAmount() {
-		BigDecimal remainingAmount = this.amountToPay.add(BigDecimal.ZERO);// Copy the amount to pay
-		for (Payment payment : payments) {
-			remainingAmount = remainingAmount.subtract(payment.getAmountPaid());
-		}
-		return remainingAmount;
+		return this.amountPaid.subtractFrom(this.amountToPay);
+	}
+
+	/**
+	 * Returns true if nothing remains to be paid on the debt.
+	 * 
+	 * @return true if nothing remains to be paid on the debt.
+	 */
+	public boolean isPaidOff() {
+		return this.amountPaid.compareTo(this.amountToPay) >= 0;
+	}
+
+	/**
+	 * Returns the total amount paid so far as a BigDecimal.
+	 * 
+	 * @return the total amount paid so far as a BigDecimal.
+	 */
+	public BigDecimal getAmountPaid() {
+		return this.amountPaid.toBigDecimal();
 	}
 
 	/**
@@ -176,16 +286,46 @@ public class PaymentPlan {
 	 * @Date the last payment date. Returns null if no payments were made.
 	 */
 	public Date getLastPaymentDate() {
-		if (payments.isEmpty()) {
+		if (this.lastPaymentEpochDay == DateCodec.NO_DATE) {
 			return null;
 		}
-		long lastPayment = 0;
-		for (Payment payment : payments) {
-			if (payment.getPaymentDate().getTime() > lastPayment) {
-				lastPayment = payment.getPaymentDate().getTime();
-			}
+		return DateCodec.toDate(this.lastPaymentEpochDay);
+	}
+
+	/**
+	 * Returns the last payment date as an epoch day. Returns DateCodec.NO_DATE if
+	 * no payments were made.
+	 * 
+	 * @return the last payment date as an epoch day.
+	 */
+	public int getLastPaymentEpochDay() {
+		return this.lastPaymentEpochDay;
+	}
+
+	/**
+	 * Returns the payments processed for this payment plan in the order they were
+	 * processed. Always empty unless the payment plan was created to keep its
+	 * payment history. Each Payment is created when read, at the start of its
+	 * day in the default time zone.
+	 * 
+	 * @return an unmodifiable view of the payments processed.
+	 */
+	public List<Payment> getPayments() {
+		PaymentHistory history = this.payments;
+		if (history == null) {
+			return Collections.emptyList();
 		}
-		return new Date(lastPayment);
+		return new AbstractList<Payment>() {
+			@Override
+			public Payment get(int index) {
+				return new Payment(DateCodec.toDate(history.getEpochDay(index)), history.getAmount(index));
+			}
+
+			@Override
+			public int size() {
+				return history.size();
+			}
+		};
 	}
 
 	/**
@@ -200,34 +340,66 @@ public class PaymentPlan {
 	 *         off.
 	 */
 	public Date getNextPaymentDueDate() {
-		if (getRemainingAmount().doubleValue() <= 0.0) {
+		int nextPaymentDueEpochDay = getNextPaymentDueEpochDay();
+		if (nextPaymentDueEpochDay == DateCodec.NO_DATE) {
 			return null;
 		}
-		Calendar calendar = Calendar.getInstance();
-		calendar.setTime(this.startDate);
-		calendar.add(Calendar.DAY_OF_YEAR, getFrequencyInDays()); // Earliest is first install period
+		return DateCodec.toDate(nextPaymentDueEpochDay);
+	}
 
-		if (payments.isEmpty() || getLastPaymentDate() == null) {
-			return calendar.getTime();
+	/**
+	 * Returns the next payment due date as an epoch day, as described by
+	 * getNextPaymentDueDate.
+	 * 
+	 * @return the next payment due date as an epoch day. Returns DateCodec.NO_DATE
+	 *         if the debt has been paid off.
+	 */
+	public int getNextPaymentDueEpochDay() {
+		if (isPaidOff()) {
+			return DateCodec.NO_DATE;
 		}
-		long lastPaymentDateTime = getLastPaymentDate().getTime();
+		return getNextInstallmentEpochDay(this.startEpochDay, getFrequencyInDays(), this.lastPaymentEpochDay);
+	}
 
-		for (int i = 0; i < maxPossibleInstallments; i++) {
-			if (calendar.getTime().getTime() > lastPaymentDateTime) {
-				return calendar.getTime();
-			}
-			calendar.add(Calendar.DAY_OF_YEAR, getFrequencyInDays());
+	/**
+	 * Returns the first installment after the last payment, the next payment due
+	 * date of a plan not paid off.
+	 */
+	static int getNextInstallmentEpochDay(int startEpochDay, int frequencyInDays, int lastPaymentEpochDay) {
+		int nextPaymentDueEpochDay = startEpochDay + frequencyInDays; // Earliest is first install period
+		if (lastPaymentEpochDay >= nextPaymentDueEpochDay) {
+			// Skip every installment on or before the last payment
+			int installmentsPassed = (lastPaymentEpochDay - nextPaymentDueEpochDay) / frequencyInDays + 1;
+			nextPaymentDueEpochDay += installmentsPassed * frequencyInDays;
 		}
-		throw new RuntimeException("Exceeded the max possible number of installments of :" + maxPossibleInstallments);
+		return nextPaymentDueEpochDay;
 	}
 
 	/**
-	 * Processes a payment for the payment plan.
+	 * Processes a payment for the payment plan, updating the running amount paid
+	 * and last payment date.
 	 * 
 	 * @param date   - the date the payment was made.
 	 * @param amount - the amount of the payment is for.
 	 */
 	public void processPayment(Date date, BigDecimal amount) {
-		this.payments.add(new Payment(date, amount));
+		processPayment(DateCodec.toEpochDay(date), amount);
+	}
+
+	/**
+	 * Processes a payment made on the given epoch day for the payment plan,
+	 * updating the running amount paid and last payment date.
+	 * 
+	 * @param epochDay - the date the payment was made as an epoch day.
+	 * @param amount   - the amount of the payment is for.
+	 */
+	public void processPayment(int epochDay, BigDecimal amount) {
+		this.amountPaid.add(amount);
+		if (epochDay > this.lastPaymentEpochDay) {
+			this.lastPaymentEpochDay = epochDay;
+		}
+		if (this.payments != null) {
+			this.payments.add(epochDay, amount);
+		}
 	}
-}
+}
\ No newline at end of file
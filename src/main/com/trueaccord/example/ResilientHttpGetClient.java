@@ -0,0 +1,457 @@
+package com.trueaccord.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Decorates a HttpGetClient to retry failed GET requests with exponential
+ * backoff and full jitter, and optionally to hedge slow ones: when a response
+ * has not arrived after the hedge delay, the same request is sent again and the
+ * first response to arrive is used, the other being closed. Retries and hedges
+ * are only attempted for failures worth it, that is I/O errors, timeouts, 408,
+ * 429 and 5xx responses, and only until a response body is handed out: a
+ * failure while reading a streamed body is up to the caller.
+ * <p>
+ * Each endpoint, the URL without its query string so the pages of an endpoint
+ * share it, has a budget for the extra requests sent as retries and hedges: a
+ * minimum plus a share of the requests made, so a failing endpoint cannot be
+ * flooded with retries. Each endpoint also counts its requests, retries,
+ * hedges and failures.
+ * 
+ * @author mpcheng
+ */
+public class ResilientHttpGetClient implements HttpGetClient {
+
+	/**
+	 * Default number of attempts of a request, the first one included.
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/**
+	 * Default upper bound of the backoff before the first retry.
+	 */
+	public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(100);
+
+	/**
+	 * Default upper bound of the backoff before any retry.
+	 */
+	public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(2);
+
+	/**
+	 * Default number of retries and hedges each endpoint is allowed in any case.
+	 */
+	public static final int DEFAULT_MIN_BUDGET = 10;
+
+	/**
+	 * Default number of retries and hedges each endpoint is allowed per request.
+	 */
+	public static final double DEFAULT_BUDGET_RATIO = 0.2;
+
+	private final HttpGetClient client;
+	private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<String, EndpointStats>();
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+	private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+	private Duration hedgeDelay;
+	private int minBudget = DEFAULT_MIN_BUDGET;
+	private double budgetRatio = DEFAULT_BUDGET_RATIO;
+
+	/**
+	 * Constructor for the ResilientHttpGetClient with the default policy, which
+	 * retries but does not hedge.
+	 * 
+	 * @param client - the client sending the requests.
+	 */
+	public ResilientHttpGetClient(HttpGetClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Sets the number of attempts of a request, the first one included.
+	 * 
+	 * @param maxAttempts - the number of attempts, 1 to never retry.
+	 * @return this client.
+	 */
+	public ResilientHttpGetClient setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("At least one attempt is required: " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * Sets the backoff before retries. The backoff before retry n is a random
+	 * delay up to initialBackoff * 2^(n - 1), capped at maxBackoff.
+	 * 
+	 * @param initialBackoff - the upper bound of the backoff before the first
+	 *                       retry.
+	 * @param maxBackoff     - the upper bound of the backoff before any retry.
+	 * @return this client.
+	 */
+	public ResilientHttpGetClient setBackoff(Duration initialBackoff, Duration maxBackoff) {
+		if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+			throw new IllegalArgumentException("Invalid backoff: " + initialBackoff + " to " + maxBackoff);
+		}
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		return this;
+	}
+
+	/**
+	 * Sets the delay after which a request still without a response is sent
+	 * again.
+	 * 
+	 * @param hedgeDelay - the delay before hedging, or null to never hedge.
+	 * @return this client.
+	 */
+	public ResilientHttpGetClient setHedgeDelay(Duration hedgeDelay) {
+		if (hedgeDelay != null && hedgeDelay.isNegative()) {
+			throw new IllegalArgumentException("Hedge delay cannot be negative: " + hedgeDelay);
+		}
+		this.hedgeDelay = hedgeDelay;
+		return this;
+	}
+
+	/**
+	 * Sets the budget of each endpoint for retries and hedges: minBudget plus
+	 * budgetRatio times the number of requests made to the endpoint.
+	 * 
+	 * @param minBudget   - the retries and hedges allowed in any case.
+	 * @param budgetRatio - the retries and hedges allowed per request.
+	 * @return this client.
+	 */
+	public ResilientHttpGetClient setBudget(int minBudget, double budgetRatio) {
+		if (minBudget < 0 || budgetRatio < 0) {
+			throw new IllegalArgumentException("Budget cannot be negative: " + minBudget + ", " + budgetRatio);
+		}
+		this.minBudget = minBudget;
+		this.budgetRatio = budgetRatio;
+		return this;
+	}
+
+	/**
+	 * Returns the counters of an endpoint.
+	 * 
+	 * @param url - the URL of the endpoint, with or without a query string.
+	 * @return the counters of the endpoint, all zero if it was never requested.
+	 */
+	public EndpointStats getStats(String url) {
+		EndpointStats stats = this.endpoints.get(endpointOf(url));
+		return stats != null ? stats : new EndpointStats();
+	}
+
+	/**
+	 * Returns the counters of every endpoint requested, by endpoint.
+	 * 
+	 * @return the counters of every endpoint requested.
+	 */
+	public Map<String, EndpointStats> getStats() {
+		return Collections.unmodifiableMap(new TreeMap<String, EndpointStats>(this.endpoints));
+	}
+
+	@Override
+	public String fetchEndPoint(String url) throws IOException, InterruptedException {
+		try (InputStream body = fetchEndPointAsStream(url)) {
+			return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException {
+		return EndpointReader.await(fetchEndPointAsync(url));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+		return fetch(url, () -> this.client.fetchEndPointAsync(url), ResilientHttpGetClient::close);
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+		return fetch(url, () -> this.client.fetchPageAsync(url, page, pageSize), ResilientHttpGetClient::close);
+	}
+
+	@Override
+	public CompletableFuture<ByteBuffer> fetchEndPointAsBufferAsync(String url) {
+		return fetch(url, () -> this.client.fetchEndPointAsBufferAsync(url), buffer -> {
+		});
+	}
+
+	@Override
+	public CompletableFuture<ByteBuffer> fetchPageAsBufferAsync(String url, int page, int pageSize) {
+		return fetch(url, () -> this.client.fetchPageAsBufferAsync(url, page, pageSize), buffer -> {
+		});
+	}
+
+	@Override
+	public CompletableFuture<ConditionalResponse> fetchEndPointIfModifiedAsync(String url, String etag,
+			String lastModified) {
+		return fetch(url, () -> this.client.fetchEndPointIfModifiedAsync(url, etag, lastModified),
+				ResilientHttpGetClient::close);
+	}
+
+	@Override
+	public CompletableFuture<ConditionalResponse> fetchPageIfModifiedAsync(String url, int page, int pageSize,
+			String etag, String lastModified) {
+		return fetch(url, () -> this.client.fetchPageIfModifiedAsync(url, page, pageSize, etag, lastModified),
+				ResilientHttpGetClient::close);
+	}
+
+	/**
+	 * Sends a request, retrying and hedging it as the policy allows.
+	 * 
+	 * @param url     - the URL requested, which tells the endpoint.
+	 * @param request - sends the request once.
+	 * @param discard - releases a response which arrived too late to be used.
+	 * @return a future of the first successful response, or of the last failure.
+	 */
+	private <T> CompletableFuture<T> fetch(String url, Supplier<CompletableFuture<T>> request, Consumer<T> discard) {
+		EndpointStats stats = this.endpoints.computeIfAbsent(endpointOf(url), endpoint -> new EndpointStats());
+		stats.requests.incrementAndGet();
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		attempt(stats, request, discard, 1, result);
+		return result;
+	}
+
+	private <T> void attempt(EndpointStats stats, Supplier<CompletableFuture<T>> request, Consumer<T> discard,
+			int attempt, CompletableFuture<T> result) {
+		hedged(stats, request, discard).whenComplete((response, error) -> {
+			if (error == null) {
+				if (!result.complete(response)) {
+					discard.accept(response);
+				}
+				return;
+			}
+			Throwable cause = unwrap(error);
+			if (attempt < this.maxAttempts && isRetryable(cause)) {
+				if (stats.tryAcquire(this.minBudget, this.budgetRatio)) {
+					stats.retries.incrementAndGet();
+					CompletableFuture.delayedExecutor(backoff(attempt), TimeUnit.NANOSECONDS)
+							.execute(() -> attempt(stats, request, discard, attempt + 1, result));
+					return;
+				}
+				stats.budgetExhausted.incrementAndGet();
+			}
+			stats.failures.incrementAndGet();
+			result.completeExceptionally(cause);
+		});
+	}
+
+	/**
+	 * Sends a request, and again after the hedge delay if no response arrived by
+	 * then. The future completes with the first successful response, or with the
+	 * last failure if every request sent failed.
+	 */
+	private <T> CompletableFuture<T> hedged(EndpointStats stats, Supplier<CompletableFuture<T>> request,
+			Consumer<T> discard) {
+		Duration delay = this.hedgeDelay;
+		if (delay == null) {
+			return send(request);
+		}
+		CompletableFuture<T> winner = new CompletableFuture<T>();
+		AtomicInteger pending = new AtomicInteger(1);
+		AtomicBoolean settled = new AtomicBoolean();
+		send(request).whenComplete(complete(winner, settled, pending, discard, null));
+		CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+			if (winner.isDone() || !stats.tryAcquire(this.minBudget, this.budgetRatio)) {
+				return;
+			}
+			pending.incrementAndGet();
+			stats.hedges.incrementAndGet();
+			send(request).whenComplete(complete(winner, settled, pending, discard, stats.hedgeWins));
+		});
+		return winner;
+	}
+
+	/**
+	 * Completes the future with the first successful response, counting it in
+	 * wins if given, and discards the later ones.
+	 */
+	private static <T> BiConsumer<T, Throwable> complete(CompletableFuture<T> winner, AtomicBoolean settled,
+			AtomicInteger pending, Consumer<T> discard, AtomicLong wins) {
+		return (response, error) -> {
+			if (error == null) {
+				if (settled.compareAndSet(false, true)) {
+					// Counted first, as completing runs the caller's continuations
+					if (wins != null) {
+						wins.incrementAndGet();
+					}
+					winner.complete(response);
+				} else {
+					discard.accept(response);
+				}
+			} else if (pending.decrementAndGet() == 0 && settled.compareAndSet(false, true)) {
+				winner.completeExceptionally(error);
+			}
+		};
+	}
+
+	private static <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> request) {
+		try {
+			return request.get();
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Returns a random backoff in nanoseconds before the retry following the
+	 * given attempt.
+	 */
+	private long backoff(int attempt) {
+		long bound = this.initialBackoff.toNanos() << Math.min(attempt - 1, 30);
+		if (bound < 0 || bound > this.maxBackoff.toNanos()) {
+			bound = this.maxBackoff.toNanos();
+		}
+		return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+	private static boolean isRetryable(Throwable cause) {
+		if (cause instanceof HttpStatusException) {
+			int statusCode = ((HttpStatusException) cause).getStatusCode();
+			return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+		}
+		return cause instanceof IOException || cause instanceof UncheckedIOException
+				|| cause instanceof HttpTimeoutException;
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof ExecutionException)
+				&& error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error;
+	}
+
+	private static String endpointOf(String url) {
+		int query = url.indexOf('?');
+		return query < 0 ? url : url.substring(0, query);
+	}
+
+	private static void close(Closeable body) {
+		try {
+			body.close();
+		} catch (IOException e) {
+			// Never read
+		}
+	}
+
+	private static void close(ConditionalResponse response) {
+		if (response.getBody() != null) {
+			close(response.getBody());
+		}
+	}
+
+	/**
+	 * Counters of the requests to an endpoint.
+	 */
+	public static class EndpointStats {
+
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong retries = new AtomicLong();
+		private final AtomicLong hedges = new AtomicLong();
+		private final AtomicLong hedgeWins = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong budgetExhausted = new AtomicLong();
+		private final AtomicLong spent = new AtomicLong();
+
+		/**
+		 * Takes one retry or hedge from the budget, if any is left.
+		 */
+		private boolean tryAcquire(int minBudget, double budgetRatio) {
+			double budget = minBudget + budgetRatio * this.requests.get();
+			while (true) {
+				long spent = this.spent.get();
+				if (spent >= budget) {
+					return false;
+				}
+				if (this.spent.compareAndSet(spent, spent + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of requests made to the endpoint.
+		 * 
+		 * @return the number of requests made.
+		 */
+		public long getRequests() {
+			return this.requests.get();
+		}
+
+		/**
+		 * Returns the number of retries sent.
+		 * 
+		 * @return the number of retries sent.
+		 */
+		public long getRetries() {
+			return this.retries.get();
+		}
+
+		/**
+		 * Returns the number of hedges sent.
+		 * 
+		 * @return the number of hedges sent.
+		 */
+		public long getHedges() {
+			return this.hedges.get();
+		}
+
+		/**
+		 * Returns the number of hedges whose response was used.
+		 * 
+		 * @return the number of hedges whose response was used.
+		 */
+		public long getHedgeWins() {
+			return this.hedgeWins.get();
+		}
+
+		/**
+		 * Returns the number of requests failed after every attempt allowed.
+		 * 
+		 * @return the number of requests failed.
+		 */
+		public long getFailures() {
+			return this.failures.get();
+		}
+
+		/**
+		 * Returns the number of retries not attempted as the budget was spent.
+		 * 
+		 * @return the number of retries denied by the budget.
+		 */
+		public long getBudgetExhausted() {
+			return this.budgetExhausted.get();
+		}
+
+		@Override
+		public String toString() {
+			return "requests " + getRequests() + ", retries " + getRetries() + ", hedges " + getHedges()
+					+ " (" + getHedgeWins() + " won), failures " + getFailures() + ", budget exhausted "
+					+ getBudgetExhausted();
+		}
+	}
+}
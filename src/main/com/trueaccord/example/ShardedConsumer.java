@@ -0,0 +1,198 @@
+package com.trueaccord.example;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Consumes items on several worker threads, partitioning them into shards by a
+ * key. Every item with the same key goes to the same shard, and each shard is
+ * owned by exactly one worker which consumes its items in the order they were
+ * accepted. State reachable only through a key, such as a payment plan for its
+ * id, is therefore only ever touched by one thread and needs no locking.
+ * <p>
+ * Items are handed to the workers in batches through bounded queues, so a
+ * producer faster than the workers blocks rather than buffering without limit.
+ * Only one thread may accept items.
+ * 
+ * @author mpcheng
+ * @param <T> the type of the items consumed.
+ */
+public class ShardedConsumer<T> implements Consumer<T>, AutoCloseable {
+
+	/**
+	 * Default number of items handed to a worker at once.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	private static final int BATCHES_QUEUED_PER_SHARD = 4;
+	private static final Object[] END = new Object[0];
+
+	private final ToIntFunction<T> key;
+	private final Consumer<T> consumer;
+	private final int batchSize;
+	private final ExecutorService executor;
+	private final BlockingQueue<Object[]>[] queues;
+	private final Object[][] batches;
+	private final int[] batchSizes;
+	private final Future<?>[] workers;
+	private volatile Throwable failure;
+	private boolean finished;
+
+	/**
+	 * Constructor for the ShardedConsumer, which starts one worker thread per
+	 * shard.
+	 * 
+	 * @param shards    - the number of shards and worker threads.
+	 * @param batchSize - the number of items handed to a worker at once.
+	 * @param key       - the key of an item deciding its shard.
+	 * @param consumer  - the consumer of each item, called on the worker threads.
+	 */
+	public ShardedConsumer(int shards, int batchSize, ToIntFunction<T> key, Consumer<T> consumer) {
+		this(shards, batchSize, key, consumer, AppThreads.preferred());
+	}
+
+	/**
+	 * Constructor for the ShardedConsumer, which starts one worker thread per
+	 * shard of the given kind of threads.
+	 * 
+	 * @param shards    - the number of shards and worker threads.
+	 * @param batchSize - the number of items handed to a worker at once.
+	 * @param key       - the key of an item deciding its shard.
+	 * @param consumer  - the consumer of each item, called on the worker threads.
+	 * @param threads   - the threads the workers run on.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ShardedConsumer(int shards, int batchSize, ToIntFunction<T> key, Consumer<T> consumer,
+			AppThreads threads) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("At least one shard is required: " + shards);
+		}
+		this.key = key;
+		this.consumer = consumer;
+		this.batchSize = batchSize;
+		this.executor = threads.newExecutor("debt-app-shard");
+		this.queues = new BlockingQueue[shards];
+		this.batches = new Object[shards][];
+		this.batchSizes = new int[shards];
+		this.workers = new Future<?>[shards];
+		for (int shard = 0; shard < shards; shard++) {
+			BlockingQueue<Object[]> queue = new ArrayBlockingQueue<Object[]>(BATCHES_QUEUED_PER_SHARD);
+			this.queues[shard] = queue;
+			this.batches[shard] = new Object[batchSize];
+			this.workers[shard] = this.executor.submit(() -> consume(queue));
+		}
+	}
+
+	/**
+	 * Hands the item to the shard of its key. Blocks while that shard is too far
+	 * behind.
+	 * 
+	 * @param item - the item to consume.
+	 * @throws RuntimeException if a worker has already failed.
+	 */
+	@Override
+	public void accept(T item) {
+		checkFailure();
+		int shard = Math.floorMod(this.key.applyAsInt(item), this.queues.length);
+		this.batches[shard][this.batchSizes[shard]++] = item;
+		if (this.batchSizes[shard] == this.batchSize) {
+			handOff(shard, this.batches[shard]);
+			this.batches[shard] = new Object[this.batchSize];
+			this.batchSizes[shard] = 0;
+		}
+	}
+
+	/**
+	 * Hands off the remaining items and waits until every item has been consumed.
+	 * 
+	 * @throws RuntimeException if consuming an item failed.
+	 */
+	public void finish() {
+		if (this.finished) {
+			return;
+		}
+		this.finished = true;
+		try {
+			for (int shard = 0; shard < this.queues.length; shard++) {
+				if (this.batchSizes[shard] > 0) {
+					Object[] batch = new Object[this.batchSizes[shard]];
+					System.arraycopy(this.batches[shard], 0, batch, 0, batch.length);
+					handOff(shard, batch);
+				}
+				handOff(shard, END);
+			}
+			for (Future<?> worker : this.workers) {
+				worker.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			this.executor.shutdownNow();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Stops the workers without waiting for the items handed off to be consumed.
+	 */
+	@Override
+	public void close() {
+		this.finished = true;
+		this.executor.shutdownNow();
+	}
+
+	private void handOff(int shard, Object[] batch) {
+		try {
+			this.queues[shard].put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consume(BlockingQueue<Object[]> queue) {
+		Object[] batch;
+		while ((batch = take(queue)) != END) {
+			// Keep draining after a failure so the producer is never blocked on a full
+			// queue, it will see the failure on its next item
+			if (this.failure != null) {
+				continue;
+			}
+			try {
+				for (Object item : batch) {
+					this.consumer.accept((T) item);
+				}
+			} catch (Throwable t) {
+				this.failure = t;
+			}
+		}
+	}
+
+	private static Object[] take(BlockingQueue<Object[]> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			// Closed, stop consuming
+			return END;
+		}
+	}
+
+	private void checkFailure() {
+		Throwable t = this.failure;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t != null)
+			throw new RuntimeException(t);
+	}
+}
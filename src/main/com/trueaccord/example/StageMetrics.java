@@ -0,0 +1,186 @@
+package com.trueaccord.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * Timings and counters of a stage of App. Each time the stage runs, its
+ * duration is added to a histogram with four buckets per power of two, so
+ * percentiles are within 25% of the exact value, and a run costs a few atomic
+ * additions. Safe to update from concurrent runs.
+ * 
+ * @author mpcheng
+ */
+public class StageMetrics implements StageMetricsMXBean {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder records = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAdder allocatedBytes = new LongAdder();
+	private final LongAdder unmeasuredRuns = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a run of the stage.
+	 * 
+	 * @param nanos          - the duration of the run in nanoseconds.
+	 * @param records        - the number of records processed.
+	 * @param allocatedBytes - the bytes allocated by the run, or a negative value
+	 *                       if not known.
+	 */
+	public void record(long nanos, long records, long allocatedBytes) {
+		nanos = Math.max(0, nanos);
+		this.histogram.incrementAndGet(bucketOf(nanos));
+		this.count.increment();
+		this.totalNanos.add(nanos);
+		if (records > 0) {
+			this.records.add(records);
+		}
+		if (allocatedBytes > 0) {
+			this.allocatedBytes.add(allocatedBytes);
+		} else if (allocatedBytes < 0) {
+			this.unmeasuredRuns.increment();
+		}
+		if (nanos > this.maxNanos.get()) {
+			this.maxNanos.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	/**
+	 * Returns a percentile of the duration of the stage, as the upper bound of the
+	 * histogram bucket holding it.
+	 * 
+	 * @param percentile - the percentile, from 0 to 100.
+	 * @return the duration at the percentile in nanoseconds, or 0 if the stage
+	 *         never ran.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this.histogram.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), this.maxNanos.get());
+			}
+		}
+		return this.maxNanos.get();
+	}
+
+	@Override
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	@Override
+	public long getRecords() {
+		return this.records.sum();
+	}
+
+	@Override
+	public double getTotalMillis() {
+		return this.totalNanos.sum() / 1e6;
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long count = getCount();
+		return count == 0 ? 0 : getTotalMillis() / count;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return this.maxNanos.get() / 1e6;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return getPercentileNanos(50) / 1e6;
+	}
+
+	@Override
+	public double getP90Millis() {
+		return getPercentileNanos(90) / 1e6;
+	}
+
+	@Override
+	public double getP99Millis() {
+		return getPercentileNanos(99) / 1e6;
+	}
+
+	@Override
+	public double getRecordsPerSecond() {
+		long nanos = this.totalNanos.sum();
+		return nanos == 0 ? 0 : getRecords() * 1e9 / nanos;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		// A sum missing some runs would understate the stage
+		return this.unmeasuredRuns.sum() > 0 ? -1 : this.allocatedBytes.sum();
+	}
+
+	@Override
+	public double getAllocatedBytesPerSecond() {
+		long allocatedBytes = getAllocatedBytes();
+		long nanos = this.totalNanos.sum();
+		return allocatedBytes < 0 ? -1 : nanos == 0 ? 0 : allocatedBytes * 1e9 / nanos;
+	}
+
+	/**
+	 * Returns the metrics as a JSON object.
+	 * 
+	 * @return the metrics as a JSON object.
+	 */
+	public JSONObject toJson() {
+		return new JSONObject().put("count", getCount()).put("records", getRecords())
+				.put("total_ms", getTotalMillis()).put("mean_ms", getMeanMillis()).put("p50_ms", getP50Millis())
+				.put("p90_ms", getP90Millis()).put("p99_ms", getP99Millis()).put("max_ms", getMaxMillis())
+				.put("records_per_second", getRecordsPerSecond()).put("allocated_bytes", getAllocatedBytes())
+				.put("allocated_bytes_per_second", getAllocatedBytesPerSecond());
+	}
+
+	/**
+	 * Returns the bucket of a duration: the values below SUB_BUCKETS have a bucket
+	 * each, and every power of two above is split in SUB_BUCKETS buckets.
+	 */
+	static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest duration in a bucket.
+	 */
+	static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = bucket % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		long lowerBound = (long) (SUB_BUCKETS + subBucket) << shift;
+		long upperBound = lowerBound + (1L << shift) - 1;
+		return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+	}
+}
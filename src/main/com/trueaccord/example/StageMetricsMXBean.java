@@ -0,0 +1,89 @@
+package com.trueaccord.example;
+
+/**
+ * Management interface of the StageMetrics of a stage of App, registered by
+ * AppMetrics with the platform MBean server.
+ * 
+ * @author mpcheng
+ */
+public interface StageMetricsMXBean {
+
+	/**
+	 * Returns the number of times the stage ran.
+	 * 
+	 * @return the number of times the stage ran.
+	 */
+	public long getCount();
+
+	/**
+	 * Returns the number of records the stage processed.
+	 * 
+	 * @return the number of records processed.
+	 */
+	public long getRecords();
+
+	/**
+	 * Returns the time spent in the stage.
+	 * 
+	 * @return the time spent in the stage in milliseconds.
+	 */
+	public double getTotalMillis();
+
+	/**
+	 * Returns the mean time of the stage.
+	 * 
+	 * @return the mean time of the stage in milliseconds.
+	 */
+	public double getMeanMillis();
+
+	/**
+	 * Returns the longest time of the stage.
+	 * 
+	 * @return the longest time of the stage in milliseconds.
+	 */
+	public double getMaxMillis();
+
+	/**
+	 * Returns the median time of the stage.
+	 * 
+	 * @return the median time of the stage in milliseconds.
+	 */
+	public double getP50Millis();
+
+	/**
+	 * Returns the 90th percentile of the time of the stage.
+	 * 
+	 * @return the 90th percentile in milliseconds.
+	 */
+	public double getP90Millis();
+
+	/**
+	 * Returns the 99th percentile of the time of the stage.
+	 * 
+	 * @return the 99th percentile in milliseconds.
+	 */
+	public double getP99Millis();
+
+	/**
+	 * Returns the records processed per second spent in the stage.
+	 * 
+	 * @return the records processed per second.
+	 */
+	public double getRecordsPerSecond();
+
+	/**
+	 * Returns the bytes allocated by the thread running the stage. Not known if
+	 * any run of the stage was on a thread the JVM does not count allocations
+	 * of, such as a virtual thread.
+	 * 
+	 * @return the bytes allocated, or -1 if not known.
+	 */
+	public long getAllocatedBytes();
+
+	/**
+	 * Returns the bytes allocated per second spent in the stage.
+	 * 
+	 * @return the bytes allocated per second, or -1 if not known.
+	 */
+	public double getAllocatedBytesPerSecond();
+}
@@ -0,0 +1,150 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for AppMetrics and StageMetrics classes.
+ * 
+ * @author mpcheng
+ */
+public class AppMetricsTests {
+
+	private final SyntheticDataGenerator generator = new SyntheticDataGenerator(3L, 400, 250, 5);
+
+	@Test
+	public void testStagesRecorded() throws IOException, InterruptedException {
+		for (boolean buffered : new boolean[] { false, true }) {
+			AppMetrics metrics = new AppMetrics("test");
+			AppOptions options = new AppOptions().setBufferBodies(buffered).setMetrics(metrics);
+			Map<Integer, Debt> debts = new App(new SyntheticHttpGetClient(generator), Runnable::run, options)
+					.processDebts();
+
+			assertEquals(1, metrics.getRuns());
+			assertEquals(debts.size(), metrics.getStage(AppMetrics.Stage.RUN).getRecords());
+			assertEquals(2, metrics.getStage(AppMetrics.Stage.PARSE).getCount());
+			assertEquals(generator.getNumberOfDebts() + generator.getNumberOfPaymentPlans(),
+					metrics.getStage(AppMetrics.Stage.PARSE).getRecords());
+			assertEquals(generator.getNumberOfPayments(), metrics.getStage(AppMetrics.Stage.PAYMENTS).getRecords());
+			assertEquals(generator.getNumberOfPaymentPlans(), metrics.getStage(AppMetrics.Stage.JOIN).getRecords());
+			assertEquals(3, metrics.getStage(AppMetrics.Stage.FETCH).getCount());
+			assertEquals(0, metrics.getStage(AppMetrics.Stage.RENDER).getCount());
+			assertEquals(3, metrics.getBodiesFetched());
+			assertEquals("Buffered " + buffered, feedsSize(), metrics.getBytesFetched());
+			assertTrue(metrics.getStage(AppMetrics.Stage.RUN).getTotalMillis() > 0);
+		}
+	}
+
+	@Test
+	public void testPagesFetched() throws IOException, InterruptedException {
+		AppMetrics metrics = new AppMetrics("test");
+		AppOptions options = new AppOptions().setPageSize(100).setMaxPagesInFlight(1).setMetrics(metrics);
+		new App(new SyntheticHttpGetClient(generator), Runnable::run, options).processDebts();
+		int pages = 0;
+		for (String url : new String[] { HttpGetClient.DEBT_ENDPOINT, HttpGetClient.PAYMENT_PLANS_ENDPOINT,
+				HttpGetClient.PAYMENTS_ENDPOINT }) {
+			// The last page is a short one, or an empty one after a full one
+			pages += generator.getNumberOfRecords(url) / 100 + 1;
+		}
+		assertEquals(pages, metrics.getStage(AppMetrics.Stage.FETCH).getCount());
+		assertEquals(pages, metrics.getBodiesFetched());
+	}
+
+	@Test
+	public void testRegisteredOverJmx() throws IOException, InterruptedException, JMException {
+		AppMetrics metrics = new AppMetrics("jmx-test").register();
+		try {
+			new App(new SyntheticHttpGetClient(generator), Runnable::run, new AppOptions().setMetrics(metrics))
+					.processDebts();
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(1L, server.getAttribute(metrics.objectName(null), "Runs"));
+			assertEquals(feedsSize(), server.getAttribute(metrics.objectName(null), "BytesFetched"));
+			assertEquals(2L, server.getAttribute(metrics.objectName(AppMetrics.Stage.PARSE), "Count"));
+			assertEquals((long) generator.getNumberOfPayments(),
+					server.getAttribute(metrics.objectName(AppMetrics.Stage.PAYMENTS), "Records"));
+			assertThrows(IllegalStateException.class, () -> new AppMetrics("jmx-test").register());
+		} finally {
+			metrics.unregister();
+		}
+		assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(metrics.objectName(null), null).isEmpty());
+	}
+
+	@Test
+	public void testJsonSummary() {
+		AppMetrics metrics = new AppMetrics("json");
+		metrics.start(AppMetrics.Stage.RENDER).stop(42);
+		JSONObject json = new JSONObject(metrics.toJson().toString());
+		assertEquals("json", json.getString("name"));
+		assertEquals(0, json.getLong("runs"));
+		JSONObject stages = json.getJSONObject("stages");
+		assertEquals(AppMetrics.Stage.values().length, stages.length());
+		assertEquals(1, stages.getJSONObject("render").getLong("count"));
+		assertEquals(42, stages.getJSONObject("render").getLong("records"));
+		assertEquals(0, stages.getJSONObject("fetch").getLong("count"));
+	}
+
+	@Test
+	public void testUnmeasuredAllocations() {
+		StageMetrics stage = new StageMetrics();
+		stage.record(1_000_000, 1, 1000);
+		assertEquals(1000, stage.getAllocatedBytes());
+		// As on a virtual thread
+		stage.record(1_000_000, 1, -1);
+		assertEquals(-1, stage.getAllocatedBytes());
+		assertEquals(-1, stage.getAllocatedBytesPerSecond(), 0);
+		assertEquals(-1, stage.toJson().getLong("allocated_bytes"));
+	}
+
+	@Test
+	public void testPercentiles() {
+		StageMetrics stage = new StageMetrics();
+		assertEquals(0, stage.getPercentileNanos(50));
+		for (long millis = 1; millis <= 1000; millis++) {
+			stage.record(millis * 1_000_000, 1, 0);
+		}
+		assertEquals(1000, stage.getCount());
+		assertEquals(1000, stage.getRecords());
+		assertEquals(1000.0, stage.getMaxMillis(), 0);
+		assertEquals(500.5, stage.getMeanMillis(), 1e-9);
+		assertWithin(500, stage.getP50Millis());
+		assertWithin(900, stage.getP90Millis());
+		assertWithin(990, stage.getP99Millis());
+		assertEquals(1000.0, stage.getPercentileNanos(100) / 1e6, 0);
+	}
+
+	@Test
+	public void testBuckets() {
+		long[] values = { 0, 1, 3, 4, 5, 7, 8, 9, 15, 16, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+		for (long value : values) {
+			int bucket = StageMetrics.bucketOf(value);
+			long upperBound = StageMetrics.upperBoundOf(bucket);
+			assertTrue(value + " <= " + upperBound, value <= upperBound);
+			assertEquals(bucket, StageMetrics.bucketOf(upperBound));
+			assertTrue(value + " within 25% of " + upperBound, upperBound - value <= value / 4);
+			if (upperBound < Long.MAX_VALUE) {
+				assertEquals(bucket + 1, StageMetrics.bucketOf(upperBound + 1));
+			}
+		}
+	}
+
+	private static void assertWithin(double expected, double actual) {
+		assertTrue(actual + " within 25% of " + expected, actual >= expected && actual <= expected * 1.25);
+	}
+
+	private long feedsSize() {
+		return (long) generator.generate(HttpGetClient.DEBT_ENDPOINT).length
+				+ generator.generate(HttpGetClient.PAYMENT_PLANS_ENDPOINT).length
+				+ generator.generate(HttpGetClient.PAYMENTS_ENDPOINT).length;
+	}
+}
@@ -13,11 +13,12 @@ import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -49,6 +50,44 @@ public class AppMockTests {
 		assertFalse(debts.isEmpty());
 	}
 
+	@Test
+	public void testProcessDebtsOnCallerThread() throws IOException, InterruptedException {
+		Map<Integer, Debt> debtsOnCallerThread = new App(new HttpGetClientMock(), Runnable::run).processDebts();
+		assertEquals(debts.keySet(), debtsOnCallerThread.keySet());
+		for (Map.Entry<Integer, Debt> entry : debts.entrySet()) {
+			assertEquals(entry.getValue().asJsonLine(), debtsOnCallerThread.get(entry.getKey()).asJsonLine());
+		}
+	}
+
+	@Test
+	public void testProcessDebtsPaged() throws IOException, InterruptedException {
+		for (int pageSize = 1; pageSize <= 4; pageSize++) {
+			AppOptions options = new AppOptions().setPageSize(pageSize).setMaxPagesInFlight(pageSize);
+			Map<Integer, Debt> pagedDebts = new App(new HttpGetClientMock(), Runnable::run, options).processDebts();
+			assertEquals(debts.keySet(), pagedDebts.keySet());
+			for (Map.Entry<Integer, Debt> entry : debts.entrySet()) {
+				assertEquals(entry.getValue().asJsonLine(), pagedDebts.get(entry.getKey()).asJsonLine());
+			}
+		}
+	}
+
+	@Test
+	public void testFailedEndpoint() {
+		HttpGetClient failingClient = new HttpGetClientMock() {
+			@Override
+			public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+				if (HttpGetClient.PAYMENTS_ENDPOINT.equals(url)) {
+					return CompletableFuture.failedFuture(new RuntimeException("Failed request"));
+				}
+				return super.fetchEndPointAsync(url);
+			}
+		};
+		Exception exception = assertThrows(RuntimeException.class, () -> {
+			new App(failingClient).processDebts();
+		});
+		assertEquals("Failed request", exception.getMessage());
+	}
+
 	@Test
 	public void validateJsonLineResultsForDebt0() throws IOException, InterruptedException {
 		int id = 0;
@@ -58,15 +97,8 @@ public class AppMockTests {
 		assertEquals(BigDecimal.valueOf(100.0), extractAttributeAsBigDecimal(debtAsJson, AMOUNT));
 		assertEquals(BigDecimal.valueOf(-2.5), extractAttributeAsBigDecimal(debtAsJson, REMAINING_AMOUNT));
 		assertEquals(false, debtAsJson.get(IS_IN_PAYMENT_PLAN));
-		// Because org.json.JSONObject doesn't print null attributes, the attribute
-		// doesn't exist
-		Exception exception = assertThrows(JSONException.class, () -> {
-			debtAsJson.get(NEXT_PAYMENT_DUE_DATE);
-		});
-
-		String expectedMessage = "not found";
-		String actualMessage = exception.getMessage();
-		assertTrue(actualMessage.contains(expectedMessage));
+		assertTrue(debtAsJson.has(NEXT_PAYMENT_DUE_DATE));
+		assertTrue(debtAsJson.isNull(NEXT_PAYMENT_DUE_DATE));
 	}
 
 	@Test
@@ -114,14 +146,7 @@ public class AppMockTests {
 		assertEquals(BigDecimal.valueOf(1000000.00), extractAttributeAsBigDecimal(debtAsJson, AMOUNT));
 		assertEquals(BigDecimal.valueOf(1000000.00), extractAttributeAsBigDecimal(debtAsJson, REMAINING_AMOUNT));
 		assertEquals(false, debtAsJson.get(IS_IN_PAYMENT_PLAN));
-		// Because org.json.JSONObject doesn't print null attributes, the attribute
-		// doesn't exist
-		Exception exception = assertThrows(JSONException.class, () -> {
-			debtAsJson.get(NEXT_PAYMENT_DUE_DATE);
-		});
-
-		String expectedMessage = "not found";
-		String actualMessage = exception.getMessage();
-		assertTrue(actualMessage.contains(expectedMessage));
+		assertTrue(debtAsJson.has(NEXT_PAYMENT_DUE_DATE));
+		assertTrue(debtAsJson.isNull(NEXT_PAYMENT_DUE_DATE));
 	}
 }
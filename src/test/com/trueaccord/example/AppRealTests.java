@@ -9,7 +9,6 @@ import static com.trueaccord.example.AppConstants.REMAINING_AMOUNT;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -17,7 +16,6 @@ import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -58,15 +56,8 @@ public class AppRealTests {
 		assertEquals(BigDecimal.valueOf(123.46), extractAttributeAsBigDecimal(debtAsJson, AMOUNT));
 		assertEquals(BigDecimal.valueOf(0.0), extractAttributeAsBigDecimal(debtAsJson, REMAINING_AMOUNT));
 		assertEquals(false, debtAsJson.get(IS_IN_PAYMENT_PLAN));
-		// Because org.json.JSONObject doesn't print null attributes, the attribute
-		// doesn't exist
-		Exception exception = assertThrows(JSONException.class, () -> {
-			debtAsJson.get(NEXT_PAYMENT_DUE_DATE);
-		});
-
-		String expectedMessage = "not found";
-		String actualMessage = exception.getMessage();
-		assertTrue(actualMessage.contains(expectedMessage));
+		assertTrue(debtAsJson.has(NEXT_PAYMENT_DUE_DATE));
+		assertTrue(debtAsJson.isNull(NEXT_PAYMENT_DUE_DATE));
 	}
 
 	@Test
@@ -114,14 +105,7 @@ public class AppRealTests {
 		assertEquals(BigDecimal.valueOf(9238.02), extractAttributeAsBigDecimal(debtAsJson, AMOUNT));
 		assertEquals(BigDecimal.valueOf(9238.02), extractAttributeAsBigDecimal(debtAsJson, REMAINING_AMOUNT));
 		assertEquals(false, debtAsJson.get(IS_IN_PAYMENT_PLAN));
-		// Because org.json.JSONObject doesn't print null attributes, the attribute
-		// doesn't exist
-		Exception exception = assertThrows(JSONException.class, () -> {
-			debtAsJson.get(NEXT_PAYMENT_DUE_DATE);
-		});
-
-		String expectedMessage = "not found";
-		String actualMessage = exception.getMessage();
-		assertTrue(actualMessage.contains(expectedMessage));
+		assertTrue(debtAsJson.has(NEXT_PAYMENT_DUE_DATE));
+		assertTrue(debtAsJson.isNull(NEXT_PAYMENT_DUE_DATE));
 	}
 }
@@ -0,0 +1,224 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * End to end testing with large synthetic feeds, comparing the optional
+ * processing modes against the default one.
+ * 
+ * @author mpcheng
+ */
+public class AppSyntheticTests {
+
+	protected static SyntheticDataGenerator generator;
+	protected static Map<Integer, Debt> debts;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Synthetic client serving only the first payments, as the payments endpoint
+	 * did at an earlier time.
+	 */
+	private static class PaymentsPrefixClient extends SyntheticHttpGetClient {
+		private final int numberOfPayments;
+		private final AtomicInteger paymentFetches = new AtomicInteger();
+		private final AtomicInteger otherFetches = new AtomicInteger();
+
+		PaymentsPrefixClient(int numberOfPayments) {
+			super(generator);
+			this.numberOfPayments = numberOfPayments;
+		}
+
+		@Override
+		public InputStream fetchEndPointAsStream(String url) {
+			if (!HttpGetClient.PAYMENTS_ENDPOINT.equals(url)) {
+				otherFetches.incrementAndGet();
+				return super.fetchEndPointAsStream(url);
+			}
+			paymentFetches.incrementAndGet();
+			return new ByteArrayInputStream(generator.generate(url, 0, numberOfPayments));
+		}
+
+		@Override
+		public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+			if (!HttpGetClient.PAYMENTS_ENDPOINT.equals(url)) {
+				otherFetches.incrementAndGet();
+				return super.fetchPageAsync(url, page, pageSize);
+			}
+			paymentFetches.incrementAndGet();
+			int from = Math.min((page - 1) * pageSize, numberOfPayments);
+			int to = Math.min(from + pageSize, numberOfPayments);
+			return CompletableFuture.supplyAsync(() -> new ByteArrayInputStream(generator.generate(url, from, to)));
+		}
+	}
+
+	@BeforeClass
+	public static void setup() throws IOException, InterruptedException {
+		generator = new SyntheticDataGenerator(42L, 20000, 15000, 12);
+		debts = new App(new SyntheticHttpGetClient(generator)).processDebts();
+	}
+
+	@Test
+	public void testLoadingDebts() {
+		assertEquals(generator.getNumberOfDebts(), debts.size());
+		long inPaymentPlans = debts.values().stream().filter(Debt::isInPaymentPlan).count();
+		assertEquals(generator.getNumberOfPaymentPlans(), inPaymentPlans);
+	}
+
+	@Test
+	public void testParallelPaymentsMatchSequential() throws IOException, InterruptedException {
+		for (int parallelism : new int[] { 2, 3, 8 }) {
+			AppOptions options = new AppOptions().setPaymentParallelism(parallelism);
+			Map<Integer, Debt> parallelDebts = new App(new SyntheticHttpGetClient(generator), Runnable::run,
+					options).processDebts();
+			assertSameJsonLines(debts, parallelDebts);
+		}
+	}
+
+	@Test
+	public void testMoneyScalesMatchDefault() throws IOException, InterruptedException {
+		// Scale 0 totals every plan with BigDecimal, scale 2 only the plans with
+		// payments in fractions of cents
+		for (int moneyScale : new int[] { 0, 2, Money.MAX_SCALE }) {
+			AppOptions options = new AppOptions().setMoneyScale(moneyScale);
+			Map<Integer, Debt> scaledDebts = new App(new SyntheticHttpGetClient(generator), Runnable::run, options)
+					.processDebts();
+			assertSameJsonLines(debts, scaledDebts);
+			for (Map.Entry<Integer, Debt> entry : debts.entrySet()) {
+				assertEquals(entry.getValue().getRemainingAmount(), scaledDebts.get(entry.getKey()).getRemainingAmount());
+			}
+		}
+	}
+
+	@Test
+	public void testSpilledJoinMatchesInMemory() throws IOException, InterruptedException {
+		// The smaller budget splits every partition again
+		for (long memoryBudget : new long[] { AppOptions.DEFAULT_JOIN_MEMORY_BUDGET, 256 * 1024 }) {
+			AppOptions options = new AppOptions().setSpillDirectory(folder.getRoot().toPath())
+					.setJoinMemoryBudget(memoryBudget);
+			List<String> lines = new ArrayList<String>();
+			new App(new SyntheticHttpGetClient(generator), Runnable::run, options)
+					.processDebts(debt -> lines.add(debt.asJsonLine()));
+			List<String> expected = new ArrayList<String>();
+			for (Debt debt : debts.values()) {
+				expected.add(debt.asJsonLine());
+			}
+			assertEquals(expected, lines);
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+
+	@Test
+	public void testIncrementalMatchesFull() throws IOException, InterruptedException {
+		// Payments go to the payment plans in turn, so a quarter of them get one more
+		int newPayments = generator.getNumberOfPaymentPlans() / 4;
+		int paymentsBefore = generator.getNumberOfPayments() - newPayments;
+		for (int pageSize : new int[] { 0, 1000 }) {
+			AppOptions options = new AppOptions().setPageSize(pageSize);
+			DebtUpdate before = new App(new PaymentsPrefixClient(paymentsBefore), Runnable::run, options)
+					.processDebtsSince(null);
+			assertTrue(before.isFullRecompute());
+			assertEquals(paymentsBefore, before.getPaymentsWatermark());
+
+			DebtUpdate after = new App(new SyntheticHttpGetClient(generator), Runnable::run, options)
+					.processDebtsSince(writeSnapshot(before));
+			assertFalse(after.isFullRecompute());
+			assertEquals(generator.getNumberOfPayments(), after.getPaymentsWatermark());
+			assertSameJsonLines(debts, after.getDebts());
+			assertTrue(after.getRemovedDebtIds().isEmpty());
+			assertFalse(after.getChangedDebts().isEmpty());
+			assertTrue(after.getChangedDebts().size() <= newPayments);
+			for (Debt debt : after.getDebts().values()) {
+				Debt previous = before.getDebts().get(debt.getId());
+				if (after.getChangedDebts().containsKey(debt.getId())) {
+					assertNotEquals(previous.getPaymentPlan().getAmountPaid(), debt.getPaymentPlan().getAmountPaid());
+				} else {
+					assertEquals(previous.asJsonLine(), debt.asJsonLine());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalWithoutNewPayments() throws IOException, InterruptedException {
+		App app = new App(new SyntheticHttpGetClient(generator));
+		DebtUpdate update = app.processDebtsSince(writeSnapshot(app.processDebtsSince(null)));
+		assertFalse(update.isFullRecompute());
+		assertEquals(generator.getNumberOfPayments(), update.getPaymentsWatermark());
+		assertTrue(update.getChangedDebts().isEmpty());
+		assertSameJsonLines(debts, update.getDebts());
+	}
+
+	@Test
+	public void testIncrementalRecomputesShorterFeed() throws IOException, InterruptedException {
+		int numberOfPayments = generator.getNumberOfPayments() / 2;
+		DebtSnapshot snapshot = writeSnapshot(new App(new SyntheticHttpGetClient(generator)).processDebtsSince(null));
+		PaymentsPrefixClient client = new PaymentsPrefixClient(numberOfPayments);
+		DebtUpdate update = new App(client).processDebtsSince(snapshot);
+		assertTrue(update.isFullRecompute());
+		assertEquals(numberOfPayments, update.getPaymentsWatermark());
+		// Only the payments are read again
+		assertEquals(2, client.otherFetches.get());
+		assertEquals(2, client.paymentFetches.get());
+		Map<Integer, Debt> expected = new App(new PaymentsPrefixClient(numberOfPayments)).processDebts();
+		assertSameJsonLines(expected, update.getDebts());
+	}
+
+	@Test
+	public void testIncrementalRecomputesShorterPagedFeed() throws IOException, InterruptedException {
+		AppOptions options = new AppOptions().setPageSize(1000);
+		DebtSnapshot snapshot = writeSnapshot(new App(new SyntheticHttpGetClient(generator)).processDebtsSince(null));
+		int watermark = (int) snapshot.getPaymentsWatermark();
+		// Shorter by a page and a half, and ending two pages before the page of the watermark
+		for (int numberOfPayments : new int[] { watermark - 1500, watermark / 1000 * 1000 - 2000 }) {
+			DebtUpdate update = new App(new PaymentsPrefixClient(numberOfPayments), Runnable::run, options)
+					.processDebtsSince(snapshot);
+			assertTrue(update.isFullRecompute());
+			assertEquals(numberOfPayments, update.getPaymentsWatermark());
+			Map<Integer, Debt> expected = new App(new PaymentsPrefixClient(numberOfPayments)).processDebts();
+			assertSameJsonLines(expected, update.getDebts());
+		}
+	}
+
+	@Test
+	public void testIncrementalPagedWithoutNewPaymentsOnPageBoundary() throws IOException, InterruptedException {
+		AppOptions options = new AppOptions().setPageSize(1000);
+		App app = new App(new PaymentsPrefixClient(4000), Runnable::run, options);
+		DebtUpdate update = app.processDebtsSince(writeSnapshot(app.processDebtsSince(null)));
+		assertFalse(update.isFullRecompute());
+		assertEquals(4000, update.getPaymentsWatermark());
+		assertTrue(update.getChangedDebts().isEmpty());
+	}
+
+	private DebtSnapshot writeSnapshot(DebtUpdate update) throws IOException {
+		Path path = folder.newFile().toPath();
+		DebtSnapshot.write(update.getDebts(), path, update.getPaymentsWatermark());
+		return DebtSnapshot.open(path);
+	}
+
+	protected static void assertSameJsonLines(Map<Integer, Debt> expected, Map<Integer, Debt> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<Integer, Debt> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().asJsonLine(), actual.get(entry.getKey()).asJsonLine());
+		}
+	}
+}
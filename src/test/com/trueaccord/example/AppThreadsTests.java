@@ -0,0 +1,140 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for AppThreads class. The virtual threads are only tested on Java 21
+ * and later.
+ * 
+ * @author mpcheng
+ */
+public class AppThreadsTests {
+
+	@After
+	public void tearDown() {
+		System.clearProperty(AppThreads.THREADS_PROPERTY);
+	}
+
+	@Test
+	public void testPlatformThreads() throws Exception {
+		ExecutorService executor = AppThreads.platform().newExecutor("test-platform");
+		try {
+			Future<Thread> thread = executor.submit(Thread::currentThread);
+			assertEquals("test-platform", thread.get().getName());
+			assertTrue(thread.get().isDaemon());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTasksNeverQueue() throws Exception {
+		for (AppThreads threads : AppThreads.isVirtualSupported()
+				? new AppThreads[] { AppThreads.platform(), AppThreads.virtual() }
+				: new AppThreads[] { AppThreads.platform() }) {
+			// Every task waits for the last one, so any queuing would never finish
+			int tasks = 64;
+			CountDownLatch started = new CountDownLatch(tasks);
+			ExecutorService executor = threads.newExecutor("test-" + threads);
+			try {
+				for (int i = 0; i < tasks; i++) {
+					executor.execute(() -> {
+						started.countDown();
+						try {
+							started.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					});
+				}
+				assertTrue(started.await(10, TimeUnit.SECONDS));
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		assumeTrue(AppThreads.isVirtualSupported());
+		assertTrue(AppThreads.virtual().isVirtual());
+		assertSame(AppThreads.virtual(), AppThreads.preferred());
+		ExecutorService executor = AppThreads.virtual().newExecutor("test-virtual");
+		try {
+			Thread thread = executor.submit(Thread::currentThread).get();
+			assertTrue(thread.getName().startsWith("test-virtual-"));
+			assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWithoutVirtualThreads() {
+		assumeTrue(!AppThreads.isVirtualSupported());
+		assertThrows(UnsupportedOperationException.class, AppThreads::virtual);
+		assertThrows(UnsupportedOperationException.class, () -> AppThreads.forName("virtual"));
+		assertSame(AppThreads.platform(), AppThreads.preferred());
+	}
+
+	@Test
+	public void testPreferredFromProperty() {
+		System.setProperty(AppThreads.THREADS_PROPERTY, "platform");
+		assertSame(AppThreads.platform(), AppThreads.preferred());
+		assertFalse(AppThreads.preferred().isVirtual());
+		System.setProperty(AppThreads.THREADS_PROPERTY, "green");
+		assertThrows(IllegalArgumentException.class, AppThreads::preferred);
+	}
+
+	@Test
+	public void testAppMatchesOnEachThreads() throws IOException, InterruptedException {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(5L, 3000, 2000, 6);
+		Map<Integer, Debt> expected = new App(new SyntheticHttpGetClient(generator), Runnable::run).processDebts();
+		for (AppThreads threads : new AppThreads[] { AppThreads.platform(), AppThreads.preferred() }) {
+			ExecutorService executor = App.newExecutor(threads);
+			try {
+				AppOptions options = new AppOptions().setThreads(threads).setPageSize(250).setPaymentParallelism(3);
+				Map<Integer, Debt> debts = new App(new SyntheticHttpGetClient(generator), executor, options)
+						.processDebts();
+				AppSyntheticTests.assertSameJsonLines(expected, debts);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Test
+	public void testLoadDriverOnBothThreads() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+		try {
+			LoadDriver.main(new String[] { "debts=200", "plans=100", "paymentsPerPlan=3", "runs=1", "warmupRuns=0",
+					"threads=both" });
+		} finally {
+			System.setOut(out);
+		}
+		String printed = output.toString(StandardCharsets.UTF_8);
+		assertTrue(printed, printed.contains("platform threads:"));
+		assertEquals(printed, AppThreads.isVirtualSupported(), printed.contains("virtual threads:" + System.lineSeparator()));
+		assertEquals(printed, !AppThreads.isVirtualSupported(), printed.contains("virtual threads: skipped"));
+	}
+}
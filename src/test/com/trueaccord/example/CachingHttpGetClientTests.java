@@ -0,0 +1,212 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the CachingHttpGetClient against the LocalDebtServer.
+ * 
+ * @author mpcheng
+ */
+public class CachingHttpGetClientTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SyntheticDataGenerator generator;
+	private LocalDebtServer server;
+	private Path directory;
+
+	@Before
+	public void setup() throws IOException {
+		generator = new SyntheticDataGenerator(7L, 500, 300, 4);
+		server = new LocalDebtServer(generator);
+		directory = folder.getRoot().toPath().resolve("cache");
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testNotModifiedServedFromCache() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		String url = server.getUrl(HttpGetClient.DEBT_ENDPOINT);
+		byte[] expected = generator.generate(HttpGetClient.DEBT_ENDPOINT);
+
+		assertArrayEquals(expected, fetch(client, url));
+		long bytesSent = server.getBytesSent();
+		assertArrayEquals(expected, fetch(client, url));
+		assertArrayEquals(expected, fetch(client, url));
+
+		assertEquals(bytesSent, server.getBytesSent());
+		assertEquals(2, server.getNotModified());
+		assertEquals(2, client.getHits());
+		assertEquals(1, client.getMisses());
+		assertEquals(1, client.getEntries());
+		assertEquals(expected.length, client.getSizeInBytes());
+	}
+
+	@Test
+	public void testChangedFeedIsDownloaded() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		String url = server.getUrl(HttpGetClient.PAYMENT_PLANS_ENDPOINT);
+		fetch(client, url);
+		SyntheticDataGenerator changed = new SyntheticDataGenerator(8L, 500, 300, 4);
+		server.setGenerator(changed);
+
+		assertArrayEquals(changed.generate(HttpGetClient.PAYMENT_PLANS_ENDPOINT), fetch(client, url));
+		assertArrayEquals(changed.generate(HttpGetClient.PAYMENT_PLANS_ENDPOINT), fetch(client, url));
+		assertEquals(2, client.getMisses());
+		assertEquals(1, client.getHits());
+		assertEquals(1, client.getEntries());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws IOException, InterruptedException {
+		String debts = server.getUrl(HttpGetClient.DEBT_ENDPOINT);
+		String paymentPlans = server.getUrl(HttpGetClient.PAYMENT_PLANS_ENDPOINT);
+		String payments = server.getUrl(HttpGetClient.PAYMENTS_ENDPOINT);
+		long debtsSize = generator.generate(HttpGetClient.DEBT_ENDPOINT).length;
+		long paymentsSize = generator.generate(HttpGetClient.PAYMENTS_ENDPOINT).length;
+		// Room for the debts and either of the other feeds, the payments being larger
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory,
+				debtsSize + paymentsSize);
+
+		fetch(client, debts);
+		fetch(client, paymentPlans);
+		fetch(client, debts);
+		assertEquals(2, client.getEntries());
+		// Payments do not fit with both, so the payment plans used longest ago go
+		fetch(client, payments);
+		assertEquals(2, client.getEntries());
+		assertEquals(debtsSize + paymentsSize, client.getSizeInBytes());
+		fetch(client, debts);
+		assertEquals(2, client.getHits());
+		fetch(client, paymentPlans);
+		assertEquals(2, client.getHits());
+		assertEquals(client.getEntries() * 2, countFiles());
+	}
+
+	@Test
+	public void testLargerThanCacheNotStored() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory, 100);
+		String url = server.getUrl(HttpGetClient.PAYMENTS_ENDPOINT);
+		assertArrayEquals(generator.generate(HttpGetClient.PAYMENTS_ENDPOINT), fetch(client, url));
+		assertEquals(0, client.getEntries());
+		assertEquals(0, countFiles());
+	}
+
+	@Test
+	public void testAbandonedReadNotStored() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		try (InputStream body = client.fetchEndPointAsStream(server.getUrl(HttpGetClient.PAYMENTS_ENDPOINT))) {
+			body.read(new byte[100]);
+		}
+		assertEquals(0, client.getEntries());
+		assertEquals(0, countFiles());
+	}
+
+	@Test
+	public void testCacheSurvivesRestart() throws IOException, InterruptedException {
+		String url = server.getUrl(HttpGetClient.DEBT_ENDPOINT);
+		fetch(new CachingHttpGetClient(new HttpGetClientImpl(), directory), url);
+		CachingHttpGetClient restarted = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		assertEquals(1, restarted.getEntries());
+		assertArrayEquals(generator.generate(HttpGetClient.DEBT_ENDPOINT), fetch(restarted, url));
+		assertEquals(1, restarted.getHits());
+		assertEquals(0, restarted.getMisses());
+	}
+
+	@Test
+	public void testAppMatchesUncached() throws IOException, InterruptedException {
+		Map<Integer, Debt> expected = new App(new SyntheticHttpGetClient(generator)).processDebts();
+		CachingHttpGetClient cache = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		HttpGetClient client = new RedirectingHttpGetClient(cache, server::getUrl);
+		for (int pageSize : new int[] { 0, 100 }) {
+			AppOptions options = new AppOptions().setPageSize(pageSize);
+			AppSyntheticTests.assertSameJsonLines(expected, new App(client, Runnable::run, options).processDebts());
+			long requests = server.getRequests();
+			long hits = cache.getHits();
+			AppSyntheticTests.assertSameJsonLines(expected, new App(client, Runnable::run, options).processDebts());
+			// Every response read in the second run comes from the cache. Pages
+			// requested ahead past the end are never read, so never cached
+			long unread = pageSize == 0 ? 0 : 3 * options.getMaxPagesInFlight();
+			assertTrue(cache.getHits() - hits >= server.getRequests() - requests - unread);
+		}
+	}
+
+	@Test
+	public void testWrapsResilientClient() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new ResilientHttpGetClient(new HttpGetClientImpl()),
+				directory);
+		String url = server.getUrl(HttpGetClient.DEBT_ENDPOINT);
+		fetch(client, url);
+		assertArrayEquals(generator.generate(HttpGetClient.DEBT_ENDPOINT), fetch(client, url));
+		assertEquals(1, client.getHits());
+		assertEquals(1, server.getNotModified());
+	}
+
+	@Test
+	public void testBufferedBodyCached() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		String url = server.getUrl(HttpGetClient.PAYMENT_PLANS_ENDPOINT);
+		byte[] expected = generator.generate(HttpGetClient.PAYMENT_PLANS_ENDPOINT);
+		for (int i = 0; i < 2; i++) {
+			ByteBuffer body = EndpointReader.await(client.fetchEndPointAsBufferAsync(url));
+			byte[] bytes = new byte[body.remaining()];
+			body.get(bytes);
+			assertArrayEquals(expected, bytes);
+		}
+		assertEquals(1, client.getHits());
+		assertEquals(1, client.getEntries());
+	}
+
+	@Test
+	public void testResponsesWithoutValidatorsNotStored() throws IOException, InterruptedException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new SyntheticHttpGetClient(generator), directory);
+		assertArrayEquals(generator.generate(HttpGetClient.DEBT_ENDPOINT),
+				fetch(client, HttpGetClient.DEBT_ENDPOINT));
+		assertEquals(1, client.getMisses());
+		assertEquals(0, client.getEntries());
+	}
+
+	@Test
+	public void testFailureNotCached() throws IOException {
+		CachingHttpGetClient client = new CachingHttpGetClient(new HttpGetClientImpl(), directory);
+		server.setErrorRate(1, 0);
+		RuntimeException e = assertThrows(RuntimeException.class,
+				() -> client.fetchEndPoint(server.getUrl(HttpGetClient.DEBT_ENDPOINT)));
+		assertTrue(e.getMessage().contains("503"));
+		assertEquals(0, client.getEntries());
+	}
+
+	private static byte[] fetch(HttpGetClient client, String url) throws IOException, InterruptedException {
+		try (InputStream body = client.fetchEndPointAsStream(url)) {
+			return body.readAllBytes();
+		}
+	}
+
+	private long countFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+}
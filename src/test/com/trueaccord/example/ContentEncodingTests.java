@@ -0,0 +1,80 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpHeaders;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for ContentEncoding class.
+ * 
+ * @author mpcheng
+ */
+public class ContentEncodingTests {
+
+	private static final byte[] BODY = new SyntheticDataGenerator(5L, 200, 100, 3)
+			.generate(HttpGetClient.PAYMENTS_ENDPOINT);
+
+	@Test
+	public void testIdentity() throws IOException {
+		assertArrayEquals(BODY, decode(null, BODY));
+		assertArrayEquals(BODY, decode("identity", BODY));
+		assertEquals(BODY.length, ContentEncoding.decodedLength(headers("identity", BODY.length)));
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(encoded)) {
+			out.write(BODY);
+		}
+		assertArrayEquals(BODY, decode("gzip", encoded.toByteArray()));
+		assertEquals(-1, ContentEncoding.decodedLength(headers("gzip", encoded.size())));
+	}
+
+	@Test
+	public void testZlibAndRawDeflate() throws IOException {
+		for (boolean raw : new boolean[] { false, true }) {
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+			try (OutputStream out = new DeflaterOutputStream(encoded, deflater)) {
+				out.write(BODY);
+			}
+			deflater.end();
+			assertArrayEquals("Raw " + raw, BODY, decode("deflate", encoded.toByteArray()));
+		}
+		assertArrayEquals(new byte[0], decode("deflate", new byte[] { 3, 0 }));
+	}
+
+	@Test
+	public void testUnsupported() {
+		IOException e = assertThrows(IOException.class, () -> decode("br", BODY));
+		assertEquals("Unsupported content encoding: br", e.getMessage());
+	}
+
+	private static byte[] decode(String encoding, byte[] body) throws IOException {
+		try (InputStream in = ContentEncoding.decode(headers(encoding, body.length), new ByteArrayInputStream(body))) {
+			return in.readAllBytes();
+		}
+	}
+
+	private static HttpHeaders headers(String encoding, long length) {
+		Map<String, List<String>> headers = encoding == null
+				? Map.of("Content-Length", List.of(Long.toString(length)))
+				: Map.of("Content-Length", List.of(Long.toString(length)), "Content-Encoding", List.of(encoding));
+		return HttpHeaders.of(headers, (name, value) -> true);
+	}
+}
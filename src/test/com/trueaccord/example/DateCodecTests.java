@@ -0,0 +1,97 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests for DateCodec class.
+ * 
+ * @author mpcheng
+ * 
+ */
+public class DateCodecTests {
+
+	@Test
+	public void testParseAndFormatMatchLocalDate() {
+		DateCodec codec = new DateCodec(16);
+		int from = (int) LocalDate.of(1600, 1, 1).toEpochDay();
+		int to = (int) LocalDate.of(2400, 12, 31).toEpochDay();
+		for (int epochDay = from; epochDay <= to; epochDay++) {
+			String expected = LocalDate.ofEpochDay(epochDay).toString();
+			assertEquals(expected, codec.format(epochDay));
+			assertEquals(epochDay, codec.parseEpochDay(expected));
+		}
+	}
+
+	@Test
+	public void testFormatYearBounds() {
+		DateCodec codec = new DateCodec(16);
+		assertEquals("0000-01-01", codec.format((int) LocalDate.of(0, 1, 1).toEpochDay()));
+		assertEquals("9999-12-31", codec.format((int) LocalDate.of(9999, 12, 31).toEpochDay()));
+		assertEquals("+10000-01-01", codec.format((int) LocalDate.of(10000, 1, 1).toEpochDay()));
+	}
+
+	@Test
+	public void testFormatIsCached() {
+		DateCodec codec = new DateCodec(16);
+		assertSame(codec.format(18628), codec.format(18628));
+	}
+
+	@Test
+	public void testParseInvalidDates() {
+		String[] invalidDates = { "", "2021-1-01", "2021/01/01", "2021-13-01", "2021-00-10", "2021-02-29",
+				"2021-04-31", "20a1-01-01", "2021-01-01T00:00" };
+		for (String invalidDate : invalidDates) {
+			assertThrows(invalidDate, DateTimeParseException.class, () -> {
+				DateCodec.ISO.parseEpochDay(invalidDate);
+			});
+		}
+		assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), DateCodec.ISO.parseEpochDay("2020-02-29"));
+	}
+
+	@Test
+	public void testDateConversions() throws ParseException {
+		SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		int epochDay = DateCodec.ISO.parseEpochDay("2021-03-14");
+		assertEquals(epochDay, DateCodec.toEpochDay(simpleDateFormat.parse("2021-03-14")));
+		assertEquals(simpleDateFormat.parse("2021-03-14"), DateCodec.toDate(epochDay));
+	}
+
+	@Test
+	public void testConcurrentFormatting() throws Exception {
+		DateCodec codec = new DateCodec(64);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 4; i++) {
+				long seed = i;
+				futures.add(executor.submit(() -> {
+					Random random = new Random(seed);
+					for (int j = 0; j < 100000; j++) {
+						int epochDay = 18000 + random.nextInt(1000);
+						assertEquals(LocalDate.ofEpochDay(epochDay).toString(), codec.format(epochDay));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for DebtPublisher class, with the debts of a SyntheticDataGenerator.
+ * 
+ * @author mpcheng
+ */
+public class DebtPublisherTests {
+
+	private static SyntheticDataGenerator generator;
+	private static List<String> expected;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ExecutorService executor = App.newExecutor(AppThreads.platform());
+	private final CountingClient client = new CountingClient();
+
+	/**
+	 * Synthetic client counting the endpoints fetched, which can be made to fail.
+	 */
+	private static class CountingClient extends SyntheticHttpGetClient {
+		private final AtomicInteger fetches = new AtomicInteger();
+		private volatile boolean failing;
+
+		CountingClient() {
+			super(generator);
+		}
+
+		@Override
+		public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+			this.fetches.incrementAndGet();
+			if (this.failing) {
+				return CompletableFuture.failedFuture(new IOException("Endpoint down"));
+			}
+			return super.fetchEndPointAsync(url);
+		}
+	}
+
+	/**
+	 * Records the signals of a subscription, requesting debts only when told to.
+	 */
+	private static class RecordingSubscriber implements Flow.Subscriber<Debt> {
+		private final BlockingQueue<Debt> debts = new LinkedBlockingQueue<Debt>();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Flow.Subscription subscription;
+		private volatile boolean completed;
+		private volatile Throwable error;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(Debt debt) {
+			this.debts.add(debt);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+			this.done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+			this.done.countDown();
+		}
+
+		Debt take() throws InterruptedException {
+			return this.debts.poll(10, TimeUnit.SECONDS);
+		}
+
+		boolean awaitDone() throws InterruptedException {
+			return this.done.await(10, TimeUnit.SECONDS);
+		}
+
+		boolean awaitDoneQuickly() throws InterruptedException {
+			return this.done.await(100, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@BeforeClass
+	public static void setup() throws IOException, InterruptedException {
+		generator = new SyntheticDataGenerator(3L, 5000, 3000, 8);
+		expected = new ArrayList<String>();
+		Map<Integer, Debt> debts = new App(new SyntheticHttpGetClient(generator)).processDebts();
+		for (Debt debt : debts.values()) {
+			expected.add(debt.asJsonLine());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testPublishesInIdOrder() throws InterruptedException {
+		for (AppOptions options : new AppOptions[] { new AppOptions(),
+				new AppOptions().setSpillDirectory(folder.getRoot().toPath()) }) {
+			RecordingSubscriber subscriber = new RecordingSubscriber();
+			new App(client, executor, options).publishDebts().subscribe(subscriber);
+			List<String> lines = new ArrayList<String>();
+			for (int i = 0; i < expected.size(); i++) {
+				// One at a time, as a slow subscriber would
+				subscriber.subscription.request(1);
+				lines.add(subscriber.take().asJsonLine());
+			}
+			subscriber.subscription.request(1);
+			assertTrue(subscriber.awaitDone());
+			assertTrue(subscriber.completed);
+			assertEquals(expected, lines);
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+
+	@Test
+	public void testNothingFetchedUntilRequested() throws InterruptedException {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		new App(client, executor).publishDebts().subscribe(subscriber);
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertEquals(0, client.fetches.get());
+
+		subscriber.subscription.request(5);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(expected.get(i), subscriber.take().asJsonLine());
+		}
+		// No more than requested
+		assertNull(subscriber.debts.poll(100, TimeUnit.MILLISECONDS));
+		assertFalse(subscriber.completed);
+		assertEquals(3, client.fetches.get());
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertTrue(subscriber.awaitDone());
+		assertTrue(subscriber.completed);
+		assertEquals(expected.size() - 5, subscriber.debts.size());
+	}
+
+	@Test
+	public void testRunsOnGivenExecutor() throws InterruptedException {
+		// Parsing on the calling thread, so the run needs a thread of its own
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		new App(client, Runnable::run).publishDebts(executor).subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertTrue(subscriber.awaitDone());
+		assertTrue(subscriber.completed);
+		assertEquals(expected.size(), subscriber.debts.size());
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		new App(client, executor, new AppOptions().setSpillDirectory(folder.getRoot().toPath())).publishDebts()
+				.subscribe(subscriber);
+		subscriber.subscription.request(2);
+		subscriber.take();
+		subscriber.take();
+		subscriber.subscription.cancel();
+		subscriber.subscription.request(10);
+		assertNull(subscriber.debts.poll(100, TimeUnit.MILLISECONDS));
+		assertFalse(subscriber.awaitDoneQuickly());
+		// The run stops and deletes its spill files
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (folder.getRoot().list().length > 0 && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testInvalidRequest() throws InterruptedException {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		new App(client, executor).publishDebts().subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.awaitDone());
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertTrue(subscriber.debts.isEmpty());
+	}
+
+	@Test
+	public void testFailedRun() throws InterruptedException {
+		client.failing = true;
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		new App(client, executor).publishDebts().subscribe(subscriber);
+		subscriber.subscription.request(1);
+		assertTrue(subscriber.awaitDone());
+		assertTrue(subscriber.error instanceof IOException);
+		assertEquals("Endpoint down", subscriber.error.getMessage());
+	}
+}
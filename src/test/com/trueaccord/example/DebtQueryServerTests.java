@@ -0,0 +1,198 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the DebtQueryServer over HTTP, with the debts of a
+ * SyntheticDataGenerator.
+ * 
+ * @author mpcheng
+ */
+public class DebtQueryServerTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final SyntheticDataGenerator generator = new SyntheticDataGenerator(9L, 2000, 1500, 6);
+	private final HttpClient http = HttpClient.newHttpClient();
+	private GrowingPaymentsClient client;
+	private Path snapshotFile;
+	private DebtQueryServer server;
+
+	/**
+	 * Serves the payments endpoint up to a number of payments which can grow,
+	 * standing in for an append only feed.
+	 */
+	private class GrowingPaymentsClient extends SyntheticHttpGetClient {
+		private volatile int numberOfPayments;
+		private volatile boolean failing;
+
+		GrowingPaymentsClient(int numberOfPayments) {
+			super(generator);
+			this.numberOfPayments = numberOfPayments;
+		}
+
+		@Override
+		public InputStream fetchEndPointAsStream(String url) {
+			if (this.failing) {
+				throw new IllegalStateException("Endpoint down");
+			}
+			if (!HttpGetClient.PAYMENTS_ENDPOINT.equals(url)) {
+				return super.fetchEndPointAsStream(url);
+			}
+			return new ByteArrayInputStream(generator.generate(url, 0, this.numberOfPayments));
+		}
+	}
+
+	@Before
+	public void setup() throws IOException, InterruptedException {
+		client = new GrowingPaymentsClient(generator.getNumberOfPayments() / 2);
+		snapshotFile = folder.getRoot().toPath().resolve("debts.snapshot");
+		server = new DebtQueryServer(new App(client, Runnable::run), snapshotFile, 0);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testGetDebt() throws IOException, InterruptedException {
+		Map<Integer, Debt> debts = new App(client).processDebts();
+		for (Debt debt : new Debt[] { debts.get(0), debts.get(1), debts.get(1234), debts.get(1999) }) {
+			HttpResponse<String> response = get("/debts/" + debt.getId());
+			assertEquals(200, response.statusCode());
+			assertEquals(JsonLinesWriter.toJsonLine(debt) + "\n", response.body());
+		}
+		assertEquals(4, server.getLookups());
+		assertEquals(1, server.getReloads());
+	}
+
+	@Test
+	public void testUnknownDebt() throws IOException, InterruptedException {
+		assertEquals(404, get("/debts/2000").statusCode());
+		assertEquals(404, get("/debts/abc").statusCode());
+		assertEquals(404, get("/debts/1/2").statusCode());
+		assertEquals(405, http.send(HttpRequest.newBuilder(URI.create(server.getUrl("/debts/1")))
+				.DELETE().build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+	}
+
+	@Test
+	public void testBatchLookup() throws IOException, InterruptedException {
+		Map<Integer, Debt> debts = new App(client).processDebts();
+		String expected = JsonLinesWriter.toJsonLine(debts.get(7)) + "\n" + JsonLinesWriter.toJsonLine(debts.get(3))
+				+ "\n";
+
+		HttpResponse<String> response = get("/debts?ids=7,99999,3");
+		assertEquals(200, response.statusCode());
+		assertEquals(expected, response.body());
+		response = http.send(HttpRequest.newBuilder(URI.create(server.getUrl("/debts")))
+				.POST(HttpRequest.BodyPublishers.ofString("7\n99999 3")).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, response.statusCode());
+		assertEquals(expected, response.body());
+		assertEquals("", get("/debts?ids=").body());
+		assertEquals(400, get("/debts?ids=1,x").statusCode());
+	}
+
+	@Test
+	public void testReloadOnDemand() throws IOException, InterruptedException {
+		client.numberOfPayments = generator.getNumberOfPayments();
+		HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(server.getUrl("/reload")))
+				.POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, response.statusCode());
+		assertEquals("{\"debts\":2000,\"reloads\":2}\n", response.body());
+		assertEquals(generator.getNumberOfPayments(), server.getSnapshot().getPaymentsWatermark());
+
+		Map<Integer, Debt> debts = new App(new SyntheticHttpGetClient(generator)).processDebts();
+		for (Debt debt : debts.values()) {
+			if (debt.getId() % 97 == 0) {
+				assertEquals(JsonLinesWriter.toJsonLine(debt) + "\n", get("/debts/" + debt.getId()).body());
+			}
+		}
+	}
+
+	@Test
+	public void testScheduledReload() throws InterruptedException {
+		client.numberOfPayments = generator.getNumberOfPayments();
+		server.scheduleReloads(Duration.ofMillis(20));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (server.getReloads() < 3 && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		assertTrue(server.getReloads() >= 3);
+		assertEquals(generator.getNumberOfPayments(), server.getSnapshot().getPaymentsWatermark());
+	}
+
+	@Test
+	public void testFailedReloadKeepsServing() throws IOException, InterruptedException {
+		DebtSnapshot before = server.getSnapshot();
+		client.failing = true;
+		HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(server.getUrl("/reload")))
+				.POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(500, response.statusCode());
+		assertTrue(response.body().contains("Endpoint down"));
+		assertNotNull(server.getLastReloadFailure());
+		assertSame(before, server.getSnapshot());
+		assertEquals(200, get("/debts/1").statusCode());
+
+		client.failing = false;
+		server.reload();
+		assertNull(server.getLastReloadFailure());
+	}
+
+	@Test
+	public void testRestartServesSnapshot() throws IOException, InterruptedException {
+		server.close();
+		assertTrue(Files.exists(snapshotFile));
+		client.failing = true;
+		// Served from the file, without fetching
+		server = new DebtQueryServer(new App(client, Runnable::run), snapshotFile, 0);
+		assertEquals(0, server.getReloads());
+		assertEquals(200, get("/debts/5").statusCode());
+	}
+
+	@Test
+	public void testConcurrentLookups() throws IOException, InterruptedException {
+		List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			responses.add(http.sendAsync(HttpRequest.newBuilder(URI.create(server.getUrl("/debts/" + i))).build(),
+					HttpResponse.BodyHandlers.ofString()));
+		}
+		for (int i = 0; i < responses.size(); i++) {
+			HttpResponse<String> response = responses.get(i).join();
+			assertEquals(200, response.statusCode());
+			assertTrue(response.body().startsWith("{\"id\":" + i + ","));
+		}
+	}
+
+	private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+		return http.send(HttpRequest.newBuilder(URI.create(server.getUrl(path))).build(),
+				HttpResponse.BodyHandlers.ofString());
+	}
+}
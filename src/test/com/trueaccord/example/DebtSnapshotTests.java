@@ -0,0 +1,148 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.trueaccord.example.PaymentPlan.Frequency;
+
+/**
+ * Tests writing and reopening a DebtSnapshot.
+ * 
+ * @author mpcheng
+ */
+public class DebtSnapshotTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRendersSameJsonLines() throws IOException, InterruptedException {
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(3L, 2000, 1500, 6);
+		Map<Integer, Debt> debts = new App(new SyntheticHttpGetClient(generator)).processDebts();
+		Path path = folder.getRoot().toPath().resolve("debts.snapshot");
+		DebtSnapshot.write(debts, path);
+		DebtSnapshot snapshot = DebtSnapshot.open(path);
+
+		assertEquals(debts.size(), snapshot.size());
+		assertEquals(jsonLines(debts), jsonLines(snapshot));
+		Map<Integer, Debt> rebuilt = new TreeMap<Integer, Debt>();
+		for (int i = 0; i < snapshot.size(); i++) {
+			rebuilt.put(snapshot.getId(i), snapshot.toDebt(i));
+		}
+		AppSyntheticTests.assertSameJsonLines(debts, rebuilt);
+	}
+
+	@Test
+	public void testMockDebts() throws IOException, InterruptedException {
+		Map<Integer, Debt> debts = new App(new HttpGetClientMock()).processDebts();
+		Path path = folder.getRoot().toPath().resolve("mock.snapshot");
+		DebtSnapshot.write(debts, path);
+		assertEquals(jsonLines(debts), jsonLines(DebtSnapshot.open(path)));
+	}
+
+	@Test
+	public void testLookupAndLargeAmounts() throws IOException {
+		Map<Integer, Debt> debts = new TreeMap<Integer, Debt>();
+		BigDecimal huge = new BigDecimal("123456789012345678901234567890.125");
+		debts.put(30, new Debt(30, huge));
+		debts.put(-5, new Debt(-5, new BigDecimal("1E+3")));
+		Debt inPlan = new Debt(12, new BigDecimal("100.00"));
+		PaymentPlan paymentPlan = new PaymentPlan(7, 12, new BigDecimal("90"), new BigDecimal("1E-200"),
+				Frequency.BI_WEEKLY, 18628, false);
+		paymentPlan.processPayment(18640, new BigDecimal("40.005"));
+		inPlan.setPaymentPlan(paymentPlan);
+		debts.put(12, inPlan);
+		Path path = folder.getRoot().toPath().resolve("small.snapshot");
+		DebtSnapshot.write(debts, path);
+		DebtSnapshot snapshot = DebtSnapshot.open(path);
+
+		assertEquals(0, snapshot.indexOf(-5));
+		assertEquals(1, snapshot.indexOf(12));
+		assertEquals(2, snapshot.indexOf(30));
+		assertEquals(-1, snapshot.indexOf(13));
+		assertEquals(new BigDecimal("1E+3"), snapshot.getAmount(0));
+		assertEquals(huge, snapshot.getAmount(2));
+		assertFalse(snapshot.isInPaymentPlan(2));
+		assertNull(snapshot.getNextPaymentDueDate(2));
+		assertTrue(snapshot.isInPaymentPlan(1));
+		assertEquals(new BigDecimal("49.995"), snapshot.getRemainingAmount(1));
+		assertEquals(inPlan.getNextPaymentDueDate(), snapshot.getNextPaymentDueDate(1));
+		Debt rebuilt = snapshot.toDebt(1);
+		assertEquals(new BigDecimal("1E-200"), rebuilt.getPaymentPlan().getInstallmentAmount());
+		assertEquals(inPlan.asJsonLine(), rebuilt.asJsonLine());
+		assertThrows(IndexOutOfBoundsException.class, () -> snapshot.getId(3));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("empty.snapshot");
+		DebtSnapshot.write(new TreeMap<Integer, Debt>(), path);
+		DebtSnapshot snapshot = DebtSnapshot.open(path);
+		assertEquals(0, snapshot.size());
+		assertEquals(-1, snapshot.indexOf(1));
+	}
+
+	@Test
+	public void testRejectsInvalidFiles() throws IOException {
+		Map<Integer, Debt> debts = new TreeMap<Integer, Debt>();
+		debts.put(1, new Debt(1, new BigDecimal("10.5")));
+		Path path = folder.getRoot().toPath().resolve("debts.snapshot");
+		DebtSnapshot.write(debts, path);
+		byte[] valid = Files.readAllBytes(path);
+
+		byte[] corrupt = valid.clone();
+		corrupt[corrupt.length - 60] ^= 1;
+		assertInvalid(corrupt, "checksum");
+
+		byte[] version = valid.clone();
+		version[7] = 1;
+		assertInvalid(version, "version 1");
+
+		byte[] truncated = new byte[valid.length - 1];
+		System.arraycopy(valid, 0, truncated, 0, truncated.length);
+		assertInvalid(truncated, "Truncated");
+
+		assertInvalid("[{\"id\":1}]".getBytes(StandardCharsets.US_ASCII), "Not a debt snapshot");
+	}
+
+	private void assertInvalid(byte[] bytes, String message) throws IOException {
+		Path path = folder.newFile().toPath();
+		Files.write(path, bytes);
+		IOException e = assertThrows(IOException.class, () -> DebtSnapshot.open(path));
+		assertTrue(e.getMessage(), e.getMessage().contains(message));
+	}
+
+	private static String jsonLines(Map<Integer, Debt> debts) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonLinesWriter writer = new JsonLinesWriter(out);
+		for (Debt debt : debts.values()) {
+			writer.write(debt);
+		}
+		writer.flush();
+		return out.toString(StandardCharsets.US_ASCII.name());
+	}
+
+	private static String jsonLines(DebtSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonLinesWriter writer = new JsonLinesWriter(out);
+		snapshot.writeJsonLines(writer);
+		writer.flush();
+		return out.toString(StandardCharsets.US_ASCII.name());
+	}
+}
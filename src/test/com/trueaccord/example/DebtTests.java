@@ -186,4 +186,10 @@ public class DebtTests {
 				BigDecimal.valueOf(Double.valueOf(jsonObject.get(REMAINING_AMOUNT).toString())));
 		assertEquals("2021-01-15", jsonObject.get(NEXT_PAYMENT_DUE_DATE));
 	}
+
+	@Test
+	public void testAsJsonLineNoPaymentPlan() {
+		assertEquals("{\"id\":0,\"amount\":2000,\"is_in_payment_plan\":false,\"remaining_amount\":2000,"
+				+ "\"next_payment_due_date\":null}", debt.asJsonLine());
+	}
 }
@@ -0,0 +1,185 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for EndpointReader class.
+ * 
+ * @author mpcheng
+ * 
+ */
+public class EndpointReaderTests {
+
+	private static final int NUMBER_OF_PAYMENTS = new JSONArray(readPayments()).length();
+
+	/**
+	 * Mock client which records the highest page requested so far.
+	 */
+	private static class PageCountingClient extends HttpGetClientMock {
+		private final AtomicInteger highestPageRequested = new AtomicInteger();
+
+		@Override
+		public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+			highestPageRequested.accumulateAndGet(page, Math::max);
+			return super.fetchPageAsync(url, page, pageSize);
+		}
+	}
+
+	@Test
+	public void testUnpaged() throws IOException, InterruptedException {
+		List<String> records = new ArrayList<String>();
+		try (EndpointReader reader = new EndpointReader(new HttpGetClientMock(), HttpGetClient.PAYMENTS_ENDPOINT, 0,
+				AppOptions.DEFAULT_MAX_PAGES_IN_FLIGHT)) {
+			assertEquals(NUMBER_OF_PAYMENTS, reader.forEach(json -> records.add(json.toString())));
+		}
+		assertEquals(expectedRecords(), records);
+	}
+
+	@Test
+	public void testPagedMatchesUnpaged() throws IOException, InterruptedException {
+		for (int pageSize = 1; pageSize <= NUMBER_OF_PAYMENTS + 1; pageSize++) {
+			List<String> records = new ArrayList<String>();
+			try (EndpointReader reader = new EndpointReader(new HttpGetClientMock(), HttpGetClient.PAYMENTS_ENDPOINT,
+					pageSize, 3)) {
+				assertEquals(NUMBER_OF_PAYMENTS, reader.forEach(json -> records.add(json.toString())));
+			}
+			assertEquals("Page size " + pageSize, expectedRecords(), records);
+		}
+	}
+
+	@Test
+	public void testPagingIgnored() throws IOException, InterruptedException {
+		// Returns every record for any page, as a server without paging would
+		HttpGetClient client = new HttpGetClientMock() {
+			@Override
+			public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+				return fetchEndPointAsync(url);
+			}
+		};
+		for (int pageSize : new int[] { 1, NUMBER_OF_PAYMENTS, NUMBER_OF_PAYMENTS + 1 }) {
+			List<String> records = new ArrayList<String>();
+			try (EndpointReader reader = new EndpointReader(client, HttpGetClient.PAYMENTS_ENDPOINT, pageSize, 3)) {
+				assertEquals(NUMBER_OF_PAYMENTS, reader.forEach(json -> records.add(json.toString())));
+			}
+			assertEquals("Page size " + pageSize, expectedRecords(), records);
+		}
+	}
+
+	@Test
+	public void testSecondPageStartingLikeFirst() throws IOException, InterruptedException {
+		// Pages of two records, the second starting with the same record as the first
+		HttpGetClient client = new HttpGetClientMock() {
+			@Override
+			public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+				String[] pages = { "[{\"a\":1},{\"a\":2}]", "[{\"a\":1},{\"a\":3}]", "[{\"a\":1}]", "[]" };
+				return CompletableFuture.completedFuture(
+						new ByteArrayInputStream(pages[Math.min(page, 4) - 1].getBytes(StandardCharsets.UTF_8)));
+			}
+		};
+		List<String> records = new ArrayList<String>();
+		try (EndpointReader reader = new EndpointReader(client, HttpGetClient.PAYMENTS_ENDPOINT, 2, 3)) {
+			assertEquals(5, reader.forEach(json -> records.add(json.toString())));
+		}
+		assertEquals(List.of("{\"a\":1}", "{\"a\":2}", "{\"a\":1}", "{\"a\":3}", "{\"a\":1}"), records);
+	}
+
+	@Test
+	public void testIdenticalConsecutiveRecords() throws IOException, InterruptedException {
+		// Honours paging, with the first two payments alike
+		String payments = "[{\"payment_plan_id\":0,\"amount\":10,\"date\":\"2021-01-01\"},"
+				+ "{\"payment_plan_id\":0,\"amount\":10,\"date\":\"2021-01-01\"},"
+				+ "{\"payment_plan_id\":0,\"amount\":7,\"date\":\"2021-01-08\"}]";
+		HttpGetClient client = new HttpGetClientMock() {
+			@Override
+			public String fetchEndPoint(String url) {
+				return payments;
+			}
+		};
+		for (int pageSize = 1; pageSize <= 4; pageSize++) {
+			List<String> records = new ArrayList<String>();
+			try (EndpointReader reader = new EndpointReader(client, HttpGetClient.PAYMENTS_ENDPOINT, pageSize, 3)) {
+				assertEquals("Page size " + pageSize, 3, reader.forEach(json -> records.add(json.toString())));
+			}
+			assertEquals(records.get(0), records.get(1));
+		}
+	}
+
+	@Test
+	public void testBoundedPagesInFlight() throws IOException, InterruptedException {
+		int pageSize = 2;
+		int maxPagesInFlight = 3;
+		PageCountingClient client = new PageCountingClient();
+		AtomicInteger recordNumber = new AtomicInteger();
+		try (EndpointReader reader = new EndpointReader(client, HttpGetClient.PAYMENTS_ENDPOINT, pageSize,
+				maxPagesInFlight)) {
+			reader.forEach(json -> {
+				int page = recordNumber.getAndIncrement() / pageSize + 1;
+				assertTrue(client.highestPageRequested.get() <= page + maxPagesInFlight - 1);
+			});
+		}
+		assertEquals(NUMBER_OF_PAYMENTS, recordNumber.get());
+	}
+
+	@Test
+	public void testFirstRecord() throws IOException, InterruptedException {
+		List<String> expected = expectedRecords();
+		for (int pageSize = 0; pageSize <= NUMBER_OF_PAYMENTS + 1; pageSize++) {
+			for (int firstRecord = 0; firstRecord <= NUMBER_OF_PAYMENTS; firstRecord++) {
+				List<String> records = new ArrayList<String>();
+				try (EndpointReader reader = new EndpointReader(new HttpGetClientMock(),
+						HttpGetClient.PAYMENTS_ENDPOINT, pageSize, 2, firstRecord)) {
+					assertEquals(NUMBER_OF_PAYMENTS - firstRecord, reader.forEach(json -> records.add(json.toString())));
+					assertEquals(firstRecord, reader.getRecordsSkipped());
+					assertEquals(NUMBER_OF_PAYMENTS - firstRecord, reader.getRecordsRead());
+				}
+				assertEquals("Page size " + pageSize + ", first record " + firstRecord,
+						expected.subList(firstRecord, NUMBER_OF_PAYMENTS), records);
+			}
+		}
+	}
+
+	@Test
+	public void testFirstRecordPastTheEnd() throws IOException, InterruptedException {
+		for (int pageSize = 0; pageSize <= 3; pageSize++) {
+			for (int firstRecord = NUMBER_OF_PAYMENTS + 1; firstRecord <= NUMBER_OF_PAYMENTS + 6; firstRecord++) {
+				try (EndpointReader reader = new EndpointReader(new HttpGetClientMock(),
+						HttpGetClient.PAYMENTS_ENDPOINT, pageSize, 2, firstRecord)) {
+					assertEquals(0, reader.forEach(json -> {
+					}));
+					assertTrue("Page size " + pageSize + ", first record " + firstRecord,
+							reader.getRecordsSkipped() < firstRecord);
+				}
+			}
+		}
+	}
+
+	private static List<String> expectedRecords() {
+		List<String> records = new ArrayList<String>();
+		for (Object record : new JSONArray(readPayments())) {
+			records.add(((JSONObject) record).toString());
+		}
+		return records;
+	}
+
+	private static String readPayments() {
+		try {
+			return new HttpGetClientMock().fetchEndPoint(HttpGetClient.PAYMENTS_ENDPOINT);
+		} catch (IOException | InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -1,8 +1,13 @@
 package com.trueaccord.example;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -39,4 +44,20 @@ public class HttpGetClientImplTests {
 		String body = client.fetchEndPoint(HttpGetClient.PAYMENTS_ENDPOINT);
 		assertNotNull(body);
 	}
+
+	@Test
+	public void testDefaultHttpClientIsShared() {
+		assertSame(new HttpGetClientImpl().getHttpClient(), new HttpGetClientImpl().getHttpClient());
+		assertEquals(HttpGetClientImpl.DEFAULT_REQUEST_TIMEOUT, new HttpGetClientImpl().getRequestTimeout());
+	}
+
+	@Test
+	public void testConfiguredHttpClient() {
+		HttpGetClientImpl configured = new HttpGetClientImpl(Duration.ofSeconds(1), Duration.ofSeconds(10), null);
+		HttpClient httpClient = configured.getHttpClient();
+		assertNotSame(new HttpGetClientImpl().getHttpClient(), httpClient);
+		assertEquals(HttpClient.Version.HTTP_2, httpClient.version());
+		assertEquals(Duration.ofSeconds(1), httpClient.connectTimeout().get());
+		assertEquals(Duration.ofSeconds(10), configured.getRequestTimeout());
+	}
 }
@@ -1,8 +1,15 @@
 package com.trueaccord.example;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONArray;
 
 /**
  * A mock implementation of HttpGetClient that returns json not from a service endpoint but rather mocked json files.
@@ -16,6 +23,46 @@ public class HttpGetClientMock implements HttpGetClient {
 		return Files.readString(Path.of(System.getProperty("user.dir") + filePath));
 	}
 
+	@Override
+	public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException {
+		String filePath = getFileForUrl(url);
+		return Files.newInputStream(Path.of(System.getProperty("user.dir") + filePath));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return fetchEndPointAsStream(url);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				JSONArray records = new JSONArray(fetchEndPoint(url));
+				JSONArray pageOfRecords = new JSONArray();
+				int from = (page - 1) * pageSize;
+				for (int i = from; i < Math.min(from + pageSize, records.length()); i++) {
+					pageOfRecords.put(records.get(i));
+				}
+				return new ByteArrayInputStream(pageOfRecords.toString().getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
 	private String getFileForUrl(String url) {
 		switch (url) {
 		case HttpGetClient.DEBT_ENDPOINT:
@@ -4,6 +4,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThrows;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -42,6 +45,30 @@ public class HttpGetClientMockTests {
 		assertNotNull(body);
 	}
 
+	@Test
+	public void testGetPaymentsAsStream() throws IOException, InterruptedException {
+		try (InputStream body = client.fetchEndPointAsStream(HttpGetClient.PAYMENTS_ENDPOINT)) {
+			assertNotNull(body);
+			assertNotNull(body.readAllBytes());
+		}
+	}
+
+	@Test
+	public void testGetDebtsAsync() throws IOException, InterruptedException, ExecutionException {
+		try (InputStream body = client.fetchEndPointAsync(HttpGetClient.DEBT_ENDPOINT).get()) {
+			assertNotNull(body);
+			assertNotNull(body.readAllBytes());
+		}
+	}
+
+	@Test
+	public void testGetFakeUrlAsync() {
+		CompletableFuture<InputStream> body = client.fetchEndPointAsync(FAKE_ENDPOINT);
+		assertThrows(ExecutionException.class, () -> {
+			body.get();
+		});
+	}
+
 	@Test
 	public void testGetFakeUrl() throws IOException, InterruptedException {
 		assertThrows(Exception.class, () -> {
@@ -0,0 +1,163 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Tests for IntObjectMap class.
+ * 
+ * @author mpcheng
+ */
+public class IntObjectMapTests {
+
+	@Test
+	public void testPutAndGet() {
+		IntObjectMap<String> map = new IntObjectMap<String>();
+		assertNull(map.put(1, "one"));
+		assertNull(map.put(-1, "minus one"));
+		assertNull(map.put(0, "zero"));
+		assertEquals("one", map.put(1, "uno"));
+		assertEquals(3, map.size());
+		assertEquals("uno", map.get(1));
+		assertEquals("minus one", map.get(-1));
+		assertEquals("zero", map.get(Integer.valueOf(0)));
+		assertNull(map.get(2));
+		assertNull(map.get("1"));
+		assertTrue(map.containsKey(0));
+		assertFalse(map.containsKey(Integer.MIN_VALUE));
+	}
+
+	@Test
+	public void testMatchesTreeMap() {
+		SplittableRandom random = new SplittableRandom(17);
+		IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < 100000; i++) {
+			// Dense ids as in the feeds, and sparse ones with collisions
+			int key = i % 2 == 0 ? i / 2 : random.nextInt();
+			map.put(key, Integer.valueOf(i));
+			expected.put(key, i);
+		}
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), new ArrayList<Integer>(map.keySet()));
+		assertEquals(new ArrayList<Integer>(expected.values()), new ArrayList<Integer>(map.values()));
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey().intValue()));
+		}
+	}
+
+	@Test
+	public void testIteratedByKeyAfterChanges() {
+		IntObjectMap<String> map = new IntObjectMap<String>(2);
+		map.put(30, "c");
+		map.put(10, "a");
+		assertEquals(List.of("a", "c"), new ArrayList<String>(map.values()));
+		map.put(20, "b");
+		assertEquals(List.of(10, 20, 30), new ArrayList<Integer>(map.keySet()));
+		List<String> unordered = new ArrayList<String>();
+		map.forEachValue(unordered::add);
+		assertEquals(3, unordered.size());
+		assertTrue(unordered.containsAll(List.of("a", "b", "c")));
+	}
+
+	@Test
+	public void testModificationDuringIteration() {
+		IntObjectMap<String> map = new IntObjectMap<String>();
+		map.put(1, "a");
+		map.put(2, "b");
+		Iterator<String> values = map.values().iterator();
+		values.next();
+		map.put(2, "replaced");
+		assertEquals("replaced", values.next());
+		Iterator<String> again = map.values().iterator();
+		map.put(3, "c");
+		assertThrows(ConcurrentModificationException.class, again::next);
+	}
+
+	@Test
+	public void testRemoveMatchesTreeMap() {
+		SplittableRandom random = new SplittableRandom(23);
+		IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < 200000; i++) {
+			// Few keys, so removals hit long probe sequences as well as missing keys
+			int key = random.nextInt(4096) - 2048;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, i), map.put(key, Integer.valueOf(i)));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		assertEquals(expected, map);
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey().intValue()));
+		}
+	}
+
+	@Test
+	public void testRemoveWhileIterating() {
+		SplittableRandom random = new SplittableRandom(29);
+		IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt();
+			map.put(key, Integer.valueOf(i));
+			expected.put(key, i);
+		}
+		assertTrue(map.values().removeIf(value -> value % 3 == 0));
+		expected.values().removeIf(value -> value % 3 == 0);
+		assertEquals(expected, map);
+		assertEquals(new ArrayList<Integer>(expected.keySet()), new ArrayList<Integer>(map.keySet()));
+
+		Iterator<Map.Entry<Integer, Integer>> entries = map.entrySet().iterator();
+		List<Integer> seen = new ArrayList<Integer>();
+		while (entries.hasNext()) {
+			Map.Entry<Integer, Integer> entry = entries.next();
+			seen.add(entry.getKey());
+			if (entry.getValue() % 2 == 0) {
+				entries.remove();
+				assertThrows(IllegalStateException.class, entries::remove);
+			}
+		}
+		// Every entry seen once, in order, despite the entries moved back
+		assertEquals(new ArrayList<Integer>(expected.keySet()), seen);
+		expected.values().removeIf(value -> value % 2 == 0);
+		assertEquals(expected, map);
+
+		Integer first = expected.firstKey();
+		assertTrue(map.keySet().remove(first));
+		assertFalse(map.keySet().remove(first));
+		expected.remove(first);
+		assertEquals(expected, map);
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey().intValue()));
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		IntObjectMap<String> map = new IntObjectMap<String>();
+		map.put(1, "a");
+		assertThrows(NullPointerException.class, () -> map.put(2, null));
+		assertThrows(IllegalArgumentException.class, () -> new IntObjectMap<String>(-1));
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(1));
+	}
+}
@@ -0,0 +1,91 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for JsonArrayReader class.
+ * 
+ * @author mpcheng
+ * 
+ */
+public class JsonArrayReaderTests {
+
+	@Test
+	public void testReadsEachObjectInOrder() throws IOException {
+		String json = "[ {\"id\": 0, \"amount\": 12.5}, {\"id\": 1, \"amount\": 100} ]";
+		List<JSONObject> objects = new ArrayList<JSONObject>();
+		try (JsonArrayReader reader = new JsonArrayReader(
+				new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+			assertEquals(2, reader.forEach(objects::add));
+		}
+		assertEquals(0, objects.get(0).getInt("id"));
+		assertEquals("12.5", objects.get(0).getBigDecimal("amount").toString());
+		assertEquals(1, objects.get(1).getInt("id"));
+	}
+
+	@Test
+	public void testEmptyArray() throws IOException {
+		try (JsonArrayReader reader = new JsonArrayReader(new StringReader(" [ ] "))) {
+			assertEquals(0, reader.forEach(object -> {
+				throw new AssertionError("No objects expected");
+			}));
+		}
+	}
+
+	@Test
+	public void testNotAnArray() throws IOException {
+		try (JsonArrayReader reader = new JsonArrayReader(new StringReader("{\"id\": 0}"))) {
+			assertThrows(JSONException.class, () -> {
+				reader.forEach(object -> {
+				});
+			});
+		}
+	}
+
+	@Test
+	public void testMissingSeparator() throws IOException {
+		try (JsonArrayReader reader = new JsonArrayReader(new StringReader("[{\"id\": 0} {\"id\": 1}]"))) {
+			assertThrows(JSONException.class, () -> {
+				reader.forEach(object -> {
+				});
+			});
+		}
+	}
+
+	@Test
+	public void testByteBufferMatchesStream() throws IOException {
+		// Several decoding blocks, with multi-byte characters across their boundaries
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 2000; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"id\": ").append(i).append(", \"name\": \"d\u00e9bt \u20ac ")
+					.append(new String(Character.toChars(0x1F4B0))).append("\"}");
+		}
+		byte[] bytes = json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+		List<String> expected = new ArrayList<String>();
+		try (JsonArrayReader reader = new JsonArrayReader(new ByteArrayInputStream(bytes))) {
+			reader.forEach(object -> expected.add(object.toString()));
+		}
+		for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.wrap(bytes),
+				ByteBuffer.allocateDirect(bytes.length).put(bytes).flip() }) {
+			List<String> objects = new ArrayList<String>();
+			try (JsonArrayReader reader = new JsonArrayReader(buffer)) {
+				assertEquals(2000, reader.forEach(object -> objects.add(object.toString())));
+			}
+			assertEquals(expected, objects);
+			assertEquals(0, buffer.position());
+		}
+	}
+}
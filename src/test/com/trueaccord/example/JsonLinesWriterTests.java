@@ -0,0 +1,126 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for JsonLinesWriter class.
+ * 
+ * @author mpcheng
+ * 
+ */
+public class JsonLinesWriterTests {
+
+	@Test
+	public void testWriteLine() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonLinesWriter writer = new JsonLinesWriter(out)) {
+			writer.write(7, new BigDecimal("100.50"), true, new BigDecimal("12.345"), "2021-01-15");
+		}
+		assertEquals("{\"id\":7,\"amount\":100.5,\"is_in_payment_plan\":true,\"remaining_amount\":12.345,"
+				+ "\"next_payment_due_date\":\"2021-01-15\"}\n", out.toString(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testWriteNullNextPaymentDueDate() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonLinesWriter writer = new JsonLinesWriter(out)) {
+			writer.write(-12, new BigDecimal("100.00"), false, new BigDecimal("-2.50"), null);
+		}
+		assertEquals("{\"id\":-12,\"amount\":100,\"is_in_payment_plan\":false,\"remaining_amount\":-2.5,"
+				+ "\"next_payment_due_date\":null}\n", out.toString(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testNumbersMatchJSONObject() throws IOException {
+		BigDecimal[] numbers = { BigDecimal.ZERO, new BigDecimal("0.000"), new BigDecimal("1E+3"),
+				new BigDecimal("1.5E-9"), BigDecimal.valueOf(1000000.00), new BigDecimal("622.4150"),
+				new BigDecimal("-0.1") };
+		for (BigDecimal number : numbers) {
+			String expected = new JSONObject().put("amount", number).toString();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (JsonLinesWriter writer = new JsonLinesWriter(out)) {
+				writer.write(1, number, false, number, null);
+			}
+			String line = out.toString(StandardCharsets.US_ASCII);
+			String written = line.substring(line.indexOf(",\"amount\":") + 1, line.indexOf(",\"is_in_payment_plan\""));
+			assertEquals(expected, "{" + written + "}");
+		}
+	}
+
+	@Test
+	public void testIntegerBounds() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonLinesWriter writer = new JsonLinesWriter(out)) {
+			writer.write(Integer.MIN_VALUE, BigDecimal.ONE, false, BigDecimal.ONE, null);
+			writer.write(Integer.MAX_VALUE, BigDecimal.ONE, false, BigDecimal.ONE, null);
+			writer.write(0, BigDecimal.ONE, false, BigDecimal.ONE, null);
+		}
+		String[] lines = out.toString(StandardCharsets.US_ASCII).split("\n");
+		assertEquals(Integer.MIN_VALUE, new JSONObject(lines[0]).getInt("id"));
+		assertEquals(Integer.MAX_VALUE, new JSONObject(lines[1]).getInt("id"));
+		assertEquals(0, new JSONObject(lines[2]).getInt("id"));
+	}
+
+	@Test
+	public void testLinesSpanningBufferFlushes() throws IOException {
+		ByteArrayOutputStream small = new ByteArrayOutputStream();
+		ByteArrayOutputStream large = new ByteArrayOutputStream();
+		try (JsonLinesWriter smallWriter = new JsonLinesWriter(small, 16);
+				JsonLinesWriter largeWriter = new JsonLinesWriter(large)) {
+			for (int i = 0; i < 1000; i++) {
+				BigDecimal amount = BigDecimal.valueOf(i * 1234567L, i % 7);
+				smallWriter.write(i, amount, i % 2 == 0, amount.negate(), i % 3 == 0 ? null : "2021-01-15");
+				largeWriter.write(i, amount, i % 2 == 0, amount.negate(), i % 3 == 0 ? null : "2021-01-15");
+			}
+		}
+		assertEquals(large.toString(StandardCharsets.US_ASCII), small.toString(StandardCharsets.US_ASCII));
+		assertEquals(1000, large.toString(StandardCharsets.US_ASCII).split("\n").length);
+	}
+
+	@Test
+	public void testWriteAllInBatches() throws IOException, InterruptedException {
+		List<Debt> debts = new ArrayList<Debt>();
+		for (int i = 0; i < JsonLinesWriter.RENDER_BATCH_SIZE * 70 + 5; i++) {
+			debts.add(new Debt(i, BigDecimal.valueOf(i, 2)));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (List<Debt> batch : List.of(debts.subList(0, 10), debts)) {
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+				try (JsonLinesWriter expectedWriter = new JsonLinesWriter(expected);
+						JsonLinesWriter writer = new JsonLinesWriter(rendered)) {
+					expectedWriter.write(-1, BigDecimal.ONE, false, BigDecimal.ONE, null);
+					writer.write(-1, BigDecimal.ONE, false, BigDecimal.ONE, null);
+					for (Debt debt : batch) {
+						expectedWriter.write(debt);
+					}
+					writer.writeAll(batch, executor);
+				}
+				assertEquals(expected.toString(StandardCharsets.US_ASCII), rendered.toString(StandardCharsets.US_ASCII));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBufferTooSmall() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new JsonLinesWriter(new ByteArrayOutputStream(), 8);
+		});
+	}
+}
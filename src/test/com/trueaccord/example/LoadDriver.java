@@ -0,0 +1,394 @@
+package com.trueaccord.example;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Drives App through HttpGetClientImpl against a LocalDebtServer, and reports
+ * the throughput, the latency percentiles of processDebts and the peak heap
+ * used. Run it with key=value arguments, for example:
+ * 
+ * <pre>
+ * java -cp ... com.trueaccord.example.LoadDriver debts=100000 plans=50000 paymentsPerPlan=12 runs=20 latencyMs=50
+ * </pre>
+ * 
+ * The keys are debts, plans, paymentsPerPlan, seed, runs, warmupRuns,
+ * concurrency, pageSize, pagesInFlight, paymentParallelism, latencyMs,
+ * bandwidth (bytes per second), errorRate, compression (gzip, deflate or none),
+ * requestTimeoutMs, retries (attempts per request, 1 to never retry), hedgeMs
+ * (0 to never hedge) and threads (virtual, platform, or both to run with each
+ * and compare them, skipping virtual threads before Java 21).
+ * 
+ * @author mpcheng
+ */
+public class LoadDriver {
+
+	private final SyntheticDataGenerator generator;
+	private AppOptions options = new AppOptions();
+	private int runs = 10;
+	private int warmupRuns = 2;
+	private int concurrency = 1;
+	private Duration latency = Duration.ZERO;
+	private long bandwidth;
+	private double errorRate;
+	private String compression = "gzip";
+	private Duration requestTimeout = Duration.ofSeconds(30);
+	private int retries = 1;
+	private Duration hedgeDelay;
+	private AppThreads threads = AppThreads.preferred();
+
+	/**
+	 * Constructor for the LoadDriver.
+	 * 
+	 * @param generator - the generator of the feeds served.
+	 */
+	public LoadDriver(SyntheticDataGenerator generator) {
+		this.generator = generator;
+	}
+
+	public LoadDriver setOptions(AppOptions options) {
+		this.options = options;
+		return this;
+	}
+
+	public LoadDriver setRuns(int runs) {
+		this.runs = runs;
+		return this;
+	}
+
+	public LoadDriver setWarmupRuns(int warmupRuns) {
+		this.warmupRuns = warmupRuns;
+		return this;
+	}
+
+	public LoadDriver setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("At least one run must be in flight: " + concurrency);
+		}
+		this.concurrency = concurrency;
+		return this;
+	}
+
+	public LoadDriver setLatency(Duration latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	public LoadDriver setBandwidth(long bytesPerSecond) {
+		this.bandwidth = bytesPerSecond;
+		return this;
+	}
+
+	public LoadDriver setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	public LoadDriver setCompression(String compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	public LoadDriver setRequestTimeout(Duration requestTimeout) {
+		this.requestTimeout = requestTimeout;
+		return this;
+	}
+
+	/**
+	 * Sets the attempts of each request through a ResilientHttpGetClient.
+	 * 
+	 * @param retries - the attempts of each request, 1 to never retry.
+	 * @return this driver.
+	 */
+	public LoadDriver setRetries(int retries) {
+		this.retries = retries;
+		return this;
+	}
+
+	/**
+	 * Sets the delay after which a ResilientHttpGetClient hedges a request.
+	 * 
+	 * @param hedgeDelay - the delay before hedging, or null to never hedge.
+	 * @return this driver.
+	 */
+	public LoadDriver setHedgeDelay(Duration hedgeDelay) {
+		this.hedgeDelay = hedgeDelay;
+		return this;
+	}
+
+	/**
+	 * Sets the threads App fetches and parses on, which also run the concurrent
+	 * runs.
+	 * 
+	 * @param threads - the threads to run on.
+	 * @return this driver.
+	 */
+	public LoadDriver setThreads(AppThreads threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Starts a server, runs App the warmup runs and then the measured runs
+	 * against it, and stops the server.
+	 * 
+	 * @return the measurements of the measured runs.
+	 * @throws IOException if the server cannot be started.
+	 */
+	public Result run() throws IOException {
+		try (LocalDebtServer server = new LocalDebtServer(this.generator)) {
+			server.setLatency(this.latency).setBandwidth(this.bandwidth).setErrorRate(this.errorRate, 0)
+					.setCompression(this.compression);
+			ExecutorService executor = App.newExecutor(this.threads);
+			HttpGetClient client = new RedirectingHttpGetClient(new HttpGetClientImpl(
+					HttpGetClientImpl.DEFAULT_CONNECT_TIMEOUT, this.requestTimeout, executor), server::getUrl);
+			if (this.retries > 1 || this.hedgeDelay != null) {
+				client = new ResilientHttpGetClient(client).setMaxAttempts(this.retries).setHedgeDelay(this.hedgeDelay);
+			}
+			try {
+				runAll(executor, client, this.warmupRuns);
+				List<MemoryPoolMXBean> heapPools = heapPools();
+				heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+				long bytesBefore = server.getBytesSent();
+				long requestsBefore = server.getRequests();
+				long start = System.nanoTime();
+				long[] latencies = runAll(executor, client, this.runs);
+				long elapsed = System.nanoTime() - start;
+				long peakHeap = 0;
+				for (MemoryPoolMXBean pool : heapPools) {
+					peakHeap += pool.getPeakUsage().getUsed();
+				}
+				long records = (long) this.generator.getNumberOfDebts() + this.generator.getNumberOfPaymentPlans()
+						+ this.generator.getNumberOfPayments();
+				return new Result(latencies, elapsed, records, server.getBytesSent() - bytesBefore,
+						server.getRequests() - requestsBefore, peakHeap);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Runs App the given number of times, at most concurrency at once.
+	 * 
+	 * @return the latency of each successful run in nanoseconds, or -1 for the
+	 *         failed runs.
+	 */
+	private long[] runAll(ExecutorService executor, HttpGetClient client, int count) {
+		AppOptions options = this.options.setThreads(this.threads);
+		Semaphore running = new Semaphore(this.concurrency);
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(count);
+		for (int i = 0; i < count; i++) {
+			futures.add(executor.submit(() -> {
+				running.acquire();
+				long start = System.nanoTime();
+				try {
+					new App(client, executor, options).processDebts();
+				} catch (IOException | RuntimeException e) {
+					return -1L;
+				} finally {
+					running.release();
+				}
+				return System.nanoTime() - start;
+			}));
+		}
+		long[] latencies = new long[count];
+		try {
+			for (int i = 0; i < count; i++) {
+				latencies[i] = futures.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return latencies;
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		return heapPools;
+	}
+
+	/**
+	 * Measurements of the runs of a LoadDriver.
+	 */
+	public static class Result {
+
+		private final long[] latencies;
+		private final int failures;
+		private final long elapsedNanos;
+		private final long recordsPerRun;
+		private final long bytes;
+		private final long requests;
+		private final long peakHeapBytes;
+
+		private Result(long[] latencies, long elapsedNanos, long recordsPerRun, long bytes, long requests,
+				long peakHeapBytes) {
+			this.latencies = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+			this.failures = latencies.length - this.latencies.length;
+			this.elapsedNanos = elapsedNanos;
+			this.recordsPerRun = recordsPerRun;
+			this.bytes = bytes;
+			this.requests = requests;
+			this.peakHeapBytes = peakHeapBytes;
+		}
+
+		public int getSuccesses() {
+			return this.latencies.length;
+		}
+
+		public int getFailures() {
+			return this.failures;
+		}
+
+		public long getRequests() {
+			return this.requests;
+		}
+
+		/**
+		 * Returns the successful runs per second.
+		 * 
+		 * @return the successful runs per second.
+		 */
+		public double getRunsPerSecond() {
+			return this.latencies.length * 1e9 / this.elapsedNanos;
+		}
+
+		/**
+		 * Returns the records of the successful runs processed per second.
+		 * 
+		 * @return the records processed per second.
+		 */
+		public double getRecordsPerSecond() {
+			return getRunsPerSecond() * this.recordsPerRun;
+		}
+
+		/**
+		 * Returns the bytes served per second, including failed runs.
+		 * 
+		 * @return the bytes served per second.
+		 */
+		public double getBytesPerSecond() {
+			return this.bytes * 1e9 / this.elapsedNanos;
+		}
+
+		/**
+		 * Returns a percentile of the latency of the successful runs, by the nearest
+		 * rank method.
+		 * 
+		 * @param percentile - the percentile, from 0 to 100.
+		 * @return the latency at the percentile, or null if every run failed.
+		 */
+		public Duration getLatency(double percentile) {
+			if (this.latencies.length == 0) {
+				return null;
+			}
+			int rank = (int) Math.ceil(percentile / 100 * this.latencies.length);
+			return Duration.ofNanos(this.latencies[Math.max(0, rank - 1)]);
+		}
+
+		/**
+		 * Returns the sum of the peak usage of each heap memory pool during the
+		 * measured runs. The server runs in the same JVM, so its buffers are
+		 * included.
+		 * 
+		 * @return the peak heap used in bytes.
+		 */
+		public long getPeakHeapBytes() {
+			return this.peakHeapBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"runs: %d ok, %d failed, %d requests%n" + "throughput: %.2f runs/s, %.0f records/s, %.1f MB/s%n"
+							+ "latency: p50 %s, p90 %s, p99 %s, max %s%n" + "peak heap: %.1f MB",
+					getSuccesses(), getFailures(), getRequests(), getRunsPerSecond(), getRecordsPerSecond(),
+					getBytesPerSecond() / 1e6, millis(getLatency(50)), millis(getLatency(90)), millis(getLatency(99)),
+					millis(getLatency(100)), this.peakHeapBytes / 1e6);
+		}
+
+		private static String millis(Duration duration) {
+			return duration == null ? "-" : String.format(Locale.ROOT, "%.1f ms", duration.toNanos() / 1e6);
+		}
+	}
+
+	/**
+	 * Runs the load driver with the key=value arguments described above and prints
+	 * the result.
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Map<String, String> arguments = new HashMap<String, String>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0) {
+				throw new IllegalArgumentException("Expected key=value: " + arg);
+			}
+			arguments.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		SyntheticDataGenerator generator = new SyntheticDataGenerator(
+				Long.parseLong(arguments.getOrDefault("seed", "42")),
+				Integer.parseInt(arguments.getOrDefault("debts", "10000")),
+				Integer.parseInt(arguments.getOrDefault("plans", "5000")),
+				Integer.parseInt(arguments.getOrDefault("paymentsPerPlan", "12")));
+		AppOptions options = new AppOptions().setPageSize(Integer.parseInt(arguments.getOrDefault("pageSize", "0")))
+				.setMaxPagesInFlight(Integer.parseInt(arguments.getOrDefault("pagesInFlight",
+						Integer.toString(AppOptions.DEFAULT_MAX_PAGES_IN_FLIGHT))))
+				.setPaymentParallelism(Integer.parseInt(arguments.getOrDefault("paymentParallelism", "1")));
+		LoadDriver driver = new LoadDriver(generator).setOptions(options)
+				.setRuns(Integer.parseInt(arguments.getOrDefault("runs", "10")))
+				.setWarmupRuns(Integer.parseInt(arguments.getOrDefault("warmupRuns", "2")))
+				.setConcurrency(Integer.parseInt(arguments.getOrDefault("concurrency", "1")))
+				.setLatency(Duration.ofMillis(Long.parseLong(arguments.getOrDefault("latencyMs", "0"))))
+				.setBandwidth(Long.parseLong(arguments.getOrDefault("bandwidth", "0")))
+				.setErrorRate(Double.parseDouble(arguments.getOrDefault("errorRate", "0")))
+				.setCompression(compressionOf(arguments.getOrDefault("compression", "gzip")))
+				.setRequestTimeout(Duration.ofMillis(Long.parseLong(arguments.getOrDefault("requestTimeoutMs", "30000"))))
+				.setRetries(Integer.parseInt(arguments.getOrDefault("retries", "1")))
+				.setHedgeDelay(hedgeDelayOf(Long.parseLong(arguments.getOrDefault("hedgeMs", "0"))));
+		String threads = arguments.getOrDefault("threads", AppThreads.preferred().toString());
+		if (!"both".equals(threads)) {
+			System.out.println(driver.setThreads(AppThreads.forName(threads)).run());
+			return;
+		}
+		System.out.println(AppThreads.platform() + " threads:");
+		System.out.println(driver.setThreads(AppThreads.platform()).run());
+		if (!AppThreads.isVirtualSupported()) {
+			System.out.println("virtual threads: skipped, not available on Java " + Runtime.version().feature());
+			return;
+		}
+		System.out.println(AppThreads.virtual() + " threads:");
+		System.out.println(driver.setThreads(AppThreads.virtual()).run());
+	}
+
+	private static String compressionOf(String argument) {
+		return "none".equals(argument) ? null : argument;
+	}
+
+	private static Duration hedgeDelayOf(long millis) {
+		return millis > 0 ? Duration.ofMillis(millis) : null;
+	}
+}
@@ -0,0 +1,402 @@
+package com.trueaccord.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server standing in for the payments API, serving the feeds
+ * of a SyntheticDataGenerator on the loopback interface. It supports the
+ * json-server _page and _limit query parameters, and can slow down or fail
+ * responses to measure the real HTTP client under adverse conditions:
+ * <ul>
+ * <li>latency - delay before the response headers are sent.</li>
+ * <li>bandwidth - bytes per second the body is written at.</li>
+ * <li>error rate - share of requests answered with a 503.</li>
+ * </ul>
+ * The conditions can be changed while the server is running. Responses carry
+ * an ETag and a Last-Modified header, and conditional requests are answered
+ * with a 304 when the body has not changed. Bodies are gzip compressed for
+ * clients accepting it, or as set with setCompression.
+ * 
+ * @author mpcheng
+ */
+public class LocalDebtServer implements AutoCloseable {
+
+	private static final int RESPONSE_OK = 200;
+	private static final int RESPONSE_NOT_MODIFIED = 304;
+	private static final int RESPONSE_NOT_FOUND = 404;
+	private static final int RESPONSE_UNAVAILABLE = 503;
+	private static final int CHUNK_SIZE = 8 * 1024;
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+	private static final String[] ENDPOINTS = { HttpGetClient.DEBT_ENDPOINT, HttpGetClient.PAYMENT_PLANS_ENDPOINT,
+			HttpGetClient.PAYMENTS_ENDPOINT };
+
+	/**
+	 * The feeds served, replaced as a whole so a response never mixes two.
+	 */
+	private static final class Feeds {
+		private final SyntheticDataGenerator generator;
+		private final String lastModified;
+		private final Map<String, byte[]> bodies = new ConcurrentHashMap<String, byte[]>();
+		private final Map<String, byte[]> encodedBodies = new ConcurrentHashMap<String, byte[]>();
+
+		private Feeds(SyntheticDataGenerator generator, Instant lastModified) {
+			this.generator = generator;
+			this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC));
+		}
+	}
+
+	private volatile Feeds feeds;
+	private Instant lastModified;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private volatile Duration latency = Duration.ZERO;
+	private volatile long bytesPerSecond;
+	private volatile double errorRate;
+	private volatile String compression = GZIP;
+	private SplittableRandom random;
+
+	/**
+	 * Constructor for the LocalDebtServer, which starts listening on a free port of
+	 * the loopback interface.
+	 * 
+	 * @param generator - the generator of the feeds served.
+	 * @throws IOException if the server cannot be started.
+	 */
+	public LocalDebtServer(SyntheticDataGenerator generator) throws IOException {
+		this.lastModified = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+		this.feeds = new Feeds(generator, this.lastModified);
+		this.random = new SplittableRandom(0);
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "local-debt-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", this::handle);
+		this.server.start();
+	}
+
+	/**
+	 * Replaces the feeds served, as if they had changed now.
+	 * 
+	 * @param generator - the generator of the feeds served from now on.
+	 * @return this server.
+	 */
+	public LocalDebtServer setGenerator(SyntheticDataGenerator generator) {
+		synchronized (this) {
+			// Later than any Last-Modified sent before, at the precision of the header
+			Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+			this.lastModified = now.isAfter(this.lastModified) ? now : this.lastModified.plusSeconds(1);
+			this.feeds = new Feeds(generator, this.lastModified);
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the delay before the response headers are sent.
+	 * 
+	 * @param latency - the delay before the response headers are sent.
+	 * @return this server.
+	 */
+	public LocalDebtServer setLatency(Duration latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	/**
+	 * Sets the rate response bodies are written at.
+	 * 
+	 * @param bytesPerSecond - the bytes per second written, or 0 for no limit.
+	 * @return this server.
+	 */
+	public LocalDebtServer setBandwidth(long bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("Bandwidth cannot be negative: " + bytesPerSecond);
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		return this;
+	}
+
+	/**
+	 * Sets the share of requests failed with a 503 response. Which requests fail
+	 * is decided by a pseudo random sequence starting from the seed, so a given
+	 * sequence of requests fails the same way every time.
+	 * 
+	 * @param errorRate - the share of requests failed, from 0 to 1.
+	 * @param seed      - the seed deciding which requests fail.
+	 * @return this server.
+	 */
+	public LocalDebtServer setErrorRate(double errorRate, long seed) {
+		if (errorRate < 0 || errorRate > 1) {
+			throw new IllegalArgumentException("Error rate must be between 0 and 1: " + errorRate);
+		}
+		synchronized (this) {
+			this.random = new SplittableRandom(seed);
+		}
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	/**
+	 * Sets the Content-Encoding of the bodies sent to clients accepting it.
+	 * 
+	 * @param compression - "gzip", "deflate", or null to send bodies as is.
+	 * @return this server.
+	 */
+	public LocalDebtServer setCompression(String compression) {
+		if (compression != null && !GZIP.equals(compression) && !DEFLATE.equals(compression)) {
+			throw new IllegalArgumentException("Unsupported compression: " + compression);
+		}
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * Returns the URL this server serves the feed of an endpoint at.
+	 * 
+	 * @param endpoint - one of the HttpGetClient endpoints.
+	 * @return the local URL of the endpoint.
+	 */
+	public String getUrl(String endpoint) {
+		InetSocketAddress address = this.server.getAddress();
+		return "http://" + address.getHostString() + ":" + address.getPort()
+				+ endpoint.substring(endpoint.lastIndexOf('/'));
+	}
+
+	/**
+	 * Returns the number of requests received.
+	 * 
+	 * @return the number of requests received.
+	 */
+	public long getRequests() {
+		return this.requests.get();
+	}
+
+	/**
+	 * Returns the number of requests failed on purpose.
+	 * 
+	 * @return the number of requests failed on purpose.
+	 */
+	public long getFailures() {
+		return this.failures.get();
+	}
+
+	/**
+	 * Returns the number of conditional requests answered with a 304.
+	 * 
+	 * @return the number of not modified responses.
+	 */
+	public long getNotModified() {
+		return this.notModified.get();
+	}
+
+	/**
+	 * Returns the number of body bytes sent.
+	 * 
+	 * @return the number of body bytes sent.
+	 */
+	public long getBytesSent() {
+		return this.bytesSent.get();
+	}
+
+	/**
+	 * Stops the server without waiting for the exchanges in progress.
+	 */
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			this.requests.incrementAndGet();
+			sleep(this.latency.toNanos());
+			if (shouldFail()) {
+				this.failures.incrementAndGet();
+				send(exchange, RESPONSE_UNAVAILABLE, "Injected failure".getBytes(StandardCharsets.US_ASCII));
+				return;
+			}
+			String endpoint = endpointOf(exchange.getRequestURI().getPath());
+			if (endpoint == null) {
+				send(exchange, RESPONSE_NOT_FOUND, "Not found".getBytes(StandardCharsets.US_ASCII));
+				return;
+			}
+			Feeds feeds = this.feeds;
+			String query = exchange.getRequestURI().getRawQuery();
+			byte[] body = body(feeds, endpoint, query);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			String encoding = encodingOf(exchange);
+			// Each encoding of a body is a representation with its own ETag
+			String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + body.length
+					+ (encoding == null ? "" : "-" + encoding) + "\"";
+			exchange.getResponseHeaders().set("ETag", etag);
+			exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+			exchange.getResponseHeaders().set("Last-Modified", feeds.lastModified);
+			if (isNotModified(exchange, etag, feeds.lastModified)) {
+				this.notModified.incrementAndGet();
+				exchange.sendResponseHeaders(RESPONSE_NOT_MODIFIED, -1);
+				return;
+			}
+			if (encoding != null) {
+				byte[] decoded = body;
+				body = query == null ? feeds.encodedBodies.computeIfAbsent(endpoint + ":" + encoding,
+						key -> encode(decoded, encoding)) : encode(decoded, encoding);
+				exchange.getResponseHeaders().set("Content-Encoding", encoding);
+			}
+			send(exchange, RESPONSE_OK, body);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Returns the compression to send the body with, if the request accepts it.
+	 */
+	private String encodingOf(HttpExchange exchange) {
+		String compression = this.compression;
+		String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (compression == null || accepted == null) {
+			return null;
+		}
+		for (String coding : accepted.split(",")) {
+			if (coding.split(";")[0].trim().equalsIgnoreCase(compression)) {
+				return compression;
+			}
+		}
+		return null;
+	}
+
+	private static byte[] encode(byte[] body, String encoding) {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(body.length / 8);
+		try (OutputStream out = GZIP.equals(encoding) ? new GZIPOutputStream(encoded)
+				: new DeflaterOutputStream(encoded)) {
+			out.write(body);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * Returns true if the request has an If-None-Match header with the ETag, or
+	 * else an If-Modified-Since header no earlier than Last-Modified.
+	 */
+	private static boolean isNotModified(HttpExchange exchange, String etag, String lastModified) {
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ifNoneMatch.equals(etag);
+		}
+		String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+		if (ifModifiedSince == null) {
+			return false;
+		}
+		try {
+			return !ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+					.isBefore(ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME));
+		} catch (DateTimeParseException e) {
+			return false;
+		}
+	}
+
+	private static byte[] body(Feeds feeds, String endpoint, String query) {
+		int page = 0;
+		int limit = 0;
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith("_page=")) {
+					page = Integer.parseInt(parameter.substring("_page=".length()));
+				} else if (parameter.startsWith("_limit=")) {
+					limit = Integer.parseInt(parameter.substring("_limit=".length()));
+				}
+			}
+		}
+		if (page < 1 || limit < 1) {
+			return feeds.bodies.computeIfAbsent(endpoint, feeds.generator::generate);
+		}
+		int from = (int) Math.min(Integer.MAX_VALUE, (long) (page - 1) * limit);
+		return feeds.generator.generate(endpoint, from, (int) Math.min(Integer.MAX_VALUE, (long) from + limit));
+	}
+
+	private void send(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(statusCode, body.length);
+		long rate = this.bytesPerSecond;
+		long start = System.nanoTime();
+		try (OutputStream out = exchange.getResponseBody()) {
+			for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+				int length = Math.min(CHUNK_SIZE, body.length - offset);
+				if (rate > 0) {
+					// Wait until the bytes sent so far are within the bandwidth
+					sleep(start + offset * 1_000_000_000L / rate - System.nanoTime());
+				}
+				// Counted first, so a client which has read the body sees every byte counted
+				this.bytesSent.addAndGet(length);
+				out.write(body, offset, length);
+			}
+		}
+	}
+
+	private boolean shouldFail() {
+		double rate = this.errorRate;
+		if (rate <= 0) {
+			return false;
+		}
+		synchronized (this) {
+			return this.random.nextDouble() < rate;
+		}
+	}
+
+	private static String endpointOf(String path) {
+		for (String endpoint : ENDPOINTS) {
+			if (endpoint.substring(endpoint.lastIndexOf('/')).equals(path)) {
+				return endpoint;
+			}
+		}
+		return null;
+	}
+
+	private static void sleep(long nanos) {
+		if (nanos <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests App through the HttpGetClientImpl against the LocalDebtServer.
+ * 
+ * @author mpcheng
+ */
+public class LocalDebtServerTests {
+
+	private SyntheticDataGenerator generator;
+	private LocalDebtServer server;
+	private HttpGetClient client;
+
+	@Before
+	public void setup() throws IOException {
+		generator = new SyntheticDataGenerator(7L, 500, 300, 4);
+		server = new LocalDebtServer(generator);
+		client = new RedirectingHttpGetClient(new HttpGetClientImpl(), server::getUrl);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testServesFeeds() throws IOException, InterruptedException {
+		for (String url : new String[] { HttpGetClient.DEBT_ENDPOINT, HttpGetClient.PAYMENT_PLANS_ENDPOINT,
+				HttpGetClient.PAYMENTS_ENDPOINT }) {
+			try (InputStream body = client.fetchEndPointAsStream(url)) {
+				assertArrayEquals(generator.generate(url), body.readAllBytes());
+			}
+		}
+		assertEquals(3, server.getRequests());
+	}
+
+	@Test
+	public void testServesPages() throws IOException, InterruptedException {
+		String url = HttpGetClient.PAYMENTS_ENDPOINT;
+		try (InputStream body = client.fetchPageAsync(url, 3, 100).join()) {
+			assertArrayEquals(generator.generate(url, 200, 300), body.readAllBytes());
+		}
+	}
+
+	@Test
+	public void testServesBuffers() throws IOException, InterruptedException {
+		// Large enough for the payments to be spilled to a mapped file
+		SyntheticDataGenerator large = new SyntheticDataGenerator(7L, 10000, 10000, 12);
+		server.setGenerator(large);
+		HttpGetClient impl = new HttpGetClientImpl();
+		for (String endpoint : new String[] { HttpGetClient.DEBT_ENDPOINT, HttpGetClient.PAYMENTS_ENDPOINT }) {
+			byte[] expected = large.generate(endpoint);
+			ByteBuffer body = EndpointReader.await(impl.fetchEndPointAsBufferAsync(server.getUrl(endpoint)));
+			byte[] actual = new byte[body.remaining()];
+			body.get(actual);
+			assertArrayEquals(expected, actual);
+			assertEquals(expected.length > HttpGetClientImpl.SPILL_THRESHOLD, body.isDirect());
+		}
+		RuntimeException e = assertThrows(RuntimeException.class, () -> EndpointReader
+				.await(impl.fetchEndPointAsBufferAsync(server.getUrl(HttpGetClient.DEBT_ENDPOINT) + "/unknown")));
+		assertTrue(e.getMessage().contains("404"));
+	}
+
+	@Test
+	public void testTruncatedSpillDeleted() throws IOException, InterruptedException {
+		Path temp = Path.of(System.getProperty("java.io.tmpdir"));
+		int before = countSpillFiles(temp);
+		// Promises more than the spill threshold, then hangs up
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			CompletableFuture.runAsync(() -> {
+				try (Socket connection = socket.accept()) {
+					connection.getInputStream().read(new byte[8192]);
+					OutputStream out = connection.getOutputStream();
+					out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + 2 * HttpGetClientImpl.SPILL_THRESHOLD
+							+ "\r\n\r\n[").getBytes(StandardCharsets.US_ASCII));
+					out.flush();
+				} catch (IOException e) {
+					// Seen by the client as a failed body
+				}
+			});
+			String url = "http://" + socket.getInetAddress().getHostAddress() + ":" + socket.getLocalPort() + "/debts";
+			assertThrows(IOException.class,
+					() -> EndpointReader.await(new HttpGetClientImpl().fetchEndPointAsBufferAsync(url)));
+		}
+		assertEquals(before, countSpillFiles(temp));
+	}
+
+	@Test
+	public void testCompressedResponses() throws IOException, InterruptedException {
+		SyntheticDataGenerator large = new SyntheticDataGenerator(7L, 10000, 10000, 12);
+		server.setGenerator(large);
+		HttpGetClient impl = new HttpGetClientImpl();
+		String url = server.getUrl(HttpGetClient.PAYMENTS_ENDPOINT);
+		byte[] expected = large.generate(HttpGetClient.PAYMENTS_ENDPOINT);
+		Map<Integer, Debt> expectedDebts = new App(new SyntheticHttpGetClient(large)).processDebts();
+		for (String compression : new String[] { null, "gzip", "deflate" }) {
+			server.setCompression(compression);
+			long bytesBefore = server.getBytesSent();
+			try (InputStream body = impl.fetchEndPointAsStream(url)) {
+				assertArrayEquals(expected, body.readAllBytes());
+			}
+			long bytesSent = server.getBytesSent() - bytesBefore;
+			if (compression == null) {
+				assertEquals(expected.length, bytesSent);
+			} else {
+				assertTrue(compression + " sent " + bytesSent, bytesSent * 4 < expected.length);
+			}
+			ByteBuffer buffer = EndpointReader.await(impl.fetchEndPointAsBufferAsync(url));
+			byte[] actual = new byte[buffer.remaining()];
+			buffer.get(actual);
+			assertArrayEquals(expected, actual);
+			assertEquals(new String(large.generate(HttpGetClient.DEBT_ENDPOINT), StandardCharsets.US_ASCII),
+					impl.fetchEndPoint(server.getUrl(HttpGetClient.DEBT_ENDPOINT)));
+			AppOptions paged = new AppOptions().setPageSize(1000);
+			AppSyntheticTests.assertSameJsonLines(expectedDebts, new App(client, Runnable::run, paged).processDebts());
+		}
+	}
+
+	@Test
+	public void testUnknownPath() {
+		HttpGetClient unknown = new RedirectingHttpGetClient(new HttpGetClientImpl(),
+				url -> server.getUrl(HttpGetClient.DEBT_ENDPOINT) + "/unknown");
+		RuntimeException e = assertThrows(RuntimeException.class,
+				() -> unknown.fetchEndPoint(HttpGetClient.DEBT_ENDPOINT));
+		assertTrue(e.getMessage().contains("404"));
+	}
+
+	@Test
+	public void testAppMatchesSyntheticClient() throws IOException, InterruptedException {
+		Map<Integer, Debt> expected = new App(new SyntheticHttpGetClient(generator)).processDebts();
+		AppSyntheticTests.assertSameJsonLines(expected, new App(client).processDebts());
+		AppOptions paged = new AppOptions().setPageSize(64).setPaymentParallelism(2);
+		AppSyntheticTests.assertSameJsonLines(expected, new App(client, Runnable::run, paged).processDebts());
+		AppOptions buffered = new AppOptions().setBufferBodies(true);
+		AppSyntheticTests.assertSameJsonLines(expected, new App(client, Runnable::run, buffered).processDebts());
+		AppSyntheticTests.assertSameJsonLines(expected,
+				new App(client, Runnable::run, paged.setBufferBodies(true)).processDebts());
+	}
+
+	@Test
+	public void testInjectedFailures() throws IOException, InterruptedException {
+		server.setErrorRate(1, 0);
+		RuntimeException e = assertThrows(RuntimeException.class, () -> new App(client).processDebts());
+		assertTrue(e.getMessage().contains("503"));
+		assertTrue(server.getFailures() > 0);
+
+		server.setErrorRate(0, 0);
+		String body = client.fetchEndPoint(HttpGetClient.DEBT_ENDPOINT);
+		assertEquals(new String(generator.generate(HttpGetClient.DEBT_ENDPOINT), StandardCharsets.US_ASCII), body);
+	}
+
+	@Test
+	public void testLatencyAndBandwidth() throws IOException, InterruptedException {
+		server.setLatency(Duration.ofMillis(50)).setBandwidth(200_000).setCompression(null);
+		int length = generator.generate(HttpGetClient.DEBT_ENDPOINT).length;
+		long start = System.nanoTime();
+		client.fetchEndPoint(HttpGetClient.DEBT_ENDPOINT);
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+		// The last chunk is sent without waiting for it to drain
+		long minimumMillis = 50 + (length - 8 * 1024) * 1000L / 200_000;
+		assertTrue(elapsedMillis + " ms", elapsedMillis >= minimumMillis);
+	}
+
+	private static int countSpillFiles(Path directory) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "debt-body*.json")) {
+			int count = 0;
+			for (Iterator<Path> i = files.iterator(); i.hasNext(); i.next()) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	@Test
+	public void testLoadDriver() throws IOException {
+		LoadDriver.Result result = new LoadDriver(generator).setRuns(4).setWarmupRuns(1).setConcurrency(2).run();
+		assertEquals(4, result.getSuccesses());
+		assertEquals(0, result.getFailures());
+		assertEquals(12, result.getRequests());
+		assertTrue(result.getLatency(50).compareTo(result.getLatency(100)) <= 0);
+		assertTrue(result.getRecordsPerSecond() > 0);
+		assertTrue(result.getPeakHeapBytes() > 0);
+	}
+}
@@ -0,0 +1,119 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the Money totals against BigDecimal arithmetic.
+ * 
+ * @author mpcheng
+ */
+public class MoneyTests {
+
+	@Test
+	public void testZero() {
+		Money money = new Money();
+		assertEquals(BigDecimal.ZERO, money.toBigDecimal());
+		assertEquals(new BigDecimal("12.50"), money.subtractFrom(new BigDecimal("12.50")));
+		assertEquals(-1, money.compareTo(BigDecimal.ONE));
+		assertEquals(0, money.compareTo(new BigDecimal("0.00")));
+	}
+
+	@Test
+	public void testKeepsLargestScale() {
+		Money money = new Money();
+		money.add(new BigDecimal("51.25"));
+		money.add(new BigDecimal("10.1"));
+		assertEquals(new BigDecimal("61.35"), money.toBigDecimal());
+		money.add(new BigDecimal("0.005"));
+		assertEquals(new BigDecimal("61.355"), money.toBigDecimal());
+		assertEquals(new BigDecimal("38.645"), money.subtractFrom(new BigDecimal("100")));
+		assertEquals(new BigDecimal("38.6450"), money.subtractFrom(new BigDecimal("100.0000")));
+		assertTrue(money.isFixedPoint());
+	}
+
+	@Test
+	public void testExcessPrecisionFallsBack() {
+		Money money = new Money(2);
+		money.add(new BigDecimal("1.25"));
+		assertTrue(money.isFixedPoint());
+		money.add(new BigDecimal("0.001"));
+		assertFalse(money.isFixedPoint());
+		money.add(new BigDecimal("1.25"));
+		assertEquals(new BigDecimal("2.501"), money.toBigDecimal());
+		assertEquals(new BigDecimal("-0.501"), money.subtractFrom(new BigDecimal("2")));
+	}
+
+	@Test
+	public void testOverflowFallsBack() {
+		Money money = new Money(6);
+		BigDecimal large = new BigDecimal("9000000000000.5");
+		money.add(large);
+		assertTrue(money.isFixedPoint());
+		money.add(large);
+		assertFalse(money.isFixedPoint());
+		assertEquals(new BigDecimal("18000000000001.0"), money.toBigDecimal());
+		assertEquals(1, money.compareTo(large));
+	}
+
+	@Test
+	public void testSubtractFromOutOfRange() {
+		Money money = new Money(2);
+		money.add(new BigDecimal("-5.00"));
+		BigDecimal huge = new BigDecimal("92233720368547758.07");
+		assertEquals(huge.add(new BigDecimal("5.00")), money.subtractFrom(huge));
+		assertEquals(new BigDecimal("5.001"), money.subtractFrom(new BigDecimal("0.001")));
+		assertTrue(money.isFixedPoint());
+	}
+
+	@Test
+	public void testInvalidScale() {
+		assertThrows(IllegalArgumentException.class, () -> new Money(-1));
+		assertThrows(IllegalArgumentException.class, () -> new Money(Money.MAX_SCALE + 1));
+	}
+
+	@Test
+	public void testRandomAmountsMatchBigDecimal() {
+		Random random = new Random(13);
+		for (int scale : new int[] { 0, 2, 6, Money.MAX_SCALE }) {
+			for (int round = 0; round < 200; round++) {
+				Money money = new Money(scale);
+				BigDecimal expected = BigDecimal.ZERO;
+				BigDecimal amountToPay = randomAmount(random);
+				for (int i = 0; i < 20; i++) {
+					BigDecimal amount = randomAmount(random);
+					money.add(amount);
+					expected = expected.add(amount);
+					assertEquals(expected, money.toBigDecimal());
+					assertEquals(amountToPay.subtract(expected), money.subtractFrom(amountToPay));
+					assertEquals(expected.compareTo(amountToPay), money.compareTo(amountToPay));
+				}
+			}
+		}
+	}
+
+	private static BigDecimal randomAmount(Random random) {
+		long unscaled;
+		switch (random.nextInt(4)) {
+		case 0:
+			unscaled = random.nextInt(100_000);
+			break;
+		case 1:
+			unscaled = -random.nextInt(100_000);
+			break;
+		case 2:
+			unscaled = random.nextLong() >> random.nextInt(64);
+			break;
+		default:
+			unscaled = random.nextBoolean() ? Long.MAX_VALUE - random.nextInt(10) : Long.MIN_VALUE + random.nextInt(10);
+		}
+		return BigDecimal.valueOf(unscaled, random.nextInt(9) - 2);
+	}
+}
@@ -0,0 +1,114 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for PartitionedJoin class.
+ * 
+ * @author mpcheng
+ */
+public class PartitionedJoinTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testJoin() throws IOException {
+		List<Debt> debts = new ArrayList<Debt>();
+		try (PartitionedJoin join = newJoin(AppOptions.DEFAULT_JOIN_MEMORY_BUDGET)) {
+			join.addDebt(3, new BigDecimal("30.5"));
+			join.addDebt(-1, new BigDecimal("10"));
+			join.addDebt(2, new BigDecimal("20"));
+			join.addPaymentPlan(new PaymentPlan(7, 3, new BigDecimal("25"), new BigDecimal("5"),
+					PaymentPlan.Frequency.WEEKLY, 18000, false));
+			join.addPaymentPlan(new PaymentPlan(8, 2, new BigDecimal("20"), new BigDecimal("10"),
+					PaymentPlan.Frequency.BI_WEEKLY, 18000, false));
+			join.addPayment(7, 18007, new BigDecimal("5"));
+			join.addPayment(8, 18014, new BigDecimal("10"));
+			join.addPayment(7, 18003, new BigDecimal("2.25"));
+			join.addPayment(8, 18028, new BigDecimal("10"));
+			assertEquals(3, join.join(debts::add));
+			assertEquals(2 * PartitionedJoin.FAN_OUT, join.getPartitionsJoined());
+			assertEquals(0, join.getPartitionsSplit());
+		}
+		assertEquals(3, debts.size());
+		assertEquals(-1, debts.get(0).getId());
+		assertNull(debts.get(0).getPaymentPlan());
+		assertEquals(new BigDecimal("10"), debts.get(0).getRemainingAmount());
+		assertEquals(2, debts.get(1).getId());
+		assertFalse(debts.get(1).isInPaymentPlan());
+		assertEquals(3, debts.get(2).getId());
+		assertTrue(debts.get(2).isInPaymentPlan());
+		assertEquals(new BigDecimal("17.75"), debts.get(2).getRemainingAmount());
+		assertEquals(18007, debts.get(2).getPaymentPlan().getLastPaymentEpochDay());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testSplitsPartitionsOverBudget() throws IOException {
+		List<Integer> ids = new ArrayList<Integer>();
+		try (PartitionedJoin join = newJoin(64 * 1024)) {
+			for (int id = 0; id < 50000; id++) {
+				join.addDebt(id, BigDecimal.valueOf(id, 2));
+			}
+			join.join(debt -> ids.add(debt.getId()));
+			assertTrue(join.getPartitionsSplit() >= PartitionedJoin.FAN_OUT);
+			assertTrue(join.getPartitionsJoined() > 2 * PartitionedJoin.FAN_OUT);
+		}
+		assertEquals(50000, ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(i, ids.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testUnknownIds() throws IOException {
+		try (PartitionedJoin join = newJoin(AppOptions.DEFAULT_JOIN_MEMORY_BUDGET)) {
+			join.addDebt(1, BigDecimal.ONE);
+			join.addPayment(9, 18000, BigDecimal.ONE);
+			RuntimeException e = assertThrows(RuntimeException.class, () -> join.join(debt -> {
+			}));
+			assertEquals("Unknown payment plan id 9", e.getMessage());
+		}
+		try (PartitionedJoin join = newJoin(AppOptions.DEFAULT_JOIN_MEMORY_BUDGET)) {
+			join.addPaymentPlan(new PaymentPlan(9, 4, BigDecimal.TEN, BigDecimal.ONE, PaymentPlan.Frequency.WEEKLY,
+					18000, false));
+			RuntimeException e = assertThrows(RuntimeException.class, () -> join.join(debt -> {
+			}));
+			assertEquals("Unknown debt id 4 from payment plan 9", e.getMessage());
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testPartitionsDifferByDepth() {
+		int[] counts = new int[PartitionedJoin.FAN_OUT];
+		for (int key = 0; key < 16000; key++) {
+			if (PartitionedJoin.partitionOf(key, 0) == 5) {
+				counts[PartitionedJoin.partitionOf(key, 1)]++;
+			}
+		}
+		for (int count : counts) {
+			assertTrue(count > 0);
+		}
+	}
+
+	private PartitionedJoin newJoin(long memoryBudget) throws IOException {
+		Path directory = folder.getRoot().toPath();
+		return new PartitionedJoin(directory, memoryBudget, Money.DEFAULT_SCALE);
+	}
+}
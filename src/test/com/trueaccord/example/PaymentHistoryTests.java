@@ -0,0 +1,68 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+/**
+ * Tests the PaymentHistory.
+ * 
+ * @author mpcheng
+ */
+public class PaymentHistoryTests {
+
+	@Test
+	public void testEmpty() {
+		PaymentHistory history = new PaymentHistory();
+		assertEquals(0, history.size());
+		assertThrows(IndexOutOfBoundsException.class, () -> history.getEpochDay(0));
+		assertThrows(IndexOutOfBoundsException.class, () -> history.getAmount(-1));
+	}
+
+	@Test
+	public void testGrowsKeepingOrder() {
+		PaymentHistory history = new PaymentHistory();
+		for (int i = 0; i < 1000; i++) {
+			history.add(18000 + i, BigDecimal.valueOf(i, 2));
+		}
+		assertEquals(1000, history.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(18000 + i, history.getEpochDay(i));
+			assertEquals(BigDecimal.valueOf(i, 2), history.getAmount(i));
+		}
+	}
+
+	@Test
+	public void testAmountsKeepTheirScale() {
+		PaymentHistory history = new PaymentHistory();
+		BigDecimal[] amounts = { new BigDecimal("51.25"), new BigDecimal("51.250"), new BigDecimal("12.345"),
+				new BigDecimal("-4.5"), BigDecimal.ZERO, new BigDecimal("1E+3"),
+				BigDecimal.valueOf(Long.MAX_VALUE, 4), BigDecimal.valueOf(Long.MIN_VALUE, 4) };
+		for (BigDecimal amount : amounts) {
+			history.add(18628, amount);
+		}
+		for (int i = 0; i < amounts.length; i++) {
+			// equals compares the scale as well as the value
+			assertEquals(amounts[i], history.getAmount(i));
+		}
+	}
+
+	@Test
+	public void testLargeAmounts() {
+		PaymentHistory history = new PaymentHistory();
+		BigDecimal huge = new BigDecimal("123456789012345678901234567890.12");
+		BigDecimal tiny = new BigDecimal("1E-200");
+		history.add(1, BigDecimal.ONE);
+		history.add(2, huge);
+		history.add(3, tiny);
+		history.add(4, BigDecimal.TEN);
+		assertEquals(BigDecimal.ONE, history.getAmount(0));
+		assertEquals(huge, history.getAmount(1));
+		assertEquals(tiny, history.getAmount(2));
+		assertEquals(BigDecimal.TEN, history.getAmount(3));
+		assertEquals(3, history.getEpochDay(2));
+	}
+}
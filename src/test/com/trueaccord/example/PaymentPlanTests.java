@@ -2,13 +2,19 @@ package com.trueaccord.example;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -95,6 +101,59 @@ public class PaymentPlanTests {
 		assertEquals(BigDecimal.valueOf(1400.00), paymentPlan.getRemainingAmount());
 	}
 	
+	@Test
+	public void testGetAmountPaid() throws ParseException {
+		assertEquals(BigDecimal.ZERO, paymentPlan.getAmountPaid());
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-08"), installmentAmount);
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-15"), BigDecimal.valueOf(12.345));
+		assertEquals(BigDecimal.valueOf(62.345), paymentPlan.getAmountPaid());
+		assertEquals(BigDecimal.valueOf(1437.655), paymentPlan.getRemainingAmount());
+	}
+
+	@Test
+	public void testPaymentHistoryNotKeptByDefault() throws ParseException {
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-08"), installmentAmount);
+		assertTrue(paymentPlan.getPayments().isEmpty());
+	}
+
+	@Test
+	public void testPaymentHistory() throws ParseException {
+		PaymentPlan paymentPlan = new PaymentPlan(paymentPlanId, debtId, amountToPay, installmentAmount, frequency,
+				startDate, true);
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-15"), installmentAmount);
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-08"), BigDecimal.valueOf(25.00));
+		List<PaymentPlan.Payment> payments = paymentPlan.getPayments();
+		assertEquals(2, payments.size());
+		assertEquals(simpleDateFormat.parse("2021-01-15"), payments.get(0).getPaymentDate());
+		assertEquals(installmentAmount, payments.get(0).getAmountPaid());
+		assertEquals(simpleDateFormat.parse("2021-01-08"), payments.get(1).getPaymentDate());
+		assertEquals(BigDecimal.valueOf(25.00), payments.get(1).getAmountPaid());
+		assertEquals(simpleDateFormat.parse("2021-01-15"), paymentPlan.getLastPaymentDate());
+	}
+
+	@Test
+	public void testPaymentHistoryIsUnmodifiable() throws ParseException {
+		PaymentPlan paymentPlan = new PaymentPlan(paymentPlanId, debtId, amountToPay, installmentAmount, frequency,
+				startDate, true);
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-15"), installmentAmount);
+		List<PaymentPlan.Payment> payments = paymentPlan.getPayments();
+		assertThrows(UnsupportedOperationException.class,
+				() -> payments.add(new PaymentPlan.Payment(startDate, installmentAmount)));
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-22"), installmentAmount);
+		assertEquals(2, payments.size());
+	}
+
+	@Test
+	public void testIsPaidOff() throws ParseException {
+		assertFalse(paymentPlan.isPaidOff());
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-08"), amountToPay.subtract(BigDecimal.ONE));
+		assertFalse(paymentPlan.isPaidOff());
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-15"), new BigDecimal("1.000"));
+		assertTrue(paymentPlan.isPaidOff());
+		assertEquals(0, paymentPlan.getRemainingAmount().signum());
+		assertEquals(3, paymentPlan.getRemainingAmount().scale());
+	}
+
 	@Test
 	public void testLastPaymentDateWithNoPayments() {
 		assertNull(paymentPlan.getLastPaymentDate());
@@ -145,4 +204,51 @@ public class PaymentPlanTests {
 		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-08"), installmentAmount);
 		assertEquals(simpleDateFormat.parse("2021-01-15"), paymentPlan.getNextPaymentDueDate());
 	}
+
+	@Test
+	public void testGetNextPaymentDueDateBeyondTenThousandInstallments() throws ParseException {
+		PaymentPlan paymentPlan = new PaymentPlan(paymentPlanId, debtId, amountToPay, installmentAmount, frequency,
+				simpleDateFormat.parse("1800-01-03"));
+		paymentPlan.processPayment(simpleDateFormat.parse("2021-01-01"), installmentAmount);
+		assertEquals(simpleDateFormat.parse("2021-01-08"), paymentPlan.getNextPaymentDueDate());
+	}
+
+	@Test
+	public void testGetNextPaymentDueDateMatchesInstallmentLoop() {
+		Random random = new Random(20210101L);
+		Frequency[] frequencies = Frequency.values();
+		for (int i = 0; i < 2000; i++) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.clear();
+			calendar.set(1990 + random.nextInt(40), random.nextInt(12), 1 + random.nextInt(28));
+			Date startDate = calendar.getTime();
+			PaymentPlan paymentPlan = new PaymentPlan(i, i, amountToPay, installmentAmount,
+					frequencies[random.nextInt(frequencies.length)], startDate);
+			int numberOfPayments = random.nextInt(5);
+			for (int j = 0; j < numberOfPayments; j++) {
+				calendar.setTime(startDate);
+				calendar.add(Calendar.DAY_OF_YEAR, random.nextInt(3000) - 30);
+				paymentPlan.processPayment(calendar.getTime(), BigDecimal.ONE);
+			}
+			assertEquals(getNextPaymentDueDateByInstallmentLoop(paymentPlan), paymentPlan.getNextPaymentDueDate());
+		}
+	}
+
+	/**
+	 * The original implementation which steps through each installment until it is
+	 * after the last payment, used as the reference for the closed form.
+	 */
+	private static Date getNextPaymentDueDateByInstallmentLoop(PaymentPlan paymentPlan) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(paymentPlan.getStartDate());
+		calendar.add(Calendar.DAY_OF_YEAR, paymentPlan.getFrequencyInDays());
+		Date lastPaymentDate = paymentPlan.getLastPaymentDate();
+		if (lastPaymentDate == null) {
+			return calendar.getTime();
+		}
+		while (calendar.getTime().getTime() <= lastPaymentDate.getTime()) {
+			calendar.add(Calendar.DAY_OF_YEAR, paymentPlan.getFrequencyInDays());
+		}
+		return calendar.getTime();
+	}
 }
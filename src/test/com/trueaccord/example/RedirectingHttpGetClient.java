@@ -0,0 +1,50 @@
+package com.trueaccord.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorates a HttpGetClient to fetch the endpoints from other URLs, such as a
+ * LocalDebtServer, so App can run through a real HTTP client without knowing
+ * where the feeds are served from.
+ * 
+ * @author mpcheng
+ */
+public class RedirectingHttpGetClient implements HttpGetClient {
+
+	private final HttpGetClient client;
+	private final UnaryOperator<String> redirect;
+
+	/**
+	 * Constructor for the RedirectingHttpGetClient.
+	 * 
+	 * @param client   - the client fetching the redirected URLs.
+	 * @param redirect - maps the URL of an endpoint to the URL fetched instead.
+	 */
+	public RedirectingHttpGetClient(HttpGetClient client, UnaryOperator<String> redirect) {
+		this.client = client;
+		this.redirect = redirect;
+	}
+
+	@Override
+	public String fetchEndPoint(String url) throws IOException, InterruptedException {
+		return this.client.fetchEndPoint(this.redirect.apply(url));
+	}
+
+	@Override
+	public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException {
+		return this.client.fetchEndPointAsStream(this.redirect.apply(url));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+		return this.client.fetchEndPointAsync(this.redirect.apply(url));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+		return this.client.fetchPageAsync(this.redirect.apply(url), page, pageSize);
+	}
+}
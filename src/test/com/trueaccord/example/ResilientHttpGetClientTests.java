@@ -0,0 +1,231 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ResilientHttpGetClient class, against the LocalDebtServer for
+ * failures and against a scripted client for hedging.
+ * 
+ * @author mpcheng
+ */
+public class ResilientHttpGetClientTests {
+
+	private static final Duration NO_BACKOFF = Duration.ZERO;
+
+	private SyntheticDataGenerator generator;
+	private LocalDebtServer server;
+
+	@Before
+	public void setup() throws IOException {
+		generator = new SyntheticDataGenerator(7L, 500, 300, 4);
+		server = new LocalDebtServer(generator);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testRetriesRecoverApp() throws IOException, InterruptedException {
+		Map<Integer, Debt> expected = new App(new SyntheticHttpGetClient(generator)).processDebts();
+		server.setErrorRate(0.3, 11);
+		ResilientHttpGetClient client = new ResilientHttpGetClient(
+				new RedirectingHttpGetClient(new HttpGetClientImpl(), server::getUrl)).setMaxAttempts(10)
+						.setBackoff(NO_BACKOFF, NO_BACKOFF).setBudget(100, 1);
+		AppOptions options = new AppOptions().setPageSize(100);
+
+		AppSyntheticTests.assertSameJsonLines(expected, new App(client, Runnable::run, options).processDebts());
+		assertTrue(server.getFailures() > 0);
+		long retries = 0;
+		for (ResilientHttpGetClient.EndpointStats stats : client.getStats().values()) {
+			retries += stats.getRetries();
+			assertEquals(0, stats.getFailures());
+		}
+		assertTrue(retries > 0);
+	}
+
+	@Test
+	public void testNotFoundNotRetried() {
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new HttpGetClientImpl())
+				.setBackoff(NO_BACKOFF, NO_BACKOFF);
+		String url = server.getUrl("/unknown");
+		HttpStatusException e = assertThrows(HttpStatusException.class, () -> client.fetchEndPoint(url));
+		assertEquals(404, e.getStatusCode());
+		assertEquals(1, server.getRequests());
+		assertEquals(0, client.getStats(url).getRetries());
+		assertEquals(1, client.getStats(url).getFailures());
+	}
+
+	@Test
+	public void testGivesUpAfterMaxAttempts() {
+		server.setErrorRate(1, 0);
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new HttpGetClientImpl()).setMaxAttempts(4)
+				.setBackoff(NO_BACKOFF, NO_BACKOFF);
+		String url = server.getUrl(HttpGetClient.DEBT_ENDPOINT);
+		HttpStatusException e = assertThrows(HttpStatusException.class, () -> client.fetchEndPoint(url));
+		assertEquals(503, e.getStatusCode());
+		assertEquals(4, server.getRequests());
+		assertEquals(3, client.getStats(url).getRetries());
+	}
+
+	@Test
+	public void testBudgetLimitsRetries() {
+		server.setErrorRate(1, 0);
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new HttpGetClientImpl()).setMaxAttempts(5)
+				.setBackoff(NO_BACKOFF, NO_BACKOFF).setBudget(2, 0.5);
+		String url = server.getUrl(HttpGetClient.DEBT_ENDPOINT);
+		for (int i = 0; i < 4; i++) {
+			assertThrows(HttpStatusException.class, () -> client.fetchEndPoint(url));
+		}
+		// Pages share the budget of their endpoint
+		assertThrows(HttpStatusException.class, () -> EndpointReader.await(client.fetchPageAsync(url, 1, 10)));
+		ResilientHttpGetClient.EndpointStats stats = client.getStats(url);
+		assertEquals(5, stats.getRequests());
+		assertEquals(5, stats.getFailures());
+		// 2 + 0.5 per request, counted as the requests are made: 3 for the first
+		// request, then one for every other request
+		assertEquals(5, stats.getRetries());
+		assertEquals(server.getRequests(), stats.getRequests() + stats.getRetries());
+		assertEquals(5, stats.getBudgetExhausted());
+	}
+
+	@Test
+	public void testNotRetryableFailurePropagated() throws InterruptedException {
+		IllegalStateException failure = new IllegalStateException("Not retryable");
+		AtomicInteger requests = new AtomicInteger();
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new ScriptedHttpGetClient(() -> {
+			requests.incrementAndGet();
+			return CompletableFuture.failedFuture(failure);
+		}));
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> client.fetchEndPoint("http://x/debts"));
+		assertSame(failure, e);
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void testIOExceptionRetried() throws IOException, InterruptedException {
+		Deque<Supplier<CompletableFuture<InputStream>>> script = new ArrayDeque<Supplier<CompletableFuture<InputStream>>>();
+		script.add(() -> CompletableFuture.failedFuture(new UncheckedIOException(new IOException("Connection reset"))));
+		script.add(() -> CompletableFuture.completedFuture(body("[]", new AtomicBoolean())));
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new ScriptedHttpGetClient(() -> script.poll().get()))
+				.setBackoff(NO_BACKOFF, NO_BACKOFF);
+		assertEquals("[]", client.fetchEndPoint("http://x/debts"));
+		assertEquals(1, client.getStats("http://x/debts").getRetries());
+	}
+
+	@Test
+	public void testHedgeWinsAndLoserClosed() throws IOException, InterruptedException {
+		AtomicBoolean slowClosed = new AtomicBoolean();
+		CompletableFuture<InputStream> slow = new CompletableFuture<InputStream>();
+		Deque<Supplier<CompletableFuture<InputStream>>> script = new ArrayDeque<Supplier<CompletableFuture<InputStream>>>();
+		script.add(() -> slow);
+		script.add(() -> CompletableFuture.completedFuture(body("fast", new AtomicBoolean())));
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new ScriptedHttpGetClient(() -> script.poll().get()))
+				.setHedgeDelay(Duration.ofMillis(20));
+
+		assertEquals("fast", client.fetchEndPoint("http://x/payments"));
+		slow.complete(body("slow", slowClosed));
+		assertTrue(slowClosed.get());
+		ResilientHttpGetClient.EndpointStats stats = client.getStats("http://x/payments?_page=1");
+		assertEquals(1, stats.getHedges());
+		assertEquals(1, stats.getHedgeWins());
+	}
+
+	@Test
+	public void testFastResponseNotHedged() throws IOException, InterruptedException {
+		AtomicInteger requests = new AtomicInteger();
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new ScriptedHttpGetClient(() -> {
+			requests.incrementAndGet();
+			return CompletableFuture.completedFuture(body("fast", new AtomicBoolean()));
+		})).setHedgeDelay(Duration.ofMillis(20));
+
+		assertEquals("fast", client.fetchEndPoint("http://x/debts"));
+		TimeUnit.MILLISECONDS.sleep(60);
+		assertEquals(1, requests.get());
+		assertEquals(0, client.getStats("http://x/debts").getHedges());
+	}
+
+	@Test
+	public void testBuffersRetried() throws IOException, InterruptedException {
+		server.setErrorRate(0.5, 3);
+		ResilientHttpGetClient client = new ResilientHttpGetClient(new HttpGetClientImpl()).setMaxAttempts(20)
+				.setBackoff(NO_BACKOFF, NO_BACKOFF).setBudget(100, 1);
+		String url = server.getUrl(HttpGetClient.PAYMENTS_ENDPOINT);
+		for (int i = 0; i < 5; i++) {
+			byte[] body = toArray(EndpointReader.await(client.fetchEndPointAsBufferAsync(url)));
+			assertArrayEquals(generator.generate(HttpGetClient.PAYMENTS_ENDPOINT), body);
+		}
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static InputStream body(String text, AtomicBoolean closed) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+	}
+
+	/**
+	 * Answers every request with the next response of a script.
+	 */
+	private static class ScriptedHttpGetClient implements HttpGetClient {
+
+		private final Supplier<CompletableFuture<InputStream>> script;
+
+		private ScriptedHttpGetClient(Supplier<CompletableFuture<InputStream>> script) {
+			this.script = script;
+		}
+
+		@Override
+		public String fetchEndPoint(String url) throws IOException, InterruptedException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public InputStream fetchEndPointAsStream(String url) throws IOException, InterruptedException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public synchronized CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+			return this.script.get();
+		}
+
+		@Override
+		public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+			return fetchEndPointAsync(url);
+		}
+	}
+}
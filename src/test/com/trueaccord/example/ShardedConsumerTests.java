@@ -0,0 +1,82 @@
+package com.trueaccord.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+/**
+ * Tests for ShardedConsumer class.
+ * 
+ * @author mpcheng
+ * 
+ */
+public class ShardedConsumerTests {
+
+	@Test
+	public void testConsumesEveryItemInOrderPerKey() {
+		int keys = 37;
+		Map<Integer, List<Integer>> consumed = new ConcurrentHashMap<Integer, List<Integer>>();
+		Map<Integer, String> threads = new ConcurrentHashMap<Integer, String>();
+		try (ShardedConsumer<Integer> shards = new ShardedConsumer<Integer>(4, 16, item -> item % keys, item -> {
+			consumed.computeIfAbsent(item % keys, key -> new ArrayList<Integer>()).add(item);
+			String previous = threads.putIfAbsent(item % keys, Thread.currentThread().getName() + "@"
+					+ System.identityHashCode(Thread.currentThread()));
+			if (previous != null) {
+				assertEquals(previous, Thread.currentThread().getName() + "@"
+						+ System.identityHashCode(Thread.currentThread()));
+			}
+		})) {
+			for (int i = 0; i < 10000; i++) {
+				shards.accept(i);
+			}
+			shards.finish();
+		}
+		assertEquals(keys, consumed.size());
+		int total = 0;
+		for (Map.Entry<Integer, List<Integer>> entry : consumed.entrySet()) {
+			int expected = entry.getKey();
+			for (int item : entry.getValue()) {
+				assertEquals(expected, item);
+				expected += keys;
+			}
+			total += entry.getValue().size();
+		}
+		assertEquals(10000, total);
+	}
+
+	@Test
+	public void testFailurePropagates() {
+		try (ShardedConsumer<Integer> shards = new ShardedConsumer<Integer>(3, 8, item -> item, item -> {
+			if (item == 500) {
+				throw new IllegalStateException("Bad item " + item);
+			}
+		})) {
+			Exception exception = assertThrows(IllegalStateException.class, () -> {
+				for (int i = 0; i < 100000; i++) {
+					shards.accept(i);
+				}
+				shards.finish();
+			});
+			assertEquals("Bad item 500", exception.getMessage());
+		}
+	}
+
+	@Test
+	public void testNegativeKeys() {
+		List<Integer> consumed = new ArrayList<Integer>();
+		try (ShardedConsumer<Integer> shards = new ShardedConsumer<Integer>(1, 4, item -> item, consumed::add)) {
+			for (int i = -10; i < 10; i++) {
+				shards.accept(i);
+			}
+			shards.finish();
+		}
+		assertEquals(20, consumed.size());
+		assertEquals(Integer.valueOf(-10), consumed.get(0));
+	}
+}
@@ -0,0 +1,211 @@
+package com.trueaccord.example;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates synthetic debts, payment plans and payments feeds of any size for
+ * tests, benchmarks and load testing. Every record is derived from the seed and
+ * its index alone, so any range of a feed can be generated on its own and the
+ * same seed always produces the same feeds.
+ * <p>
+ * Payment plan i belongs to a distinct debt, and payments go round robin over
+ * the payment plans, so each payment plan receives paymentsPerPlan payments.
+ * 
+ * @author mpcheng
+ */
+public class SyntheticDataGenerator {
+
+	private static final int DEBTS_FEED = 1;
+	private static final int PAYMENT_PLANS_FEED = 2;
+	private static final int PAYMENTS_FEED = 3;
+	private static final int FIRST_START_EPOCH_DAY = 17532; // 2018-01-01
+
+	private final long seed;
+	private final int numberOfDebts;
+	private final int numberOfPaymentPlans;
+	private final int paymentsPerPlan;
+
+	/**
+	 * Constructor for the SyntheticDataGenerator.
+	 * 
+	 * @param seed                 - the seed all records are derived from.
+	 * @param numberOfDebts        - the number of debts.
+	 * @param numberOfPaymentPlans - the number of payment plans, at most the number
+	 *                             of debts.
+	 * @param paymentsPerPlan      - the number of payments per payment plan.
+	 */
+	public SyntheticDataGenerator(long seed, int numberOfDebts, int numberOfPaymentPlans, int paymentsPerPlan) {
+		if (numberOfPaymentPlans > numberOfDebts) {
+			throw new IllegalArgumentException("More payment plans than debts: " + numberOfPaymentPlans);
+		}
+		this.seed = seed;
+		this.numberOfDebts = numberOfDebts;
+		this.numberOfPaymentPlans = numberOfPaymentPlans;
+		this.paymentsPerPlan = paymentsPerPlan;
+	}
+
+	public int getNumberOfDebts() {
+		return numberOfDebts;
+	}
+
+	public int getNumberOfPaymentPlans() {
+		return numberOfPaymentPlans;
+	}
+
+	public int getNumberOfPayments() {
+		return numberOfPaymentPlans * paymentsPerPlan;
+	}
+
+	/**
+	 * Returns the number of records of the feed of the endpoint.
+	 */
+	public int getNumberOfRecords(String url) {
+		switch (feedOf(url)) {
+		case DEBTS_FEED:
+			return getNumberOfDebts();
+		case PAYMENT_PLANS_FEED:
+			return getNumberOfPaymentPlans();
+		default:
+			return getNumberOfPayments();
+		}
+	}
+
+	/**
+	 * Returns the whole feed of the endpoint as a JSON array.
+	 */
+	public byte[] generate(String url) {
+		return generate(url, 0, getNumberOfRecords(url));
+	}
+
+	/**
+	 * Returns the records from (inclusive) to (exclusive) of the feed of the
+	 * endpoint as a JSON array.
+	 */
+	public byte[] generate(String url, int from, int to) {
+		StringBuilder json = new StringBuilder();
+		append(json, url, from, to);
+		return json.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Appends the records from (inclusive) to (exclusive) of the feed of the
+	 * endpoint as a JSON array.
+	 */
+	public void append(StringBuilder json, String url, int from, int to) {
+		int feed = feedOf(url);
+		to = Math.min(to, getNumberOfRecords(url));
+		json.append('[');
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				json.append(',');
+			}
+			json.append('\n');
+			switch (feed) {
+			case DEBTS_FEED:
+				appendDebt(json, i);
+				break;
+			case PAYMENT_PLANS_FEED:
+				appendPaymentPlan(json, i);
+				break;
+			default:
+				appendPayment(json, i);
+			}
+		}
+		json.append("\n]");
+	}
+
+	private void appendDebt(StringBuilder json, int id) {
+		json.append("{\"amount\":");
+		appendCents(json, debtCents(id));
+		json.append(",\"id\":").append(id).append('}');
+	}
+
+	private void appendPaymentPlan(StringBuilder json, int id) {
+		long amountToPay = amountToPayCents(id);
+		json.append("{\"amount_to_pay\":");
+		appendCents(json, amountToPay);
+		json.append(",\"debt_id\":").append(debtIdOfPaymentPlan(id));
+		json.append(",\"id\":").append(id);
+		json.append(",\"installment_amount\":");
+		appendCents(json, installmentCents(id));
+		json.append(",\"installment_frequency\":\"");
+		json.append(random(PAYMENT_PLANS_FEED, id, 2) % 2 == 0 ? "WEEKLY" : "BI_WEEKLY");
+		json.append("\",\"start_date\":\"").append(DateCodec.ISO.format(startEpochDay(id))).append("\"}");
+	}
+
+	private void appendPayment(StringBuilder json, int index) {
+		int paymentPlanId = index % numberOfPaymentPlans;
+		long installment = installmentCents(paymentPlanId);
+		long variation = random(PAYMENTS_FEED, index, 0);
+		json.append("{\"amount\":");
+		if (variation % 10 == 0) {
+			// Some payments are made in fractions of cents
+			long mills = installment * 10 + variation % 7;
+			json.append(mills / 1000).append('.');
+			appendDigits(json, mills % 1000, 3);
+		} else {
+			appendCents(json, installment);
+		}
+		int epochDay = startEpochDay(paymentPlanId) + (index / numberOfPaymentPlans) * 7
+				+ (int) (random(PAYMENTS_FEED, index, 1) % 10);
+		json.append(",\"date\":\"").append(DateCodec.ISO.format(epochDay));
+		json.append("\",\"payment_plan_id\":").append(paymentPlanId).append('}');
+	}
+
+	private int debtIdOfPaymentPlan(int id) {
+		return (int) ((long) id * numberOfDebts / numberOfPaymentPlans);
+	}
+
+	private long debtCents(int id) {
+		return 1000 + random(DEBTS_FEED, id, 0) % 10_000_000;
+	}
+
+	private long amountToPayCents(int id) {
+		return debtCents(debtIdOfPaymentPlan(id)) * (50 + random(PAYMENT_PLANS_FEED, id, 0) % 51) / 100;
+	}
+
+	private long installmentCents(int id) {
+		long installments = 2L * paymentsPerPlan + 1 + random(PAYMENT_PLANS_FEED, id, 1) % 20;
+		return Math.max(1, amountToPayCents(id) / installments);
+	}
+
+	private int startEpochDay(int id) {
+		return FIRST_START_EPOCH_DAY + (int) (random(PAYMENT_PLANS_FEED, id, 3) % 1096);
+	}
+
+	/**
+	 * Returns a non negative pseudo random number for a field of a record, mixing
+	 * the seed, feed, record index and field with SplitMix64.
+	 */
+	private long random(int feed, long index, int field) {
+		long z = seed + (((long) feed << 56) ^ (index << 8) ^ field) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return (z ^ (z >>> 31)) >>> 1;
+	}
+
+	private static void appendCents(StringBuilder json, long cents) {
+		json.append(cents / 100).append('.');
+		appendDigits(json, cents % 100, 2);
+	}
+
+	private static void appendDigits(StringBuilder json, long value, int digits) {
+		String string = Long.toString(value);
+		for (int i = string.length(); i < digits; i++) {
+			json.append('0');
+		}
+		json.append(string);
+	}
+
+	private static int feedOf(String url) {
+		switch (url) {
+		case HttpGetClient.DEBT_ENDPOINT:
+			return DEBTS_FEED;
+		case HttpGetClient.PAYMENT_PLANS_ENDPOINT:
+			return PAYMENT_PLANS_FEED;
+		case HttpGetClient.PAYMENTS_ENDPOINT:
+			return PAYMENTS_FEED;
+		}
+		throw new RuntimeException("Unknown url for synthetic data " + url);
+	}
+}
@@ -0,0 +1,43 @@
+package com.trueaccord.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A mock implementation of HttpGetClient that returns feeds generated by a
+ * SyntheticDataGenerator rather than from a service endpoint.
+ * 
+ * @author mpcheng
+ */
+public class SyntheticHttpGetClient implements HttpGetClient {
+
+	private final SyntheticDataGenerator generator;
+
+	public SyntheticHttpGetClient(SyntheticDataGenerator generator) {
+		this.generator = generator;
+	}
+
+	@Override
+	public String fetchEndPoint(String url) {
+		return new String(generator.generate(url), StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public InputStream fetchEndPointAsStream(String url) {
+		return new ByteArrayInputStream(generator.generate(url));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchEndPointAsync(String url) {
+		return CompletableFuture.supplyAsync(() -> fetchEndPointAsStream(url));
+	}
+
+	@Override
+	public CompletableFuture<InputStream> fetchPageAsync(String url, int page, int pageSize) {
+		int from = (page - 1) * pageSize;
+		return CompletableFuture
+				.supplyAsync(() -> new ByteArrayInputStream(generator.generate(url, from, from + pageSize)));
+	}
+}